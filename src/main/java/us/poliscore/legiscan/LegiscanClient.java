@@ -2,6 +2,9 @@ package us.poliscore.legiscan;
 
 import java.io.File;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -17,6 +20,7 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import lombok.SneakyThrows;
 import us.poliscore.legiscan.cache.CachedLegiscanDatasetResult;
 import us.poliscore.legiscan.service.CachedLegiscanService;
+import us.poliscore.legiscan.service.DatasetSyncEngine;
 import us.poliscore.legiscan.service.LegiscanService;
 import us.poliscore.legiscan.view.LegiscanState;
 
@@ -29,7 +33,8 @@ public class LegiscanClient {
         options.addRequiredOption("op", "operation", true, "Operation to perform. Valid values: cacheDataset, getBill, getBillText, getAmendment,\n" +
         	    "getSupplement, getRollCall, getPerson, getSessionList, getMasterList,\n" +
         	    "getMasterListRaw, getSearch, getSearchRaw, getDatasetList, getDataset,\n" +
-        	    "getDatasetRaw, getSessionPeople, getSponsoredList, getMonitorList, getMonitorListRaw, setMonitor");
+        	    "getDatasetRaw, getSessionPeople, getSponsoredList, getMonitorList, getMonitorListRaw, setMonitor, budgetReport,\n" +
+        	    "syncDatasets");
 
         options.addOption("i", "id", true, "ID for operations requiring a bill/session/person ID");
         options.addOption("s", "state", true, "State abbreviation (e.g., CA, TX)");
@@ -43,9 +48,14 @@ public class LegiscanClient {
         options.addOption("ac", "action", true, "Action to take for setMonitor: monitor, remove, or set");
         options.addOption("st", "stance", true, "Stance to apply (optional, defaults to 'watch')");
         options.addOption("r", "record", true, "Record filter for monitor list (current, archived, year)");
+        options.addOption("dc", "dataset_concurrency", true, "Number of datasets synced at once by syncDatasets (default: 4)");
+        options.addOption("sl", "sync_limit", true, "Maximum number of queries syncDatasets may make before it stops starting datasets (default: no limit beyond the query budget)");
+        options.addOption("sc", "skip_current", false, "Used with syncDatasets to skip datasets whose hash hasn't changed since they were last loaded");
+        options.addOption("ss", "special_sessions", false, "Used with syncDatasets to include special sessions");
 
         options.addOption("c", "no_cache", false, "Disable caching (enabled by default)");
         options.addOption("cd", "cache_dir", true, "Directory to use for cached data. (default: <user.home>/appdata/poliscore/legiscan)");
+        options.addOption("ql", "query_limit", true, "Monthly query quota of the API key. Calls are recorded in a ledger in the cache directory, and are cut back as the quota runs out. (default: 30000)");
 
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
@@ -66,7 +76,7 @@ public class LegiscanClient {
         validateRequiredArgs(cmd, op);
 
         LegiscanService service;
-        if (cmd.hasOption("no_cache") && !op.equals("cacheDataset")) {
+        if (cmd.hasOption("no_cache") && !op.equals("cacheDataset") && !op.equals("budgetReport") && !op.equals("syncDatasets")) {
             service = new LegiscanService(apiKey);
         } else {
             CachedLegiscanService.Builder builder = CachedLegiscanService.builder(apiKey);
@@ -74,6 +84,10 @@ public class LegiscanClient {
             if (cmd.hasOption("cache_dir")) {
                 builder.withCacheDirectory(new File(cmd.getOptionValue("cache_dir")));
             }
+            
+            if (cmd.hasOption("query_limit")) {
+                builder.withQueryBudget(Long.parseLong(cmd.getOptionValue("query_limit")));
+            }
 
             service = builder.build();
         }
@@ -90,7 +104,10 @@ public class LegiscanClient {
         		else
         			cached = cacheService.cacheDataset(LegiscanState.fromAbbreviation(cmd.getOptionValue("state")), Integer.parseInt(cmd.getOptionValue("year")));
         		
-        		System.out.println("Successfully loaded [" + cached.getDataset().getSessionName() + "] into cache [" + cacheService.getCache().toString() + "]. Dataset contains " + cached.getPeople().size() + " people, " + cached.getBills().size()+ " bills, and " + cached.getVotes().size()+ " votes.");
+        		System.out.println("Successfully loaded [" + cached.getDataset().getSessionName() + "] into cache [" + cacheService.getCache().toString() + "]. Dataset contains " + cached.getPeople().size() + " people, " + cached.getBills().size()+ " bills, and " + cached.getVotes().size()+ " votes (" + cached.getDelta() + ").");
+        		
+        		if (!cached.getFailedBills().isEmpty())
+        			System.out.println("Failed to update " + cached.getFailedBills().size() + " bills: " + cached.getFailedBills().keySet());
         	}
             case "getBill" -> System.out.println(outputMapper.writeValueAsString(service.getBill(Integer.parseInt(cmd.getOptionValue("id")))));
             case "getBillText" -> System.out.println(outputMapper.writeValueAsString(service.getBillText(Integer.parseInt(cmd.getOptionValue("id")))));
@@ -163,6 +180,34 @@ public class LegiscanClient {
                 String stance = cmd.getOptionValue("stance", "watch");
                 System.out.println(outputMapper.writeValueAsString(service.setMonitor(ids, action, stance)));
             }
+            case "budgetReport" -> {
+                if (service.getLedger() == null) throw new IllegalArgumentException("budgetReport requires a query ledger (is --query_limit zero?)");
+                System.out.println(outputMapper.writerWithDefaultPrettyPrinter().writeValueAsString(service.getLedger().report()));
+            }
+
+            case "syncDatasets" -> {
+                // With no state or year, every session which is still running is synced
+                Set<LegiscanState> states = cmd.hasOption("state")
+                        ? Stream.of(cmd.getOptionValue("state").split(",")).map(s -> LegiscanState.fromAbbreviation(s.trim())).collect(Collectors.toSet())
+                        : Set.of();
+                Set<Integer> years = cmd.hasOption("year")
+                        ? Stream.of(cmd.getOptionValue("year").split(",")).map(y -> Integer.parseInt(y.trim())).collect(Collectors.toSet())
+                        : Set.of();
+
+                var engine = DatasetSyncEngine.builder((CachedLegiscanService)service)
+                        .withConcurrency(Integer.parseInt(cmd.getOptionValue("dataset_concurrency", String.valueOf(DatasetSyncEngine.DEFAULT_CONCURRENCY))))
+                        .withQueryLimit(Long.parseLong(cmd.getOptionValue("sync_limit", "0")))
+                        .withSkipCurrent(cmd.hasOption("skip_current"))
+                        .withSpecialSessions(cmd.hasOption("special_sessions"))
+                        .build();
+
+                var report = engine.sync(states, years);
+
+                for (var result : report.getResults()) {
+                    System.out.println(result);
+                }
+                System.out.println(report);
+            }
 
             default -> throw new IllegalArgumentException("Unknown operation: " + op);
         }
@@ -195,8 +240,8 @@ public class LegiscanClient {
             case "getDatasetList" -> {
                 require(cmd, "state");
             }
-            case "getMonitorList", "getMonitorListRaw" -> {
-                // Optional --record, no required args
+            case "getMonitorList", "getMonitorListRaw", "budgetReport", "syncDatasets" -> {
+                // No required args (syncDatasets syncs every current session without --state or --year)
             }
             case "setMonitor" -> {
                 require(cmd, "monitor_ids");
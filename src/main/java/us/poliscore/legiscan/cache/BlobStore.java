@@ -0,0 +1,177 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Stores blobs as plain files, at blob.bin in a directory derived from the key, with their metadata next to them in blob.json. Shared by
+ * the file system and pack file caches.
+ *
+ * A blob is written to temporary files which are then atomically renamed into place: first the data, then the metadata. The metadata
+ * records the identity of the data file it was written for (its file key, i.e. its inode where the platform has one, along with its size
+ * and modification time), which survives the rename. A reader which catches a blob between the two renames sees the mismatch and treats
+ * the blob as missing, rather than pairing new data with old metadata, even when the old and new data happen to be the same size. Writes
+ * to the same key are serialized by a striped lock; reads take no lock.
+ */
+class BlobStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BlobStore.class);
+
+	static final String DATA_FILE = "blob.bin";
+
+	static final String META_FILE = "blob.json";
+
+	private static final int LOCK_STRIPES = 16;
+
+	private final File root;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+	BlobStore(File root) {
+		this.root = root;
+
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * @return Whether the file was left behind by a blob write which was interrupted by a crash
+	 */
+	static boolean isLeftover(String fileName) {
+		return fileName.startsWith("blob.") && fileName.endsWith(".tmp");
+	}
+
+	private static String sanitize(String key) {
+		return key.replaceAll("[^/a-zA-Z0-9\\-_]", "_");
+	}
+
+	private File dir(String key) {
+		return new File(root, sanitize(key));
+	}
+
+	private ReentrantLock lockFor(String key) {
+		return locks[Math.floorMod(sanitize(key).hashCode(), LOCK_STRIPES)];
+	}
+
+	void put(String key, InputStream data, String objectHash, long ttlSecs) throws IOException {
+		Path tmp = createTemp(key, DATA_FILE);
+
+		try {
+			Files.copy(data, tmp, StandardCopyOption.REPLACE_EXISTING);
+			publish(key, tmp, objectHash, ttlSecs);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	void put(String key, Path source, String objectHash, long ttlSecs) throws IOException {
+		Path tmp = createTemp(key, DATA_FILE);
+
+		try {
+			// A rename if the source is on the same file system, otherwise a copy
+			Files.move(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+			publish(key, tmp, objectHash, ttlSecs);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private Path createTemp(String key, String fileName) throws IOException {
+		File dir = dir(key);
+		Files.createDirectories(dir.toPath());
+		return Files.createTempFile(dir.toPath(), fileName + ".", ".tmp");
+	}
+
+	private void publish(String key, Path data, String objectHash, long ttlSecs) throws IOException {
+		Map<String, Object> meta = new LinkedHashMap<String, Object>();
+		meta.put("timestamp", Instant.now().getEpochSecond());
+		meta.put("ttlSecs", ttlSecs);
+		meta.put("objectHash", objectHash);
+		meta.put("size", Files.size(data));
+		meta.put("generation", generation(data));
+
+		Path metaTmp = createTemp(key, META_FILE);
+		ReentrantLock lock = lockFor(key);
+		lock.lock();
+		try {
+			Files.write(metaTmp, mapper.writeValueAsBytes(meta));
+			move(data, new File(dir(key), DATA_FILE).toPath());
+			move(metaTmp, new File(dir(key), META_FILE).toPath());
+		} finally {
+			lock.unlock();
+			Files.deleteIfExists(metaTmp);
+		}
+	}
+
+	/**
+	 * Identifies the data file itself, rather than its content. A new file gets a new identity, whatever its size.
+	 */
+	private static String generation(Path data) throws IOException {
+		BasicFileAttributes attrs = Files.readAttributes(data, BasicFileAttributes.class);
+		return attrs.fileKey() + ":" + attrs.lastModifiedTime().toMillis() + ":" + attrs.size();
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	Optional<CachedBlob> open(String key) {
+		File dir = dir(key);
+		Path data = new File(dir, DATA_FILE).toPath();
+
+		try {
+			JsonNode meta = mapper.readTree(new File(dir, META_FILE));
+			long size = meta.path("size").asLong(-1);
+
+			if (!generation(data).equals(meta.path("generation").asText(null))) return Optional.empty();
+
+			String hash = meta.path("objectHash").isNull() ? null : meta.path("objectHash").asText(null);
+			return Optional.of(new CachedBlob(data, size, meta.path("timestamp").asLong(), meta.path("ttlSecs").asLong(), hash));
+		} catch (NoSuchFileException | FileNotFoundException e) {
+			return Optional.empty();
+		} catch (IOException e) {
+			LOGGER.warn("Failed to read blob for key: " + key, e);
+			return Optional.empty();
+		}
+	}
+
+	void remove(String key) {
+		ReentrantLock lock = lockFor(key);
+		lock.lock();
+		try {
+			// Metadata first, so that the data is never visible without it
+			Files.deleteIfExists(new File(dir(key), META_FILE).toPath());
+			Files.deleteIfExists(new File(dir(key), DATA_FILE).toPath());
+		} catch (IOException e) {
+			LOGGER.warn("Failed to delete blob for key: " + key, e);
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Transparently compresses serialized cache entries with deflate, optionally primed with a trained {@link CompressionDictionary}.
+ *
+ * Compressed entries are prefixed with a small header (a magic number, the id of the dictionary they were compressed with and their
+ * uncompressed length), so compressed and uncompressed entries can be told apart on read. The last byte of the magic number is a format
+ * version: version 1 entries carry a 4 byte (Adler32) dictionary id, and are still read, whereas new entries carry the 8 byte id of
+ * CompressionDictionary. Entries below the size threshold are stored
+ * as-is, since for small entries the compression overhead outweighs the savings.
+ *
+ * Dictionaries are stored in the given directory, one file per dictionary id, so that entries compressed with an older dictionary remain
+ * readable after retraining.
+ */
+public class CacheCompressor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CacheCompressor.class);
+
+	/**
+	 * Chosen so that it cannot be confused with the start of a JSON, Smile or CBOR document.
+	 */
+	protected static final byte[] MAGIC = new byte[] { 0x1F, 'L', 'Z', 0x02 };
+
+	protected static final int HEADER_LENGTH = MAGIC.length + 12;
+
+	/**
+	 * The version written before dictionary ids were widened to 8 bytes.
+	 */
+	protected static final byte LEGACY_VERSION = 0x01;
+
+	protected static final int LEGACY_HEADER_LENGTH = MAGIC.length + 8;
+
+	protected static final String CURRENT_FILE = "current";
+
+	protected static final String DICTIONARY_EXTENSION = ".dict";
+
+	public static final int DEFAULT_THRESHOLD = 1024;
+
+	private final File dictionaryDir;
+
+	/**
+	 * Keyed by the hex id which names the dictionary's file
+	 */
+	private final Map<String, CompressionDictionary> dictionaries = new ConcurrentHashMap<String, CompressionDictionary>();
+
+	/**
+	 * Entries smaller than this (in bytes) are stored uncompressed. A negative value disables compression of new entries.
+	 */
+	@Getter @Setter
+	private volatile int threshold = -1;
+
+	@Getter @Setter
+	private volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+	@Getter
+	private volatile CompressionDictionary dictionary;
+
+	public CacheCompressor(File dictionaryDir) {
+		this.dictionaryDir = dictionaryDir;
+		this.dictionary = loadCurrent();
+	}
+
+	public boolean isEnabled() {
+		return threshold >= 0;
+	}
+
+	public byte[] compress(byte[] data) {
+		if (!isEnabled() || data.length < threshold) return data;
+
+		CompressionDictionary dict = this.dictionary;
+		Deflater deflater = new Deflater(level);
+
+		try {
+			if (dict != null) deflater.setDictionary(dict.getBytes());
+			deflater.setInput(data);
+			deflater.finish();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + HEADER_LENGTH);
+			out.write(MAGIC, 0, MAGIC.length);
+			out.write(ByteBuffer.allocate(12).putLong(dict == null ? 0 : dict.getId()).putInt(data.length).array(), 0, 12);
+
+			byte[] buf = new byte[8192];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				out.write(buf, 0, n);
+			}
+
+			// Not worth it, store the entry as-is
+			if (out.size() >= data.length) return data;
+
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	public byte[] decompress(byte[] data) throws IOException {
+		if (!isCompressed(data)) return data;
+
+		boolean legacy = data[MAGIC.length - 1] == LEGACY_VERSION;
+		int headerLength = legacy ? LEGACY_HEADER_LENGTH : HEADER_LENGTH;
+
+		ByteBuffer header = ByteBuffer.wrap(data, MAGIC.length, headerLength - MAGIC.length);
+		String dictId = legacy ? String.format("%08x", header.getInt()) : String.format("%016x", header.getLong());
+		int length = header.getInt();
+
+		Inflater inflater = new Inflater();
+
+		try {
+			inflater.setInput(data, headerLength, data.length - headerLength);
+
+			byte[] out = new byte[length];
+			int read = 0;
+
+			while (read < length) {
+				int n = inflater.inflate(out, read, length - read);
+				read += n;
+
+				if (n == 0) {
+					if (inflater.needsDictionary()) {
+						inflater.setDictionary(getDictionary(dictId).getBytes());
+					} else if (inflater.finished() || inflater.needsInput()) {
+						throw new IOException("Compressed cache entry is truncated");
+					}
+				}
+			}
+
+			return out;
+		} catch (DataFormatException e) {
+			throw new IOException("Compressed cache entry is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	public static boolean isCompressed(byte[] data) {
+		if (data.length < LEGACY_HEADER_LENGTH) return false;
+
+		for (int i = 0; i < MAGIC.length - 1; i++) {
+			if (data[i] != MAGIC[i]) return false;
+		}
+
+		byte version = data[MAGIC.length - 1];
+		return (version == MAGIC[MAGIC.length - 1] && data.length >= HEADER_LENGTH) || version == LEGACY_VERSION;
+	}
+
+	/**
+	 * Stores the given dictionary alongside the cache and uses it for all entries compressed from now on.
+	 */
+	public synchronized void setDictionary(CompressionDictionary dict) throws IOException {
+		dictionaryDir.mkdirs();
+
+		File file = new File(dictionaryDir, dict.getIdHex() + DICTIONARY_EXTENSION);
+		if (!file.exists()) Files.write(file.toPath(), dict.getBytes());
+
+		Files.writeString(new File(dictionaryDir, CURRENT_FILE).toPath(), dict.getIdHex(), StandardCharsets.UTF_8);
+
+		dictionaries.put(dict.getIdHex(), dict);
+		this.dictionary = dict;
+	}
+
+	/**
+	 * @param idHex The hex id which names the dictionary's file. Dictionaries stored by older versions are named by their 8 digit Adler32.
+	 */
+	protected CompressionDictionary getDictionary(String idHex) throws IOException {
+		CompressionDictionary dict = dictionaries.get(idHex);
+		if (dict != null) return dict;
+
+		File file = new File(dictionaryDir, idHex + DICTIONARY_EXTENSION);
+		if (!file.exists()) throw new IOException("Cache entry was compressed with dictionary [" + idHex + "], which no longer exists in [" + dictionaryDir + "]");
+
+		dict = new CompressionDictionary(Files.readAllBytes(file.toPath()));
+		dictionaries.put(idHex, dict);
+		return dict;
+	}
+
+	private CompressionDictionary loadCurrent() {
+		File current = new File(dictionaryDir, CURRENT_FILE);
+		if (!current.exists()) return null;
+
+		try {
+			String idHex = Files.readString(current.toPath()).trim();
+			CompressionDictionary dict = getDictionary(idHex);
+
+			// A dictionary stored under its legacy id is stored again under its new one, which new entries will refer to
+			if (!idHex.equals(dict.getIdHex())) setDictionary(dict);
+
+			return dict;
+		} catch (Exception e) {
+			LOGGER.warn("Unable to load the current compression dictionary from [" + dictionaryDir + "]. Entries will be compressed without one.", e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package us.poliscore.legiscan.cache;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * The on-disk encoding of cache entries. Each encoding is written to its own file name, which acts as the format marker and allows
+ * entries of different encodings to coexist in the same cache (for example while migrating a cache from JSON to Smile).
+ */
+public enum CacheEncoding {
+	/**
+	 * Human readable, pretty printed JSON. This is the default, and matches what older versions of this library wrote.
+	 */
+	JSON("cached.json"),
+
+	/**
+	 * Jackson's binary JSON format. Noticeably smaller and faster to read and write than JSON, and supports raw binary values.
+	 */
+	SMILE("cached.sml"),
+
+	/**
+	 * The Concise Binary Object Representation (RFC 8949).
+	 */
+	CBOR("cached.cbor");
+
+	private String fileName;
+
+	CacheEncoding(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public String getFileName() { return fileName; }
+
+	/**
+	 * Creates a mapper for this encoding which shares the configuration and modules of the given mapper.
+	 */
+	public ObjectMapper createMapper(ObjectMapper base) {
+		JsonFactory factory = switch (this) {
+			case JSON -> null;
+			case SMILE -> new SmileFactory();
+			case CBOR -> new CBORFactory();
+		};
+
+		if (factory == null) return base;
+
+		// Carry over any relaxed constraints (such as the max string length needed by the datasets)
+		factory.setStreamReadConstraints(base.getFactory().streamReadConstraints());
+
+		return new DerivedMapper(base, factory);
+	}
+
+	public static CacheEncoding fromFileName(String fileName) {
+		for (CacheEncoding e : values()) {
+			if (e.fileName.equals(fileName)) return e;
+		}
+
+		return null;
+	}
+
+	/**
+	 * ObjectMapper.copyWith refuses to copy subclasses such as JsonMapper, so we go through the copy constructor instead. This retains
+	 * the registered modules and configuration of the source mapper.
+	 */
+	private static class DerivedMapper extends ObjectMapper {
+		private static final long serialVersionUID = 1L;
+
+		private DerivedMapper(ObjectMapper src, JsonFactory factory) {
+			super(src, factory);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A memory-mapped hash table of cache entry metadata (timestamp, ttl, object hash and where the payload lives), which lets the file system
+ * cache answer expiry and change hash checks without opening, let alone parsing, the cached files.
+ *
+ * Lookups touch a single page in the common case. Keys and object hashes which do not fit in a slot are simply not indexed, and the cache
+ * falls back to reading the file for those. An index which was started over must be rebuilt from the cache files by the owning cache, and
+ * is not marked as clean until it has been.
+ *
+ * Each entry also records the modification time and length of the file it was read from, so that the cache can tell with a single stat
+ * when the file has changed behind the index's back, such as by another process sharing the cache directory.
+ */
+public class CacheMetadataIndex extends MappedHashTable {
+
+	protected static final int MAGIC = 0x4C4D4958; // "LMIX"
+
+	protected static final int VERSION = 2;
+
+	protected static final int HEADER_LENGTH = 64;
+
+	protected static final int SLOT_LENGTH = 256;
+
+	protected static final int MAX_KEY_LENGTH = 144;
+
+	protected static final int MAX_HASH_LENGTH = 56;
+
+	// Slot offsets
+	private static final int S_ENCODING = 1, S_KEY_LENGTH = 2, S_HASH_LENGTH = 4, S_KEY_HASH = 8, S_TIMESTAMP = 16, S_TTL = 24, S_SIZE = 32, S_FILE_MODIFIED = 40, S_FILE_LENGTH = 48, S_KEY = 56, S_HASH = S_KEY + MAX_KEY_LENGTH;
+
+	/**
+	 * True if the index was started over when it was opened and so needs to be rebuilt by the owning cache.
+	 */
+	@Getter
+	private volatile boolean rebuildRequired;
+
+	private boolean rebuildClaimed;
+
+	/**
+	 * Opens the index stored in the given file, or returns the already open instance if another cache within this JVM has it open.
+	 */
+	public static CacheMetadataIndex open(File file) throws IOException {
+		return open(file, CacheMetadataIndex::new);
+	}
+
+	private CacheMetadataIndex(File file) throws IOException {
+		super(file, "Metadata index", MAGIC, VERSION, HEADER_LENGTH, SLOT_LENGTH);
+		this.rebuildRequired = isStartedOver();
+	}
+
+	public Metadata get(String key) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > MAX_KEY_LENGTH) return null;
+
+		lock.readLock().lock();
+		try {
+			int base = find(keyBytes);
+			if (base < 0) return null;
+
+			int hashLength = buffer.getShort(base + S_HASH_LENGTH);
+
+			String objectHash = null;
+			if (hashLength >= 0) {
+				byte[] hashBytes = new byte[hashLength];
+				buffer.get(base + S_HASH, hashBytes);
+				objectHash = new String(hashBytes, StandardCharsets.UTF_8);
+			}
+
+			return new Metadata(buffer.getLong(base + S_TIMESTAMP), buffer.getLong(base + S_TTL), objectHash,
+					CacheEncoding.values()[buffer.get(base + S_ENCODING)], buffer.getLong(base + S_SIZE), buffer.getLong(base + S_FILE_MODIFIED),
+					buffer.getLong(base + S_FILE_LENGTH));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Indexes the metadata of the given key, replacing any existing metadata.
+	 *
+	 * @return False if the key or object hash is too long to be indexed, in which case the key is no longer indexed
+	 */
+	public boolean put(String key, Metadata meta) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		byte[] hashBytes = meta.getObjectHash() == null ? null : meta.getObjectHash().getBytes(StandardCharsets.UTF_8);
+
+		if (keyBytes.length > MAX_KEY_LENGTH) return false;
+		if (hashBytes != null && hashBytes.length > MAX_HASH_LENGTH) {
+			remove(key);
+			return false;
+		}
+
+		long keyHash = hash(keyBytes);
+
+		lock.writeLock().lock();
+		try {
+			int base = find(keyBytes);
+			if (base < 0) base = insert(keyHash);
+			if (base < 0) return false;
+
+			buffer.put(base + S_ENCODING, (byte) meta.getEncoding().ordinal());
+			buffer.putShort(base + S_KEY_LENGTH, (short) keyBytes.length);
+			buffer.putShort(base + S_HASH_LENGTH, (short) (hashBytes == null ? -1 : hashBytes.length));
+			buffer.putLong(base + S_KEY_HASH, keyHash);
+			buffer.putLong(base + S_TIMESTAMP, meta.getTimestamp());
+			buffer.putLong(base + S_TTL, meta.getTtlSecs());
+			buffer.putLong(base + S_SIZE, meta.getSize());
+			buffer.putLong(base + S_FILE_MODIFIED, meta.getFileModified());
+			buffer.putLong(base + S_FILE_LENGTH, meta.getFileLength());
+			buffer.put(base + S_KEY, keyBytes);
+			if (hashBytes != null) buffer.put(base + S_HASH, hashBytes);
+			buffer.put(base + S_STATE, OCCUPIED);
+
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(String key) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > MAX_KEY_LENGTH) return;
+
+		lock.writeLock().lock();
+		try {
+			int base = find(keyBytes);
+			if (base >= 0) delete(base);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes every entry from the index. Used before a rebuild.
+	 */
+	@Override
+	public void clear() throws IOException {
+		super.clear();
+	}
+
+	/**
+	 * Claims the rebuild of an index which requires one, so that only one of the caches sharing the index performs it.
+	 *
+	 * @return True if the caller should rebuild the index
+	 */
+	public synchronized boolean claimRebuild() {
+		if (!rebuildRequired || rebuildClaimed) return false;
+
+		rebuildClaimed = true;
+		return true;
+	}
+
+	/**
+	 * Marks the index as rebuilt, once the owning cache has repopulated it.
+	 */
+	public void rebuilt() {
+		rebuildRequired = false;
+	}
+
+	@Override
+	protected boolean isComplete() {
+		return !rebuildRequired;
+	}
+
+	@Override
+	protected long slotHash(ByteBuffer slots, int base) {
+		return slots.getLong(base + S_KEY_HASH);
+	}
+
+	private int find(byte[] keyBytes) {
+		long keyHash = hash(keyBytes);
+		return find(keyHash, base -> buffer.getLong(base + S_KEY_HASH) == keyHash && keyEquals(base, keyBytes));
+	}
+
+	private boolean keyEquals(int base, byte[] keyBytes) {
+		if (buffer.getShort(base + S_KEY_LENGTH) != keyBytes.length) return false;
+
+		for (int i = 0; i < keyBytes.length; i++) {
+			if (buffer.get(base + S_KEY + i) != keyBytes[i]) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * 64 bit FNV-1a
+	 */
+	private static long hash(byte[] bytes) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : bytes) {
+			h ^= b & 0xFF;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * The indexed metadata of a single cache entry.
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static class Metadata {
+		private final long timestamp;
+
+		private final long ttlSecs;
+
+		private final String objectHash;
+
+		/**
+		 * The encoding of the file that the entry is stored in.
+		 */
+		private final CacheEncoding encoding;
+
+		/**
+		 * The uncompressed, serialized size of the entry in bytes.
+		 */
+		private final long size;
+
+		/**
+		 * The modification time of the file, in nanoseconds since the epoch.
+		 */
+		private final long fileModified;
+
+		/**
+		 * The length of the file as stored (possibly compressed) in bytes.
+		 */
+		private final long fileLength;
+	}
+}
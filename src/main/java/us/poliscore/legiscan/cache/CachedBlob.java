@@ -0,0 +1,92 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import us.poliscore.legiscan.view.RefreshFrequency;
+
+/**
+ * A handle on binary data stored as a raw file in the cache (see LegiscanCache.putBlob), along with its metadata. Nothing is read until
+ * one of the open or read methods is called.
+ *
+ * The handle only holds the path of the blob's file. The file is replaced, never modified, when the blob is overwritten, so a channel or
+ * stream keeps reading the version it was opened on, but a handle whose blob is overwritten before anything is opened from it reads the
+ * new version (and its metadata no longer describes it). Open a stream or channel straight away where that matters.
+ */
+@Getter
+@AllArgsConstructor
+public class CachedBlob {
+
+	/**
+	 * Blobs at least this large are memory-mapped by read() rather than copied onto the heap.
+	 */
+	public static final long MAP_THRESHOLD = 1024 * 1024;
+
+	private final Path path;
+
+	private final long size;
+
+	private final long timestamp;
+
+	private final long ttlSecs;
+
+	private final String objectHash;
+
+	public boolean isExpired(RefreshFrequency minFreshness) {
+		return LegiscanCache.CachedEntry.isExpired(timestamp, ttlSecs, minFreshness);
+	}
+
+	public InputStream openStream() throws IOException {
+		return Files.newInputStream(path);
+	}
+
+	public FileChannel openChannel() throws IOException {
+		return FileChannel.open(path, StandardOpenOption.READ);
+	}
+
+	/**
+	 * Reads the whole blob. Large blobs are memory-mapped, so they don't take up any heap and pages are only read in as they are touched.
+	 */
+	public ByteBuffer read() throws IOException {
+		try (FileChannel channel = openChannel()) {
+			if (size >= MAP_THRESHOLD) return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+			return buffer.flip();
+		}
+	}
+
+	public byte[] readAllBytes() throws IOException {
+		return Files.readAllBytes(path);
+	}
+
+	/**
+	 * Copies the blob into the stream with FileChannel.transferTo, which lets the OS copy straight from the page cache where it can.
+	 *
+	 * @return The number of bytes transferred
+	 */
+	public long transferTo(OutputStream out) throws IOException {
+		try (FileChannel channel = openChannel()) {
+			WritableByteChannel target = Channels.newChannel(out);
+			long position = 0;
+			long length = channel.size();
+
+			while (position < length) {
+				position += channel.transferTo(position, length - position, target);
+			}
+
+			return position;
+		}
+	}
+}
@@ -1,12 +1,20 @@
 package us.poliscore.legiscan.cache;
 
-import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,11 +22,14 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.val;
-import net.lingala.zip4j.ZipFile;
-import us.poliscore.legiscan.PoliscoreLegiscanUtil;
+import us.poliscore.legiscan.exception.BudgetExhaustedException;
+import us.poliscore.legiscan.exception.CircuitOpenException;
+import us.poliscore.legiscan.exception.LegiscanException;
 import us.poliscore.legiscan.service.CachedLegiscanService;
 import us.poliscore.legiscan.service.ExpirationPolicy;
 import us.poliscore.legiscan.view.LegiscanBillView;
@@ -41,19 +52,47 @@ public class CachedLegiscanDatasetResult {
 	protected ObjectMapper objectMapper;
 	
 	@Getter
-	protected Map<Integer, LegiscanBillView> bills = new HashMap<Integer, LegiscanBillView>();
+	protected Map<Integer, LegiscanBillView> bills = new ConcurrentHashMap<Integer, LegiscanBillView>();
 	
 	@Getter
-	protected Map<Integer, LegiscanPeopleView> people = new HashMap<Integer, LegiscanPeopleView>();
+	protected Map<Integer, LegiscanPeopleView> people = new ConcurrentHashMap<Integer, LegiscanPeopleView>();
 	
 	@Getter
-	protected Map<Integer, LegiscanRollCallView> votes = new HashMap<Integer, LegiscanRollCallView>();
+	protected Map<Integer, LegiscanRollCallView> votes = new ConcurrentHashMap<Integer, LegiscanRollCallView>();
+	
+	/**
+	 * The number of threads which parse the dataset archive during bulkLoad.
+	 */
+	@Getter @Setter
+	protected int ingestionThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * The number of changed bills which updateBills fetches at once.
+	 */
+	@Getter @Setter
+	protected int updateParallelism;
+	
+	@Getter @Setter
+	protected ProgressListener progressListener;
+	
+	/**
+	 * How the last bulkLoad differed from the one before it.
+	 */
+	@Getter
+	protected Delta delta;
+	
+	/**
+	 * The bills which updateBills failed to fetch, and why.
+	 */
+	@Getter
+	protected Map<Integer, Exception> failedBills = new ConcurrentHashMap<Integer, Exception>();
 	
 	public CachedLegiscanDatasetResult(CachedLegiscanService client, LegiscanDatasetView dataset, ObjectMapper objectMapper)
 	{
 		this.legiscan = client;
 		this.dataset = dataset;
 		this.objectMapper = objectMapper;
+		this.updateParallelism = client.getBillUpdateParallelism();
 	}
 	
 	/**
@@ -77,124 +116,384 @@ public class CachedLegiscanDatasetResult {
 	 * Fetches the dataset via the Legiscan 'bulk loader', by hitting the 'getDatasetRaw' API to receive a zip file, and then loads that zip file
 	 * into the legiscan cache. This will load people, bills, and votes.
 	 * 
+	 * The archive is read in place from the cache, entry by entry, so nothing is extracted to disk and each entry is only decompressed once.
+	 * The entries are parsed on ingestionThreads threads (see DatasetIngestionPipeline), but loaded into the cache in the same order
+	 * regardless, so the result doesn't depend on the number of threads.
+	 * 
+	 * Only the entries which changed since the last time the session's dataset was loaded are read (see DatasetManifest). Unchanged entries
+	 * are taken from the cache instead, as long as they're still there, and objects which are no longer in the dataset are removed from the
+	 * cache. The size of the change is reported in delta.
+	 * 
 	 * If a bill already exists in the cache it will not be updated; people and votes will be updated. This is because what's in the cache could be
 	 * more up-to-date than what we currently have for bills.
 	 */
 	@SneakyThrows
 	protected void bulkLoad()
 	{
-
-        byte[] zipBytes = legiscan.getDatasetRaw(dataset.getSessionId(), dataset.getAccessKey(), "json", dataset.getDatasetHash());
-        		
-        // Write zipBytes to a temporary file
-        Path tempZip = Files.createTempFile("dataset-", ".zip");
-        
-        File file = null;
-        
-        try
-        {
-            Files.write(tempZip, zipBytes);
-
-            // Use ZipFile from zip4j to extract
-            try (ZipFile zipFile = new ZipFile(tempZip.toFile())) {
-                File extractToDir = new File(PoliscoreLegiscanUtil.getDeployedPath(), "cache/" + dataset.getStateId() + "/" + dataset.getYearEnd() + "/" + dataset.getSessionId());
-                zipFile.extractAll(extractToDir.getAbsolutePath());
-                
-                File fPeopleParent = PoliscoreLegiscanUtil.childWithName(extractToDir, "people");
-                File fBillParent = PoliscoreLegiscanUtil.childWithName(extractToDir, "bill");
-                File fVoteParent = PoliscoreLegiscanUtil.childWithName(extractToDir, "vote");
-                
-                for(File f : PoliscoreLegiscanUtil.allFilesWhere(fPeopleParent, f -> f.getName().toLowerCase().endsWith(".json")))
-                {
-                	file = f;
-                	var resp = objectMapper.readValue(file, LegiscanResponse.class);
-                	var person = resp.getPerson();
-                	
-                    String cacheKey = LegiscanPeopleView.getCacheKey(person.getPeopleId());
-                    val expiration = ExpirationPolicy.weekly().getTtl(Instant.now(), cacheKey);
-                	
-                    legiscan.getCache().put(cacheKey, resp, expiration.getSeconds());
-                	people.put(person.getPeopleId(), person);
-                }
-                
-                for(File f : PoliscoreLegiscanUtil.allFilesWhere(fBillParent, f -> f.getName().toLowerCase().endsWith(".json")))
-                {
-                	file = f;
-                	
-                	var resp = objectMapper.readValue(file, LegiscanResponse.class);
-                	var bill = resp.getBill();
-                	
-                	// This is unfortunate... Legiscan doesn't actually have a 'last update date' concept, they only have a change hash.
-                	// For this reason, we cannot replace the bill in the cache if it already exists, because it could be more up-to-date
-                	// than what we got from the bulk upload. This should only ever happen with bills, since the refresh frequency for votes
-                	// and people is the same for the rest of their API.
-                	String cacheKey = LegiscanBillView.getCacheKey(bill.getBillId());
-                	var cached = legiscan.getCache().peekEntry(cacheKey).orElse(null);
-            		if (cached == null) {
-            			val ttl = ExpirationPolicy.fixedDuration(Duration.ofHours(3)).getTtl(Instant.now(), cacheKey);
-	                    legiscan.getCache().put(cacheKey, resp, ttl.getSeconds());
-	                	bills.put(bill.getBillId(), bill);
-            		} else {
-            			bills.put(bill.getBillId(), objectMapper.convertValue(cached.getValue(), new TypeReference<LegiscanResponse>() {}).getBill());
-            		}
-                }
-                
-                for(File f : PoliscoreLegiscanUtil.allFilesWhere(fVoteParent, f -> f.getName().toLowerCase().endsWith(".json")))
-                {
-                	file = f;
-                	var resp = objectMapper.readValue(file, LegiscanResponse.class);
-                	var rollCall = resp.getRollcall();
-                	
-                    String cacheKey = LegiscanRollCallView.getCacheKey(rollCall.getRollCallId());
-                	
-                    legiscan.getCache().put(cacheKey, resp, -1);
-                	votes.put(rollCall.getRollCallId(), rollCall);
-                }
-            }
-        }
-        catch (Throwable t)
-        {
-        	Files.deleteIfExists(tempZip);
-        	
-        	if (file != null)
-        		throw new RuntimeException("Encountered problem while processing file [" + file.getAbsolutePath() + "].", t);
-        	else
-        		throw t;
-        }
-        
-        LOGGER.info("Bulk load complete for dataset [" + dataset.getSessionName() + "] into cache [" + legiscan.getCache().toString() + "]. Dataset contained " + people.size() + " people, " + bills.size()+ " bills, and " + votes.size()+ " votes.");
-    
+		CachedBlob archive = legiscan.getDatasetRawBlob(dataset.getSessionId(), dataset.getAccessKey(), "json", dataset.getDatasetHash());
+		
+		String manifestKey = DatasetManifest.getCacheKey(dataset.getSessionId());
+		var previous = legiscan.getCache().peek(manifestKey, new TypeReference<DatasetManifest>() {}).orElse(new DatasetManifest());
+		var manifest = new DatasetManifest(dataset.getDatasetHash());
+		int added = 0, changed = 0, unchanged = 0, removed = 0;
+		
+		try (ZipFile zip = new ZipFile(archive.getPath().toFile()))
+		{
+			// Only the central directory is read here. People are loaded first, then bills, then votes, whatever order the archive is in.
+			Map<EntryType, List<ZipEntry>> byType = new EnumMap<EntryType, List<ZipEntry>>(EntryType.class);
+			
+			for (var it = zip.entries(); it.hasMoreElements();)
+			{
+				var e = it.nextElement();
+				var type = EntryType.of(e);
+				
+				if (type != null)
+					byType.computeIfAbsent(type, k -> new ArrayList<ZipEntry>()).add(e);
+			}
+			
+			List<ZipEntry> entries = new ArrayList<ZipEntry>();
+			for (var type : EntryType.values())
+			{
+				for (var e : byType.getOrDefault(type, List.of()))
+				{
+					var last = previous.getEntries().get(e.getName());
+					
+					if (last != null && last.matches(e) && loadCached(type, last.getId())) {
+						manifest.getEntries().put(e.getName(), last);
+						unchanged++;
+					} else {
+						entries.add(e);
+						if (last == null) added++; else changed++;
+					}
+				}
+			}
+			
+			// Parsing is spread over the workers, but the entries are loaded in the above order on this thread
+			new DatasetIngestionPipeline(ingestionThreads).run(zip, entries,
+					(entry, data) -> new ParsedEntry(entry, EntryType.of(entry), objectMapper.readValue(data, LegiscanResponse.class)),
+					batch -> batch.forEach(p -> {
+						int id = load(p.type, p.response);
+						manifest.getEntries().put(p.entry.getName(), new DatasetManifest.Entry(p.entry.getCrc(), p.entry.getSize(), p.type.directory, id));
+					}));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Failed to load dataset archive [" + archive.getPath() + "].", e);
+		}
+		
+		// Anything which was in the last dataset, but isn't in this one, is gone. The same object may simply have moved to another entry.
+		Set<String> present = new HashSet<String>();
+		manifest.getEntries().values().forEach(e -> present.add(e.getType() + "/" + e.getId()));
+		
+		for (var e : previous.getEntries().entrySet())
+		{
+			if (manifest.getEntries().containsKey(e.getKey()) || !present.add(e.getValue().getType() + "/" + e.getValue().getId())) continue;
+			
+			var type = EntryType.fromDirectory(e.getValue().getType());
+			if (type == null) continue;
+			
+			unload(type, e.getValue().getId());
+			removed++;
+		}
+		
+		legiscan.getCache().put(manifestKey, manifest, dataset.getDatasetHash(), -1);
+		delta = new Delta(added, changed, unchanged, removed);
+		
+		LOGGER.info("Bulk load complete for dataset [" + dataset.getSessionName() + "] into cache [" + legiscan.getCache().toString() + "]. Dataset contained " + people.size() + " people, " + bills.size()+ " bills, and " + votes.size()+ " votes (" + delta + ").");
+	}
+	
+	/**
+	 * Takes an unchanged object from the cache rather than the archive. Bills are never replaced by the bulk load anyway, whereas people
+	 * and votes are reloaded once expired, to keep them in the cache for longer.
+	 * 
+	 * @return false if the object has to be loaded from the archive after all
+	 */
+	protected boolean loadCached(EntryType type, int id)
+	{
+		String cacheKey = switch (type) {
+			case PEOPLE -> LegiscanPeopleView.getCacheKey(id);
+			case BILL -> LegiscanBillView.getCacheKey(id);
+			case VOTE -> LegiscanRollCallView.getCacheKey(id);
+		};
+		
+		var cached = legiscan.getCache().peekValue(cacheKey, new TypeReference<LegiscanResponse>() {}).orElse(null);
+		if (cached == null || (type != EntryType.BILL && cached.isExpired(null))) return false;
+		
+		var resp = cached.getValue();
+		
+		switch (type) {
+			case PEOPLE -> { if (resp.getPerson() == null) return false; people.put(id, resp.getPerson()); }
+			case BILL -> { if (resp.getBill() == null) return false; bills.put(id, resp.getBill()); legiscan.indexChangeHash(resp.getBill()); }
+			case VOTE -> { if (resp.getRollcall() == null) return false; votes.put(id, resp.getRollcall()); }
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Removes an object which is no longer part of the dataset from the cache.
+	 */
+	protected void unload(EntryType type, int id)
+	{
+		switch (type) {
+			case PEOPLE -> legiscan.getCache().remove(LegiscanPeopleView.getCacheKey(id));
+			case BILL -> {
+				legiscan.getCache().remove(LegiscanBillView.getCacheKey(id));
+				legiscan.getChangeHashIndex().remove(id);
+			}
+			case VOTE -> legiscan.getCache().remove(LegiscanRollCallView.getCacheKey(id));
+		}
+	}
+	
+	/**
+	 * @return The id of the loaded object
+	 */
+	protected int load(EntryType type, LegiscanResponse resp)
+	{
+		switch (type) {
+			case PEOPLE -> { loadPerson(resp); return resp.getPerson().getPeopleId(); }
+			case BILL -> { loadBill(resp); return resp.getBill().getBillId(); }
+			default -> { loadVote(resp); return resp.getRollcall().getRollCallId(); }
+		}
+	}
+	
+	protected void loadPerson(LegiscanResponse resp)
+	{
+		var person = resp.getPerson();
+		
+		String cacheKey = LegiscanPeopleView.getCacheKey(person.getPeopleId());
+		val expiration = legiscan.bulkLoadPolicy(ExpirationPolicy.weekly()).getTtl(Instant.now(), cacheKey);
+		
+		legiscan.getCache().put(cacheKey, resp, expiration.getSeconds());
+		people.put(person.getPeopleId(), person);
+	}
+	
+	protected void loadBill(LegiscanResponse resp)
+	{
+		var bill = resp.getBill();
+		
+		// This is unfortunate... Legiscan doesn't actually have a 'last update date' concept, they only have a change hash.
+		// For this reason, we cannot replace the bill in the cache if it already exists, because it could be more up-to-date
+		// than what we got from the bulk upload. This should only ever happen with bills, since the refresh frequency for votes
+		// and people is the same for the rest of their API.
+		String cacheKey = LegiscanBillView.getCacheKey(bill.getBillId());
+		var cached = legiscan.getCache().peekEntry(cacheKey).orElse(null);
+		if (cached == null) {
+			val ttl = legiscan.bulkLoadPolicy(ExpirationPolicy.fixedDuration(Duration.ofHours(3))).getTtl(Instant.now(), cacheKey);
+			legiscan.getCache().put(cacheKey, resp, ttl.getSeconds());
+			bills.put(bill.getBillId(), bill);
+		} else {
+			bill = cached.getValue(LegiscanResponse.class).getBill();
+			bills.put(bill.getBillId(), bill);
+		}
+		
+		legiscan.indexChangeHash(bill);
+	}
+	
+	protected void loadVote(LegiscanResponse resp)
+	{
+		var rollCall = resp.getRollcall();
+		
+		String cacheKey = LegiscanRollCallView.getCacheKey(rollCall.getRollCallId());
+		
+		legiscan.getCache().put(cacheKey, resp, -1);
+		votes.put(rollCall.getRollCallId(), rollCall);
+	}
+	
+	/**
+	 * The kinds of JSON documents in a dataset archive, named after the directory they sit in (e.g. AL/2023-2023_Regular_Session/bill/HB1.json).
+	 */
+	protected static class ParsedEntry {
+		protected final ZipEntry entry;
+		
+		protected final EntryType type;
+		
+		protected final LegiscanResponse response;
+		
+		protected ParsedEntry(ZipEntry entry, EntryType type, LegiscanResponse response) {
+			this.entry = entry;
+			this.type = type;
+			this.response = response;
+		}
+	}
+	
+	protected static enum EntryType {
+		PEOPLE("people"),
+		BILL("bill"),
+		VOTE("vote");
+		
+		private final String directory;
+		
+		private EntryType(String directory) {
+			this.directory = directory;
+		}
+		
+		/**
+		 * @return The type of the entry, or null if it's not a document we load
+		 */
+		public static EntryType of(ZipEntry entry) {
+			String name = entry.getName();
+			if (entry.isDirectory() || !name.toLowerCase().endsWith(".json")) return null;
+			
+			String[] path = name.split("/");
+			if (path.length < 2) return null;
+			
+			return fromDirectory(path[path.length - 2]);
+		}
+		
+		public static EntryType fromDirectory(String directory) {
+			for (EntryType type : values()) {
+				if (type.directory.equals(directory)) return type;
+			}
+			
+			return null;
+		}
 	}
 	
 	/**
      * Fetches the masterlist and checks to see if the bill we got from bulk loading matches against the masterlist. If it does, we set the TTL to now (preventing legiscan spamming).
      * If it doesn't, and the frequency is NOT weekly (which we're already guaranteed with the bulk upload) then we update our data to match the requested frequency.
+     * 
+     * Changed bills are fetched concurrently (see fetchBills). A bill which fails to fetch keeps whatever was cached for it, and is recorded in
+     * failedBills rather than failing the whole update.
      */
     protected void updateBills(RefreshFrequency freq)
     {
     	var masterlist = legiscan.getMasterListRaw(dataset.getSessionId());
+    	List<Integer> changed = new ArrayList<Integer>();
+    	
+    	var index = legiscan.getChangeHashIndex();
     	
     	for (var summary : masterlist.getBills().values())
     	{
             String cacheKey = LegiscanBillView.getCacheKey(summary.getBillId());
+            
+            // The index tells us whether the cached bill is current without reading it. Only its metadata is needed, unless it has to be re-stamped.
+            if (summary.getChangeHash().equals(index.get(summary.getBillId()))) {
+            	var cached = legiscan.getCache().peekEntry(cacheKey).orElse(null);
+            	
+            	if (cached == null) {
+            		// Removed from the cache since it was indexed
+            		index.remove(summary.getBillId());
+            		changed.add(summary.getBillId());
+            	} else if (cached.isExpired(freq)) {
+            		// Refresh the TTL here since we just verified with the masterlist that its latest
+            		legiscan.getCache().put(cacheKey, cached.getValue(LegiscanResponse.class), legiscan.bulkLoadPolicy(ExpirationPolicy.fixedDuration(Duration.ofHours(3))).getTtl(Instant.now(), cacheKey).getSeconds());
+            	}
+            	
+            	continue;
+            }
     		
     		var cached = legiscan.getCache().peekEntry(cacheKey).orElse(null);
-    		var cachedVal = cached == null ? null : objectMapper.convertValue(cached.getValue(), new TypeReference<LegiscanResponse>() {});
+    		var cachedVal = cached == null ? null : cached.getValue(LegiscanResponse.class);
     		
     		if (cached == null || cachedVal.getBill() == null || !summary.getChangeHash().equals(cachedVal.getBill().getChangeHash())) {
-    			legiscan.getCache().remove(cacheKey);
-    			
     			if (bills.containsKey(summary.getBillId()) && (bills.get(summary.getBillId()).getChangeHash().equals(summary.getChangeHash()))) {
     				// Refresh the TTL here since we just verified with the masterlist that its latest
-        			legiscan.getCache().put(cacheKey, cachedVal, ExpirationPolicy.fixedDuration(Duration.ofHours(3)).getTtl(Instant.now(), cacheKey).getSeconds());
+        			legiscan.getCache().put(cacheKey, cachedVal, legiscan.bulkLoadPolicy(ExpirationPolicy.fixedDuration(Duration.ofHours(3))).getTtl(Instant.now(), cacheKey).getSeconds());
     			}else {
-    				var bill = legiscan.getBill(summary.getBillId());
-	    			bills.put(bill.getBillId(), bill);
+    				changed.add(summary.getBillId());
+    			}
+    		} else {
+    			// Cached before the index was, so the index catches up here
+    			legiscan.indexChangeHash(cachedVal.getBill());
+    			
+    			if (cached.isExpired(freq)) {
+	    			// Refresh the TTL here since we just verified with the masterlist that its latest
+	    			legiscan.getCache().put(cacheKey, cachedVal, legiscan.bulkLoadPolicy(ExpirationPolicy.fixedDuration(Duration.ofHours(3))).getTtl(Instant.now(), cacheKey).getSeconds());
     			}
-    		} else if (cached.isExpired(freq)) {
-    			// Refresh the TTL here since we just verified with the masterlist that its latest
-    			legiscan.getCache().put(cacheKey, cachedVal, ExpirationPolicy.fixedDuration(Duration.ofHours(3)).getTtl(Instant.now(), cacheKey).getSeconds());
     		}
     	}
+    	
+    	fetchBills(changed);
+    }
+    
+    /**
+     * Fetches the given bills from Legiscan, updateParallelism at a time. Every request still goes through the service's rate limiter, so this only
+     * bounds how many are queued up at once. Once the query budget runs out or the circuit breaker opens, the remaining bills aren't attempted and
+     * are recorded as failed with the same cause.
+     */
+    @SneakyThrows
+    protected void fetchBills(List<Integer> billIds)
+    {
+    	if (billIds.isEmpty()) return;
+    	
+    	int total = billIds.size();
+    	LOGGER.info("Fetching " + total + " changed bills for dataset [" + dataset.getSessionName() + "], " + updateParallelism + " at a time.");
+    	
+    	Semaphore slots = new Semaphore(Math.max(1, updateParallelism));
+    	AtomicInteger completed = new AtomicInteger();
+    	AtomicReference<LegiscanException> halted = new AtomicReference<LegiscanException>();
+    	
+    	try (var executor = Executors.newVirtualThreadPerTaskExecutor())
+    	{
+    		for (int billId : billIds)
+    		{
+    			slots.acquire();
+    			
+    			if (halted.get() != null) {
+    				slots.release();
+    				failedBills.put(billId, halted.get());
+    				progress(completed.incrementAndGet(), total);
+    				continue;
+    			}
+    			
+    			executor.execute(() -> {
+    				try {
+    					var bill = legiscan.refreshBill(billId);
+    					bills.put(bill.getBillId(), bill);
+    				} catch (BudgetExhaustedException | CircuitOpenException e) {
+    					halted.compareAndSet(null, e);
+    					failedBills.put(billId, e);
+    				} catch (Exception e) {
+    					LOGGER.warn("Failed to update bill [" + billId + "] of dataset [" + dataset.getSessionName() + "].", e);
+    					failedBills.put(billId, e);
+    				} finally {
+    					slots.release();
+    					progress(completed.incrementAndGet(), total);
+    				}
+    			});
+    		}
+    	}
+    	
+    	if (!failedBills.isEmpty())
+    		LOGGER.warn("Failed to update " + failedBills.size() + " of " + total + " changed bills for dataset [" + dataset.getSessionName() + "]." + (halted.get() == null ? "" : " " + halted.get().getMessage()));
+    }
+    
+    private void progress(int completed, int total)
+    {
+    	if (progressListener != null)
+    		progressListener.onProgress(completed, failedBills.size(), total);
+    	
+    	// Roughly every 10%
+    	if (completed == total || completed % Math.max(1, total / 10) == 0)
+    		LOGGER.info("Updated " + completed + " of " + total + " changed bills for dataset [" + dataset.getSessionName() + "] (" + failedBills.size() + " failed).");
+    }
+    
+    /**
+     * How a bulk load differed from the previous bulk load of the same session, by archive entry.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Delta {
+    	private final int added;
+    	
+    	private final int changed;
+    	
+    	private final int unchanged;
+    	
+    	private final int removed;
+    	
+    	@Override
+    	public String toString() {
+    		return added + " added, " + changed + " changed, " + unchanged + " unchanged, " + removed + " removed";
+    	}
+    }
+    
+    /**
+     * Receives progress updates as updateBills fetches changed bills. Called from the fetching threads.
+     */
+    public static interface ProgressListener {
+    	public void onProgress(int completed, int failed, int total);
     }
 }
@@ -0,0 +1,194 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * The value held by a cache entry. Values which were read out of a cache are held in their serialized form (either a slice of the raw
+ * bytes or a buffer of parsed tokens) and are only bound to a Java type when a caller asks for one. This avoids materializing the value
+ * as a tree of maps and lists only to convert it into a POJO afterwards, and allows the entry metadata to be inspected without paying for
+ * the payload at all.
+ */
+public abstract class CachedPayload {
+
+	/**
+	 * Only used to convert live objects which were put into an entry without a mapper of their own.
+	 */
+	private static final ObjectMapper DEFAULT_MAPPER = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+
+	/**
+	 * Binds the payload to the given type. Every call produces a new instance, unless the payload is a live object of the requested type.
+	 */
+	public abstract <T> T bind(JavaType type);
+
+	/**
+	 * Copies the payload into the given generator, without binding it to a Java type where possible.
+	 */
+	public abstract void writeTo(JsonGenerator gen) throws IOException;
+
+	/**
+	 * @return The serialized size of the payload in bytes, or -1 if unknown.
+	 */
+	public abstract long size();
+
+	public <T> T bind(TypeReference<T> typeRef) {
+		return bind(mapper().constructType(typeRef));
+	}
+
+	public <T> T bind(Class<T> clazz) {
+		return bind(mapper().constructType(clazz));
+	}
+
+	protected abstract ObjectMapper mapper();
+
+	public static CachedPayload ofObject(Object value) {
+		return ofObject(value, DEFAULT_MAPPER);
+	}
+
+	public static CachedPayload ofObject(Object value, ObjectMapper mapper) {
+		return new ObjectPayload(value, mapper);
+	}
+
+	/**
+	 * A payload which is a single serialized value, starting at the given offset of the data array. Any trailing content after the value
+	 * (such as the closing brace of the enclosing entry) is ignored.
+	 */
+	public static CachedPayload ofBytes(byte[] data, int offset, int length, ObjectMapper mapper) {
+		return new BytesPayload(data, offset, length, mapper);
+	}
+
+	/**
+	 * @param mapper The mapper to bind with, or null to use a default mapper
+	 */
+	public static CachedPayload ofTokens(TokenBuffer tokens, long size, ObjectMapper mapper) {
+		return new TokenPayload(tokens, size, mapper == null ? DEFAULT_MAPPER : mapper);
+	}
+
+	protected static class ObjectPayload extends CachedPayload {
+		private final Object value;
+
+		private final ObjectMapper mapper;
+
+		protected ObjectPayload(Object value, ObjectMapper mapper) {
+			this.value = value;
+			this.mapper = Objects.requireNonNull(mapper);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T> T bind(JavaType type) {
+			if (value == null) return null;
+
+			if (!type.hasGenericTypes() && type.getRawClass().isInstance(value)) return (T) value;
+
+			return mapper.convertValue(value, type);
+		}
+
+		@Override
+		public void writeTo(JsonGenerator gen) throws IOException {
+			gen.writeObject(value);
+		}
+
+		@Override
+		public long size() {
+			return -1;
+		}
+
+		@Override
+		protected ObjectMapper mapper() {
+			return mapper;
+		}
+	}
+
+	protected static class BytesPayload extends CachedPayload {
+		private final byte[] data;
+
+		private final int offset;
+
+		private final int length;
+
+		private final ObjectMapper mapper;
+
+		protected BytesPayload(byte[] data, int offset, int length, ObjectMapper mapper) {
+			this.data = data;
+			this.offset = offset;
+			this.length = length;
+			this.mapper = mapper;
+		}
+
+		@Override
+		public <T> T bind(JavaType type) {
+			try {
+				return mapper.readValue(data, offset, length, type);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void writeTo(JsonGenerator gen) throws IOException {
+			try (JsonParser p = mapper.createParser(data, offset, length)) {
+				p.nextToken();
+				gen.copyCurrentStructure(p);
+			}
+		}
+
+		@Override
+		public long size() {
+			return length;
+		}
+
+		@Override
+		protected ObjectMapper mapper() {
+			return mapper;
+		}
+	}
+
+	protected static class TokenPayload extends CachedPayload {
+		private final TokenBuffer tokens;
+
+		private final long size;
+
+		private final ObjectMapper mapper;
+
+		protected TokenPayload(TokenBuffer tokens, long size, ObjectMapper mapper) {
+			this.tokens = tokens;
+			this.size = size;
+			this.mapper = mapper;
+		}
+
+		@Override
+		public <T> T bind(JavaType type) {
+			try (JsonParser p = tokens.asParser(mapper)) {
+				return mapper.readValue(p, type);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void writeTo(JsonGenerator gen) throws IOException {
+			tokens.serialize(gen);
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		protected ObjectMapper mapper() {
+			return mapper;
+		}
+	}
+}
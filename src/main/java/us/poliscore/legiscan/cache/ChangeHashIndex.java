@@ -0,0 +1,137 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact, memory-mapped hash table of bill id to the change hash of the bill as it is cached, which lets a masterlist be reconciled
+ * against the cache without reading, let alone parsing, the cached bills.
+ *
+ * The table is keyed directly by the int bill id, with small fixed-size slots. It only ever describes what's in the cache, so it's updated
+ * after the bill is written to the cache. A bill which has since been removed from the cache may still be indexed, so callers check that
+ * the entry still exists before relying on it. An index which was started over is simply left to fill up again, since everything in it
+ * can be recovered from the cache.
+ */
+public class ChangeHashIndex extends MappedHashTable {
+
+	protected static final int MAGIC = 0x4C434849; // "LCHI"
+
+	protected static final int VERSION = 1;
+
+	protected static final int HEADER_LENGTH = 32;
+
+	protected static final int SLOT_LENGTH = 64;
+
+	/**
+	 * Legiscan change hashes are 32 character MD5 hex strings, so this leaves plenty of room
+	 */
+	protected static final int MAX_HASH_LENGTH = 56;
+
+	// Slot offsets
+	private static final int S_HASH_LENGTH = 1, S_BILL_ID = 4, S_HASH = 8;
+
+	/**
+	 * Opens the index stored in the given file, or returns the already open instance if another service within this JVM has it open.
+	 */
+	public static ChangeHashIndex open(File file) throws IOException {
+		return open(file, ChangeHashIndex::new);
+	}
+
+	/**
+	 * An index which lives on the heap and is lost when the JVM exits. Used when the cache has no directory of its own.
+	 */
+	public static ChangeHashIndex inMemory() {
+		try {
+			return new ChangeHashIndex(null);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private ChangeHashIndex(File file) throws IOException {
+		super(file, "Change hash index", MAGIC, VERSION, HEADER_LENGTH, SLOT_LENGTH);
+	}
+
+	/**
+	 * @return The change hash of the cached bill, or null if the bill isn't indexed
+	 */
+	public String get(int billId) {
+		lock.readLock().lock();
+		try {
+			int base = find(billId);
+			if (base < 0) return null;
+
+			byte[] hashBytes = new byte[buffer.get(base + S_HASH_LENGTH)];
+			buffer.get(base + S_HASH, hashBytes);
+			return new String(hashBytes, StandardCharsets.UTF_8);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Records the change hash of the bill as it is now cached. Does nothing if the bill is already indexed with this hash.
+	 */
+	public void put(int billId, String changeHash) {
+		if (changeHash == null) {
+			remove(billId);
+			return;
+		}
+
+		byte[] hashBytes = changeHash.getBytes(StandardCharsets.UTF_8);
+		if (hashBytes.length > MAX_HASH_LENGTH) {
+			remove(billId);
+			return;
+		}
+
+		if (changeHash.equals(get(billId))) return;
+
+		lock.writeLock().lock();
+		try {
+			int base = find(billId);
+			if (base < 0) base = insert(mix(billId));
+			if (base < 0) return;
+
+			buffer.put(base + S_HASH_LENGTH, (byte) hashBytes.length);
+			buffer.putInt(base + S_BILL_ID, billId);
+			buffer.put(base + S_HASH, hashBytes);
+			buffer.put(base + S_STATE, OCCUPIED);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(int billId) {
+		lock.writeLock().lock();
+		try {
+			int base = find(billId);
+			if (base >= 0) delete(base);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	protected long slotHash(ByteBuffer slots, int base) {
+		return mix(slots.getInt(base + S_BILL_ID));
+	}
+
+	private int find(int billId) {
+		return find(mix(billId), base -> buffer.getInt(base + S_BILL_ID) == billId);
+	}
+
+	/**
+	 * Bill ids are mostly sequential, so spread them over the table (the murmur3 finalizer).
+	 */
+	private static int mix(int billId) {
+		int h = billId;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
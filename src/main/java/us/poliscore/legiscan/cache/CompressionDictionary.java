@@ -0,0 +1,180 @@
+package us.poliscore.legiscan.cache;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import lombok.Getter;
+
+/**
+ * A preset dictionary for deflate compression of cache entries. Cached objects (particularly bills) are extremely repetitive across a
+ * session, so priming the compressor with the common sponsor blocks, session objects and history phrases lets even small entries compress
+ * well.
+ *
+ * Dictionaries are trained from a sample of serialized entries by picking the fixed-size segments which share the most content with the
+ * rest of the samples (a simplified version of the 'cover' algorithm used by zstd).
+ */
+public class CompressionDictionary {
+
+	/**
+	 * The size of the deflate window. Anything beyond this would never be referenced.
+	 */
+	public static final int MAX_SIZE = 32 * 1024;
+
+	/**
+	 * The length of the substrings which are counted when determining how common some content is.
+	 */
+	protected static final int KMER_LENGTH = 8;
+
+	/**
+	 * The length of the candidate segments that the dictionary is assembled from.
+	 */
+	protected static final int SEGMENT_LENGTH = 64;
+
+	protected static final int SEGMENT_STEP = 16;
+
+	/**
+	 * The first 8 bytes of the SHA-256 of the dictionary. A weaker checksum could give two similar dictionaries the same id, and an entry
+	 * would then be inflated with the wrong one.
+	 */
+	@Getter
+	private final long id;
+
+	@Getter
+	private final byte[] bytes;
+
+	public CompressionDictionary(byte[] bytes) {
+		this.bytes = bytes;
+
+		try {
+			this.id = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(bytes)).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public String getIdHex() {
+		return String.format("%016x", id);
+	}
+
+	/**
+	 * Trains a dictionary of at most maxSize bytes from the given samples.
+	 *
+	 * @param samples Serialized cache entries which are representative of what will be compressed
+	 * @param maxSize The maximum dictionary size, no larger than MAX_SIZE
+	 * @return The trained dictionary
+	 */
+	public static CompressionDictionary train(List<byte[]> samples, int maxSize) {
+		if (maxSize <= 0 || maxSize > MAX_SIZE) throw new IllegalArgumentException("Dictionary size must be between 1 and " + MAX_SIZE);
+
+		// Count the number of distinct samples that each k-mer occurs in
+		Map<Long, int[]> frequencies = new HashMap<Long, int[]>();
+		for (int i = 0; i < samples.size(); i++) {
+			byte[] sample = samples.get(i);
+
+			for (int pos = 0; pos + KMER_LENGTH <= sample.length; pos++) {
+				int[] freq = frequencies.computeIfAbsent(kmer(sample, pos), k -> new int[] { 0, -1 });
+				if (freq[1] != i) {
+					freq[0]++;
+					freq[1] = i;
+				}
+			}
+		}
+
+		// Greedily pick the segments with the most shared content. Scores are lazily re-evaluated as k-mers get covered by picked segments.
+		PriorityQueue<Segment> queue = new PriorityQueue<Segment>((a, b) -> Long.compare(b.score, a.score));
+		for (int i = 0; i < samples.size(); i++) {
+			byte[] sample = samples.get(i);
+
+			for (int pos = 0; pos + SEGMENT_LENGTH <= sample.length; pos += SEGMENT_STEP) {
+				long score = score(sample, pos, frequencies);
+				if (score > 0) queue.add(new Segment(i, pos, score));
+			}
+		}
+
+		List<Segment> picked = new ArrayList<Segment>();
+		int size = 0;
+
+		while (size + SEGMENT_LENGTH <= maxSize && !queue.isEmpty()) {
+			Segment next = queue.poll();
+			byte[] sample = samples.get(next.sample);
+			long score = score(sample, next.pos, frequencies);
+
+			if (score <= 0) continue;
+
+			if (!queue.isEmpty() && score < queue.peek().score) {
+				next.score = score;
+				queue.add(next);
+				continue;
+			}
+
+			picked.add(next);
+			size += SEGMENT_LENGTH;
+
+			for (int pos = next.pos; pos + KMER_LENGTH <= next.pos + SEGMENT_LENGTH; pos++) {
+				int[] freq = frequencies.get(kmer(sample, pos));
+				if (freq != null) freq[0] = 0;
+			}
+		}
+
+		// Deflate encodes closer matches more cheaply, so the best segments go at the end of the dictionary
+		byte[] dict = new byte[size];
+		int offset = size;
+		for (Segment s : picked) {
+			offset -= SEGMENT_LENGTH;
+			System.arraycopy(samples.get(s.sample), s.pos, dict, offset, SEGMENT_LENGTH);
+		}
+
+		return new CompressionDictionary(dict);
+	}
+
+	private static long score(byte[] sample, int start, Map<Long, int[]> frequencies) {
+		long score = 0;
+
+		for (int pos = start; pos + KMER_LENGTH <= start + SEGMENT_LENGTH; pos++) {
+			int[] freq = frequencies.get(kmer(sample, pos));
+			if (freq != null && freq[0] > 1) score += freq[0] - 1;
+		}
+
+		return score;
+	}
+
+	private static long kmer(byte[] data, int pos) {
+		long k = 0;
+		for (int i = 0; i < KMER_LENGTH; i++) {
+			k = (k << 8) | (data[pos + i] & 0xFF);
+		}
+		return k;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof CompressionDictionary d && Arrays.equals(bytes, d.bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(id);
+	}
+
+	private static class Segment {
+		private final int sample;
+
+		private final int pos;
+
+		private long score;
+
+		private Segment(int sample, int pos, long score) {
+			this.sample = sample;
+			this.pos = pos;
+			this.score = score;
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import lombok.Getter;
+
+/**
+ * Loads the entries of a dataset archive in three stages: a single reader decompresses the entries in order, a pool of workers parses
+ * them, and a single writer hands the parsed entries on in batches. The reader may only get queueCapacity entries ahead of the writer,
+ * so a slow writer holds back the reader and the parsers, and only a bounded number of entries are ever in memory.
+ *
+ * The writer receives the entries in exactly the order they were given in, whatever the number of workers and however long each entry
+ * takes to parse. Entries which are parsed early wait for the ones before them, which is also bounded by queueCapacity, since the
+ * reader can't get any further ahead while the writer waits. Only the writer calls the sink, so the sink itself needn't be thread safe, and the outcome of an ingestion doesn't depend
+ * on the number of workers.
+ *
+ * The first failure at any stage stops the whole pipeline, and is thrown from run.
+ */
+public class DatasetIngestionPipeline {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	/**
+	 * Parses a single decompressed archive entry.
+	 */
+	public static interface Parser<T> {
+		public T parse(ZipEntry entry, byte[] data) throws Exception;
+	}
+
+	@Getter
+	private final int workers;
+
+	@Getter
+	private final int queueCapacity;
+
+	@Getter
+	private final int batchSize;
+
+	public DatasetIngestionPipeline(int workers) {
+		this(workers, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @param workers The number of parse workers
+	 * @param queueCapacity The number of entries which may be read but not yet handed to the sink
+	 * @param batchSize The maximum number of entries handed to the sink at once
+	 */
+	public DatasetIngestionPipeline(int workers, int queueCapacity, int batchSize) {
+		this.workers = Math.max(1, workers);
+		this.queueCapacity = Math.max(1, queueCapacity);
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	/**
+	 * Reads, parses and writes the given entries of the archive. Blocks until every entry has been handed to the sink, or something fails.
+	 *
+	 * @param zip The archive
+	 * @param entries The entries to load, in the order they should reach the sink
+	 * @param parser Runs on the workers
+	 * @param sink Receives the parsed entries in order, in batches of up to batchSize. Runs on the calling thread.
+	 */
+	public <T> void run(ZipFile zip, List<ZipEntry> entries, Parser<T> parser, Consumer<List<T>> sink) throws Exception {
+		if (entries.isEmpty()) return;
+
+		BlockingQueue<Item> read = new ArrayBlockingQueue<Item>(queueCapacity);
+		BlockingQueue<Item> parsed = new ArrayBlockingQueue<Item>(queueCapacity);
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		// Taken by the reader for each entry, and given back by the writer once the entry has been handed to the sink
+		Semaphore window = new Semaphore(queueCapacity);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(workers + 1, r -> {
+			Thread t = new Thread(r, "legiscan-ingest-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		try {
+			pool.execute(() -> {
+				for (int i = 0; i < entries.size() && failure.get() == null; i++) {
+					ZipEntry entry = entries.get(i);
+
+					try {
+						window.acquire();
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					try (InputStream in = zip.getInputStream(entry)) {
+						read.put(new Item(i, entry, in.readAllBytes()));
+					} catch (InterruptedException e) {
+						return;
+					} catch (Throwable t) {
+						fail(failure, entry, t);
+						return;
+					}
+				}
+			});
+
+			// The workers run until the writer has everything, at which point they're interrupted
+			for (int w = 0; w < workers; w++) {
+				pool.execute(() -> {
+					try {
+						while (failure.get() == null) {
+							Item item = read.poll(100, TimeUnit.MILLISECONDS);
+							if (item == null) continue;
+
+							try {
+								parsed.put(new Item(item.sequence, item.entry, parser.parse(item.entry, (byte[]) item.value)));
+							} catch (InterruptedException e) {
+								return;
+							} catch (Throwable t) {
+								fail(failure, item.entry, t);
+								return;
+							}
+						}
+					} catch (InterruptedException e) {
+						// Shut down
+					}
+				});
+			}
+
+			write(parsed, window, failure, entries.size(), sink);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if (failure.get() != null) throwFailure(failure.get());
+	}
+
+	/**
+	 * Puts the parsed entries back in order, and hands them to the sink in batches. Each entry's place in the window is given back once the
+	 * sink is done with its batch.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> void write(BlockingQueue<Item> parsed, Semaphore window, AtomicReference<Throwable> failure, int total, Consumer<List<T>> sink) throws Exception {
+		TreeMap<Integer, Item> pending = new TreeMap<Integer, Item>();
+		List<Item> drained = new ArrayList<Item>(batchSize);
+		int next = 0;
+
+		while (next < total) {
+			if (failure.get() != null) return;
+
+			Item item = parsed.poll(100, TimeUnit.MILLISECONDS);
+			if (item == null) continue;
+
+			pending.put(item.sequence, item);
+			parsed.drainTo(drained, batchSize);
+			for (Item i : drained) pending.put(i.sequence, i);
+			drained.clear();
+
+			List<T> batch = new ArrayList<T>(batchSize);
+
+			while (!pending.isEmpty() && pending.firstKey() == next) {
+				batch.add((T) pending.pollFirstEntry().getValue().value);
+				next++;
+
+				if (batch.size() == batchSize) {
+					sink.accept(batch);
+					window.release(batch.size());
+					batch = new ArrayList<T>(batchSize);
+				}
+			}
+
+			if (!batch.isEmpty()) {
+				sink.accept(batch);
+				window.release(batch.size());
+			}
+		}
+	}
+
+	private static void fail(AtomicReference<Throwable> failure, ZipEntry entry, Throwable t) {
+		failure.compareAndSet(null, new RuntimeException("Encountered problem while processing entry [" + entry.getName() + "].", t));
+	}
+
+	private static void throwFailure(Throwable t) throws Exception {
+		if (t instanceof Exception) throw (Exception) t;
+		throw (Error) t;
+	}
+
+	private static class Item {
+		private final int sequence;
+
+		private final ZipEntry entry;
+
+		/** The entry's bytes once read, and the parsed entry once parsed */
+		private final Object value;
+
+		private Item(int sequence, ZipEntry entry, Object value) {
+			this.sequence = sequence;
+			this.entry = entry;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package us.poliscore.legiscan.cache;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Records what a dataset archive contained the last time it was ingested: the CRC and size of every entry, along with the object it held.
+ * On the next ingestion, entries whose CRC and size are unchanged needn't be read at all, and objects whose entries have gone can be
+ * removed from the cache.
+ */
+@Data
+@NoArgsConstructor
+public class DatasetManifest {
+
+	/**
+	 * The dataset hash of the ingested archive.
+	 */
+	private String datasetHash;
+
+	/**
+	 * entry name -> entry
+	 */
+	private Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+	public DatasetManifest(String datasetHash) {
+		this.datasetHash = datasetHash;
+	}
+
+	public static String getCacheKey(int sessionId) {
+		return "datasetmanifest/" + sessionId;
+	}
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class Entry {
+		private long crc;
+
+		private long size;
+
+		/**
+		 * The directory of the entry (people, bill or vote), which says what kind of object it held.
+		 */
+		private String type;
+
+		/**
+		 * The id of the person, bill or roll call held by the entry.
+		 */
+		private int id;
+
+		/**
+		 * @return true if the given archive entry has the same content as this one
+		 */
+		public boolean matches(ZipEntry entry) {
+			return entry.getCrc() == crc && entry.getSize() == size;
+		}
+	}
+}
@@ -1,64 +1,321 @@
 package us.poliscore.legiscan.cache;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import lombok.Getter;
+import lombok.SneakyThrows;
+import us.poliscore.legiscan.view.LegiscanBillView;
 import us.poliscore.legiscan.view.LegiscanResponse;
 
-public class FileSystemLegiscanCache implements LegiscanCache {
+/**
+ * Stores every cache entry in its own file, at a path derived from the cache key.
+ *
+ * The metadata of every entry is also kept in a memory-mapped {@link CacheMetadataIndex}, so that expiry and change hash checks can be
+ * answered without reading the entry files. The entry value is only read from disk once it is bound. The index assumes that the cache
+ * directory is only modified through this class, but every lookup checks that the entry file's modification time and length still match
+ * the index, so entries which were changed by another process sharing the directory (or by hand) are read from their files again. Only
+ * one process can use the index at a time, and a cache in any other process reads every entry from its file instead.
+ *
+ * Entries are written to a temporary file which is then atomically renamed into place, so neither a concurrent reader nor a crash can
+ * observe a partially written entry. Operations on the same key are serialized by a striped read/write lock.
+ */
+public class FileSystemLegiscanCache implements LegiscanCache, Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemLegiscanCache.class.getName());
 
     private final File baseDir;
     private final ObjectMapper objectMapper;
+    private final CacheEncoding encoding;
+    private final Map<CacheEncoding, ObjectMapper> mappers = new EnumMap<CacheEncoding, ObjectMapper>(CacheEncoding.class);
+    
+    @Getter
+    private final CacheCompressor compressor;
+    
+    private final CacheMetadataIndex index;
+    
+    private Thread rebuild;
+    
+    private final BlobStore blobs;
+    
+    private static final int LOCK_STRIPES = 64;
+    
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCK_STRIPES];
 
     public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper) {
+        this(baseDir, objectMapper, CacheEncoding.JSON);
+    }
+    
+    /**
+     * @param baseDir The root directory of the cache
+     * @param objectMapper The mapper to use. Mappers for the binary encodings are derived from this one.
+     * @param encoding The encoding to write new entries with. Entries in any of the other encodings can still be read.
+     */
+    public FileSystemLegiscanCache(File baseDir, ObjectMapper objectMapper, CacheEncoding encoding) {
         this.baseDir = baseDir;
         this.objectMapper = objectMapper;
+        this.encoding = encoding;
+        
+        for (CacheEncoding e : CacheEncoding.values()) {
+        	mappers.put(e, e.createMapper(objectMapper));
+        }
+        
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+        	locks[i] = new ReentrantReadWriteLock();
+        }
 
         if (!baseDir.exists() && !baseDir.mkdirs()) {
             throw new IllegalStateException("Could not create cache directory: " + baseDir);
         }
+        
+        // Cache keys can't contain a '.', so this will never collide with a cached entry
+        this.compressor = new CacheCompressor(new File(baseDir, ".dictionaries"));
+        
+        // Blobs live in the same directory as the entry of the same key
+        this.blobs = new BlobStore(baseDir);
+        
+        try {
+        	this.index = CacheMetadataIndex.open(new File(baseDir, ".metadata.idx"));
+        } catch (IOException e) {
+        	throw new IllegalStateException("Could not open the metadata index of cache directory: " + baseDir, e);
+        }
+        
+        // Walking a large cache takes a while, so don't hold up startup. Until then, entries which aren't indexed yet are read from their files.
+        if (index.claimRebuild()) {
+        	rebuild = new Thread(this::rebuildInBackground, "legiscan-index-rebuild");
+        	rebuild.setDaemon(true);
+        	rebuild.start();
+        }
+    }
+    
+    /**
+     * Repopulates the metadata index from the entry files. This happens automatically, in the background, whenever the index is missing or
+     * was not closed cleanly.
+     */
+    public void rebuildIndex() throws IOException {
+    	index.clear();
+    	populateIndex();
+    }
+    
+    private void rebuildInBackground() {
+    	try {
+    		populateIndex();
+    	} catch (Exception e) {
+    		LOGGER.warn("Unable to rebuild the metadata index of [" + baseDir + "], entries will be read from their files.", e);
+    	}
+    }
+    
+    /**
+     * Indexes every entry file. The cache may be in use meanwhile, so each file is read under its key's lock, which means that an entry
+     * that is written concurrently is either indexed by the writer after we're done with it, or is read by us after it's been written.
+     */
+    private void populateIndex() throws IOException {
+    	long start = System.currentTimeMillis();
+    	
+    	// Writes made meanwhile also go through temporary files, so only those which predate the rebuild are left over from a crash. This
+    	// allows for file systems with coarse timestamps.
+    	long leftoverCutoff = start - 2000;
+    	
+    	try (var paths = Files.walk(baseDir.toPath())) {
+    		for (Path path : (Iterable<Path>) paths::iterator) {
+    			if (Thread.currentThread().isInterrupted()) return;
+    			
+    			String fileName = path.getFileName().toString();
+    			
+    			// Left behind by a write which was interrupted by a crash
+    			if ((fileName.startsWith("cached.") && fileName.endsWith(".tmp")) || BlobStore.isLeftover(fileName)) {
+    				if (isOlderThan(path, leftoverCutoff)) Files.deleteIfExists(path);
+    				continue;
+    			}
+    			
+    			CacheEncoding fileEncoding = CacheEncoding.fromFileName(fileName);
+    			if (fileEncoding == null) continue;
+    			
+    			String indexKey = baseDir.toPath().relativize(path.getParent()).toString().replace(File.separatorChar, '/');
+    			
+    			Lock lock = lockFor(indexKey).readLock();
+    			lock.lock();
+    			try {
+    				if (!Files.isRegularFile(path)) continue;
+    				
+    				// When an entry exists in several encodings, the one in the configured encoding wins
+    				var existing = index.get(indexKey);
+    				if (existing != null && existing.getEncoding() == encoding) continue;
+    				
+    				var attrs = stat(path);
+    				byte[] data = compressor.decompress(Files.readAllBytes(path));
+    				CachedEntry entry = CachedEntry.read(mappers.get(fileEncoding), data);
+    				index.put(indexKey, metadata(entry, fileEncoding, data.length, attrs));
+    			} catch (Exception e) {
+    				LOGGER.warn("Skipping unreadable cache file while rebuilding the index: " + path, e);
+    			} finally {
+    				lock.unlock();
+    			}
+    		}
+    	}
+    	
+    	index.rebuilt();
+    	LOGGER.info("Rebuilt the metadata index of [" + baseDir + "] with " + index.size() + " entries in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+    
+    private static boolean isOlderThan(Path path, long millis) {
+    	try {
+    		return Files.getLastModifiedTime(path).toMillis() < millis;
+    	} catch (IOException e) {
+    		// Already moved into place or deleted
+    		return false;
+    	}
+    }
+    
+    /**
+     * Enables transparent compression of newly written entries. Compressed entries are always readable, regardless of this setting.
+     * 
+     * @param thresholdBytes Entries smaller than this are stored uncompressed, so that small entry latency does not regress
+     */
+    public void enableCompression(int thresholdBytes) {
+    	compressor.setThreshold(thresholdBytes);
+    }
+    
+    /**
+     * Trains a compression dictionary from a sample of the bills currently held in the cache, stores it alongside the cache, and uses it
+     * for all entries compressed from now on. Entries which are already compressed are left as they are.
+     * 
+     * @param maxSamples The maximum number of bills to sample
+     * @param dictionarySize The size of the dictionary to train, at most CompressionDictionary.MAX_SIZE
+     * @return The trained dictionary, or null if there were no bills to sample
+     */
+    @SneakyThrows
+    public CompressionDictionary trainDictionary(int maxSamples, int dictionarySize) {
+    	List<byte[]> samples = new ArrayList<byte[]>();
+    	File billDir = resolveDir(LegiscanBillView.getCacheKey(0)).getParentFile();
+    	
+    	File[] children = billDir.listFiles();
+    	if (children != null) {
+    		for (File child : children) {
+    			if (samples.size() >= maxSamples) break;
+    			
+    			File file = new File(child, encoding.getFileName());
+    			if (file.exists()) samples.add(compressor.decompress(Files.readAllBytes(file.toPath())));
+    		}
+    	}
+    	
+    	if (samples.isEmpty()) return null;
+    	
+    	CompressionDictionary dict = CompressionDictionary.train(samples, dictionarySize);
+    	compressor.setDictionary(dict);
+    	
+    	LOGGER.info("Trained compression dictionary [" + dict.getIdHex() + "] of " + dict.getBytes().length + " bytes from " + samples.size() + " cached bills.");
+    	
+    	return dict;
     }
 
+    private static String sanitize(String key) {
+    	return key.replaceAll("[^/a-zA-Z0-9\\-_]", "_");
+    }
+    
+    /**
+     * Keys which map onto the same directory share a lock, since they share a file.
+     */
+    private ReentrantReadWriteLock lockFor(String key) {
+    	return locks[Math.floorMod(sanitize(key).hashCode(), LOCK_STRIPES)];
+    }
+    
+    private File resolveDir(String key) {
+        return new File(baseDir, sanitize(key));
+    }
+    
+    private File resolvePath(String key, CacheEncoding encoding) {
+        return new File(resolveDir(key), encoding.getFileName());
+    }
+    
+    /**
+     * Finds the file holding the entry for the given key, checking the configured encoding first.
+     * 
+     * @return The file, or null if the key is not cached in any encoding
+     */
     private File resolvePath(String key) {
-        String filename = key.replaceAll("[^/a-zA-Z0-9\\-_]", "_") + "/cached.json";
-        return new File(baseDir, filename);
+    	File file = resolvePath(key, encoding);
+    	if (file.exists()) return file;
+    	
+    	for (CacheEncoding e : CacheEncoding.values()) {
+    		if (e == encoding) continue;
+    		
+    		file = resolvePath(key, e);
+    		if (file.exists()) return file;
+    	}
+    	
+    	return null;
+    }
+    
+    private CachedEntry readEntry(File file) throws IOException {
+    	CacheEncoding fileEncoding = CacheEncoding.fromFileName(file.getName());
+    	return CachedEntry.read(mappers.get(fileEncoding), compressor.decompress(Files.readAllBytes(file.toPath())));
+    }
+    
+    public CacheEncoding getEncoding() {
+    	return encoding;
     }
 
     @Override
     public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
-        File file = resolvePath(key);
-        if (!file.exists()) {
-            return Optional.empty();
-        }
-
+        Lock lock = lockFor(key).readLock();
+        lock.lock();
         try {
-            byte[] data = Files.readAllBytes(file.toPath());
-            CachedEntry entry = objectMapper.readValue(data, CachedEntry.class);
-
-            if (entry.isExpired(null)) {
-                LOGGER.trace("Cache expired for key: " + key);
-                file.delete(); // Clean up expired file
-                return Optional.empty();
-            }
-
-            T value = objectMapper.convertValue(entry.getValue(), typeRef);
-            return Optional.of(value);
-
-        } catch (Exception e) {
-            LOGGER.warn("Failed to read cache for key: " + key, e);
-            return Optional.empty();
+	        CachedEntry entry = peekEntry(key).orElse(null);
+	        if (entry == null) {
+	            return Optional.empty();
+	        }
+	
+	        if (!entry.isExpired(null)) {
+	        	return bind(key, entry, typeRef).map(CachedValue::getValue);
+	        }
+        } finally {
+        	lock.unlock();
         }
+        
+        LOGGER.trace("Cache expired for key: " + key);
+        removeIfExpired(key); // Clean up expired file
+        return Optional.empty();
+    }
+    
+    private void removeIfExpired(String key) {
+    	Lock lock = lockFor(key).writeLock();
+    	lock.lock();
+    	try {
+    		// Someone may have refreshed it while we weren't holding the lock
+    		var entry = peekEntry(key);
+    		if (entry.isPresent() && entry.get().isExpired(null)) remove(key);
+    	} finally {
+    		lock.unlock();
+    	}
     }
     
     @Override
@@ -66,36 +323,96 @@ public class FileSystemLegiscanCache implements LegiscanCache {
     	return getOrExpire(key, new TypeReference<LegiscanResponse>() {});
     }
     
+    @Override
     public <T> Optional<T> peek(String key, TypeReference<T> typeRef) {
-        File file = resolvePath(key);
-        if (!file.exists()) return Optional.empty();
-
-        try {
-            byte[] data = Files.readAllBytes(file.toPath());
-            CachedEntry entry = objectMapper.readValue(data, CachedEntry.class);
-
-            T value = objectMapper.convertValue(entry.getValue(), typeRef);
-            return Optional.of(value);
-        } catch (Exception e) {
-            LOGGER.warn("Failed to read cache for key: " + key, e);
-            return Optional.empty();
-        }
+        return peekValue(key, typeRef).map(CachedValue::getValue);
     }
     
+    @Override
+    public <T> Optional<CachedValue<T>> peekValue(String key, TypeReference<T> typeRef) {
+    	Lock lock = lockFor(key).readLock();
+    	lock.lock();
+    	try {
+    		return peekEntry(key).flatMap(e -> bind(key, e, typeRef));
+    	} finally {
+    		lock.unlock();
+    	}
+    }
+    
+    private <T> Optional<CachedValue<T>> bind(String key, CachedEntry e, TypeReference<T> typeRef) {
+    	try {
+    		return Optional.of(new CachedValue<T>(e.getValue(typeRef), e.getTimestamp(), e.getTtlSecs(), e.getObjectHash()));
+    	} catch (Exception ex) {
+    		// The index claimed the entry exists, but its file is missing or unreadable
+    		LOGGER.warn("Failed to read cache for key: " + key, ex);
+    		index.remove(sanitize(key));
+    		return Optional.empty();
+    	}
+    }
+    
+    /**
+     * Reads the entry metadata from the index. The entry file is not read until the value is requested from the returned entry, so if the
+     * entry is overwritten in the meantime the value will be the newer one. Use peekValue to read both atomically.
+     */
     @Override
     public Optional<CachedEntry> peekEntry(String key) {
-        File file = resolvePath(key);
-        if (!file.exists()) return Optional.empty();
-
+    	String indexKey = sanitize(key);
+    	var meta = index.get(indexKey);
+    	
+    	if (meta != null && matchesFile(key, meta)) {
+    		var payload = new FilePayload(key, meta.getEncoding(), meta.getSize());
+    		return Optional.of(new CachedEntry(payload, meta.getTimestamp(), meta.getTtlSecs(), meta.getObjectHash()));
+    	}
+    	
+    	Lock lock = lockFor(key).readLock();
+    	lock.lock();
         try {
-            byte[] data = Files.readAllBytes(file.toPath());
-            CachedEntry entry = objectMapper.readValue(data, CachedEntry.class);
+	        File file = resolvePath(key);
+	        if (file == null) {
+	        	if (meta != null) index.remove(indexKey);
+	        	return Optional.empty();
+	        }
+	        
+        	// Not indexed (for instance because the key is too long to fit in the index), or changed since, so we have to read the file
+	        var attrs = stat(file.toPath());
+        	byte[] data = compressor.decompress(Files.readAllBytes(file.toPath()));
+        	CacheEncoding fileEncoding = CacheEncoding.fromFileName(file.getName());
+            CachedEntry entry = CachedEntry.read(mappers.get(fileEncoding), data);
+            index.put(indexKey, metadata(entry, fileEncoding, data.length, attrs));
             return Optional.of(entry);
         } catch (Exception e) {
             LOGGER.warn("Failed to read cache entry for key: " + key, e);
             return Optional.empty();
+        } finally {
+        	lock.unlock();
         }
     }
+    
+    /**
+     * Whether the entry file is still the one the metadata was indexed from, which costs a single stat.
+     */
+    private boolean matchesFile(String key, CacheMetadataIndex.Metadata meta) {
+    	try {
+    		var attrs = stat(resolvePath(key, meta.getEncoding()).toPath());
+    		return fileModified(attrs) == meta.getFileModified() && attrs.size() == meta.getFileLength();
+    	} catch (IOException e) {
+    		return false;
+    	}
+    }
+    
+    private static BasicFileAttributes stat(Path path) throws IOException {
+    	return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+    
+    private static long fileModified(BasicFileAttributes attrs) {
+    	Instant modified = attrs.lastModifiedTime().toInstant();
+    	return modified.getEpochSecond() * 1_000_000_000L + modified.getNano();
+    }
+    
+    private static CacheMetadataIndex.Metadata metadata(CachedEntry entry, CacheEncoding encoding, long size, BasicFileAttributes attrs) {
+    	return new CacheMetadataIndex.Metadata(entry.getTimestamp(), entry.getTtlSecs(), entry.getObjectHash(), encoding, size,
+    			fileModified(attrs), attrs.size());
+    }
 
     @Override
     public void put(String key, Object value, long ttlSecs) {
@@ -104,16 +421,70 @@ public class FileSystemLegiscanCache implements LegiscanCache {
     
     @Override
     public void put(String key, Object value, String objectHash, long ttlSecs) {
-        File file = resolvePath(key);
+        File file = resolvePath(key, encoding);
         file.getParentFile().mkdirs();
+        
+        Lock lock = lockFor(key).writeLock();
+        lock.lock();
         try {
             CachedEntry entry = new CachedEntry(value, Instant.now().getEpochSecond(), ttlSecs, objectHash);
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, entry);
+            
+            byte[] data = encoding == CacheEncoding.JSON
+            		? objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(entry)
+            		: mappers.get(encoding).writeValueAsBytes(entry);
+            
+            writeAtomically(file, compressor.compress(data));
+            index.put(sanitize(key), metadata(entry, encoding, data.length, stat(file.toPath())));
+            
+            // Clean up any copies of this entry which were written in a different encoding
+            for (CacheEncoding e : CacheEncoding.values()) {
+            	if (e != encoding) Files.deleteIfExists(resolvePath(key, e).toPath());
+            }
         } catch (IOException e) {
             LOGGER.warn("Failed to write cache for key: " + key, e);
+        } finally {
+        	lock.unlock();
         }
     }
     
+    /**
+     * Writes the data to a temporary file in the same directory and renames it over the target, so that the target either holds its
+     * previous content or the complete new content, even across a crash. The temporary file is synced to disk before the rename, since
+     * otherwise the rename may survive a power loss while the data doesn't.
+     */
+    private static void writeAtomically(File target, byte[] data) throws IOException {
+    	Path tmp = Files.createTempFile(target.getParentFile().toPath(), target.getName() + ".", ".tmp");
+    	
+    	try {
+    		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+    			ByteBuffer buffer = ByteBuffer.wrap(data);
+    			while (buffer.hasRemaining()) channel.write(buffer);
+    			channel.force(true);
+    		}
+    		
+    		try {
+    			Files.move(tmp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    		} catch (AtomicMoveNotSupportedException e) {
+    			Files.move(tmp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    		}
+    		
+    		syncDirectory(target.getParentFile().toPath());
+    	} finally {
+    		Files.deleteIfExists(tmp);
+    	}
+    }
+    
+    /**
+     * Syncs the rename itself to disk. Not every platform can open a directory (Windows can't), in which case this is skipped.
+     */
+    private static void syncDirectory(Path dir) {
+    	try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+    		channel.force(true);
+    	} catch (IOException e) {
+    		// Best effort
+    	}
+    }
+    
     @Override
 	public String toString() {
 		return "File System Cache (" + baseDir.getAbsolutePath() + "]";
@@ -121,19 +492,131 @@ public class FileSystemLegiscanCache implements LegiscanCache {
 
     @Override
     public void remove(String cacheKey) {
-        File file = resolvePath(cacheKey);
-        if (file.exists()) {
-            try {
-                Files.delete(file.toPath());
-                LOGGER.trace("Cache file deleted for key: " + cacheKey);
-            } catch (IOException e) {
-                LOGGER.warn("Failed to delete cache file for key: " + cacheKey, e);
-            }
-        }
+    	Lock lock = lockFor(cacheKey).writeLock();
+    	lock.lock();
+    	try {
+	    	index.remove(sanitize(cacheKey));
+	    	
+	        for (CacheEncoding e : CacheEncoding.values()) {
+	            File file = resolvePath(cacheKey, e);
+	            if (file.exists()) {
+	                try {
+	                    Files.delete(file.toPath());
+	                    LOGGER.trace("Cache file deleted for key: " + cacheKey);
+	                } catch (IOException ex) {
+	                    LOGGER.warn("Failed to delete cache file for key: " + cacheKey, ex);
+	                }
+	            }
+	        }
+    	} finally {
+    		lock.unlock();
+    	}
     }
     
+    @Override
+    @SneakyThrows
+    public void putBlob(String key, InputStream data, String objectHash, long ttlSecs) {
+    	blobs.put(key, data, objectHash, ttlSecs);
+    }
+    
+    @Override
+    @SneakyThrows
+    public void putBlob(String key, Path source, String objectHash, long ttlSecs) {
+    	blobs.put(key, source, objectHash, ttlSecs);
+    }
+    
+    @Override
+    public Optional<CachedBlob> openBlob(String key) {
+    	return blobs.open(key);
+    }
+    
+    @Override
+    public boolean storesBlobs() {
+    	return true;
+    }
+    
+    @Override
+    public void removeBlob(String key) {
+    	blobs.remove(key);
+    }
+    
+    /**
+     * Answered from the index where possible, like peekEntry.
+     */
     @Override
 	public boolean presentAndValid(String key) {
-    	return peekEntry(key).isPresent();
+    	return peekEntry(key).map(e -> !e.isExpired(null)).orElse(false);
 	}
+    
+    /**
+     * Flushes the metadata index, so that it does not need to be rebuilt the next time the cache is opened.
+     */
+    @Override
+    public void close() throws IOException {
+    	if (rebuild != null) rebuild.interrupt();
+    	index.close();
+    }
+    
+    /**
+     * The value of an entry whose metadata was served from the index. The entry file is read the first time the value is bound.
+     */
+    private class FilePayload extends CachedPayload {
+    	private final String key;
+    	
+    	private final CacheEncoding encoding;
+    	
+    	private final long size;
+    	
+    	private volatile CachedPayload loaded;
+    	
+    	private FilePayload(String key, CacheEncoding encoding, long size) {
+    		this.key = key;
+    		this.encoding = encoding;
+    		this.size = size;
+    	}
+    	
+    	private CachedPayload load() {
+    		if (loaded == null) {
+    			Lock lock = lockFor(key).readLock();
+    			lock.lock();
+    			try {
+    				File file = resolvePath(key, encoding);
+    				
+    				// It may have since been rewritten in a different encoding
+    				if (!file.exists() && resolvePath(key) != null) file = resolvePath(key);
+    				
+    				CachedPayload payload = readEntry(file).getPayload();
+    				loaded = payload == null ? CachedPayload.ofObject(null, objectMapper) : payload;
+    			} catch (NoSuchFileException e) {
+    				throw new UncheckedIOException("The cache entry for key [" + key + "] no longer exists", e);
+    			} catch (IOException e) {
+    				throw new UncheckedIOException(e);
+    			} finally {
+    				lock.unlock();
+    			}
+    		}
+    		
+    		return loaded;
+    	}
+    	
+		@Override
+		public <T> T bind(JavaType type) {
+			return load().bind(type);
+		}
+
+		@Override
+		public void writeTo(JsonGenerator gen) throws IOException {
+			load().writeTo(gen);
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		protected ObjectMapper mapper() {
+			return load().mapper();
+		}
+    }
 }
@@ -1,14 +1,33 @@
 package us.poliscore.legiscan.cache;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Optional;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import us.poliscore.legiscan.view.LegiscanResponse;
 import us.poliscore.legiscan.view.RefreshFrequency;
 
@@ -23,6 +42,17 @@ public interface LegiscanCache {
     
     public Optional<CachedEntry> peekEntry(String key);
     
+    /**
+     * Returns the cache entry metadata along with its value bound to the requested type, if it exists. The value is read and parsed only
+     * once, so this should be preferred over calling peekEntry followed by peek. The object may or may not be expired. If it is expired,
+     * it will not be removed from the cache.
+     * 
+     * @param key
+     * @param typeRef
+     * @return
+     */
+    public <T> Optional<CachedValue<T>> peekValue(String key, TypeReference<T> typeRef);
+    
     /**
      * Attempts to fetch the object from the cache. If the object is expired, it will be cleared out from the cache and Optional.empty() will be returned.
      * 
@@ -54,22 +84,265 @@ public interface LegiscanCache {
     
 	public void remove(String cacheKey);
 	
+	/**
+	 * Stores binary data (such as a dataset archive or a bill text document) as a raw file, rather than encoding it into a cache entry.
+	 * Blobs live in their own namespace, so a key can have both an entry and a blob. Caches which can't store blobs silently drop them,
+	 * in which case openBlob returns empty.
+	 * 
+	 * @param key
+	 * @param data The blob's content. Read to the end, but not closed. The blob only becomes visible once the stream has been fully read.
+	 * @param objectHash
+	 * @param ttlSecs
+	 */
+	public void putBlob(String key, InputStream data, String objectHash, long ttlSecs);
+	
+	/**
+	 * Moves the file into the cache as a blob. This is a cheap rename if the file is on the same file system as the cache.
+	 * 
+	 * @param key
+	 * @param source The file to move. Left in place if the cache can't store blobs.
+	 * @param objectHash
+	 * @param ttlSecs
+	 */
+	public void putBlob(String key, Path source, String objectHash, long ttlSecs);
+	
+	/**
+	 * Returns a handle on the blob, if it exists. The blob may or may not be expired.
+	 * 
+	 * @param key
+	 * @return
+	 */
+	public Optional<CachedBlob> openBlob(String key);
+	
+	public void removeBlob(String key);
+	
+	/**
+	 * @return False if this cache silently drops blobs, in which case callers should keep binary data inline instead
+	 */
+	public boolean storesBlobs();
+	
+	/**
+	 * A single cache entry. The entry metadata (timestamp, ttl and object hash) is always available, whereas the value is held as a
+	 * {@link CachedPayload} and is only bound to a Java type when requested via one of the getValue methods.
+	 */
+	@JsonSerialize(using = CachedEntry.CachedEntrySerializer.class)
+	@JsonDeserialize(using = CachedEntry.CachedEntryDeserializer.class)
+    public static class CachedEntry {
+		@Getter @Setter
+        private CachedPayload payload;
+		
+		@Getter @Setter
+        private long timestamp;
+		
+		@Getter @Setter
+        private long ttlSecs;
+		
+		@Getter @Setter
+        private String objectHash;
+        
+        public CachedEntry() { }
+        
+        public CachedEntry(Object value, long timestamp, long ttlSecs, String objectHash) {
+        	this(CachedPayload.ofObject(value), timestamp, ttlSecs, objectHash);
+        }
+        
+        public CachedEntry(CachedPayload payload, long timestamp, long ttlSecs, String objectHash) {
+        	this.payload = payload;
+        	this.timestamp = timestamp;
+        	this.ttlSecs = ttlSecs;
+        	this.objectHash = objectHash;
+        }
+        
+        /**
+         * Binds the value to a generic Java object (i.e. maps and lists). Prefer one of the typed getValue methods, which bind directly
+         * to the desired type.
+         */
+        public Object getValue() {
+        	return getValue(Object.class);
+        }
+        
+        public <T> T getValue(TypeReference<T> typeRef) {
+        	return payload == null ? null : payload.bind(typeRef);
+        }
+        
+        public <T> T getValue(Class<T> clazz) {
+        	return payload == null ? null : payload.bind(clazz);
+        }
+        
+        public <T> T getValue(JavaType type) {
+        	return payload == null ? null : payload.bind(type);
+        }
+        
+        public void setValue(Object value) {
+        	this.payload = CachedPayload.ofObject(value);
+        }
+        
+        @JsonIgnore
+        public boolean isExpired(RefreshFrequency minFreshness) {
+        	return isExpired(getTimestamp(), getTtlSecs(), minFreshness);
+        }
+        
+        public static boolean isExpired(long timestamp, long ttlSecs, RefreshFrequency minFreshness) {
+        	if (ttlSecs <= 0) return false;
+        	
+        	long validLength = minFreshness == null ? ttlSecs : Math.max(minFreshness.asDuration().getSeconds(), ttlSecs);
+        	
+            return Instant.now().getEpochSecond() > timestamp + validLength;
+        }
+        
+        /**
+         * Reads a serialized entry in a single streaming pass. The metadata is parsed eagerly, whereas the value is left in its serialized
+         * form. Entries are written with their value last, in which case the value is not even tokenized until it is bound. Entries which
+         * were written value-first (by older versions of this library) are also supported.
+         * 
+         * @param mapper The mapper which matches the data format of the given bytes
+         * @param data A serialized entry
+         * @return The entry
+         */
+        public static CachedEntry read(ObjectMapper mapper, byte[] data) throws IOException {
+        	CachedEntry entry = new CachedEntry();
+        	boolean sliceable = JsonFactory.FORMAT_NAME_JSON.equals(mapper.getFactory().getFormatName());
+        	int seen = 0;
+        	
+            try (JsonParser p = mapper.createParser(data)) {
+                if (p.nextToken() != JsonToken.START_OBJECT)
+                    throw new IOException("Expected START_OBJECT");
+                
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.currentName();
+                    JsonToken token = p.nextToken();
+                    
+                    switch (field) {
+                        case "value" -> {
+                        	if (token == JsonToken.VALUE_NULL) {
+                        		entry.setPayload(null);
+                        	} else if (sliceable) {
+                        		// The payload only ever binds a single value, so anything trailing it can be included in the slice
+                        		int start = (int) p.currentTokenLocation().getByteOffset();
+                        		entry.setPayload(CachedPayload.ofBytes(data, start, data.length - start, mapper));
+                        		
+                        		// All of the metadata has been seen, so the value is the last field and there's no need to scan it.
+                        		if (seen == 3) return entry;
+                        		
+                        		p.skipChildren();
+                        	} else {
+                        		long start = p.currentTokenLocation().getByteOffset();
+                        		TokenBuffer tokens = new TokenBuffer(p);
+                        		tokens.copyCurrentStructure(p);
+                        		long end = p.currentLocation().getByteOffset();
+                        		entry.setPayload(CachedPayload.ofTokens(tokens, start < 0 || end < 0 ? -1 : end - start, mapper));
+                        	}
+                        }
+                        case "timestamp" -> { entry.setTimestamp(p.getLongValue()); seen++; }
+                        case "ttlSecs" -> { entry.setTtlSecs(p.getLongValue()); seen++; }
+                        case "objectHash" -> { entry.setObjectHash(token == JsonToken.VALUE_NULL ? null : p.getText()); seen++; }
+                        default -> p.skipChildren();
+                    }
+                }
+            }
+            
+            return entry;
+        }
+        
+        /**
+         * Writes the metadata first and the value last, so that readers can get at the metadata without scanning the value.
+         */
+        public static class CachedEntrySerializer extends StdSerializer<CachedEntry> {
+			private static final long serialVersionUID = 1L;
+
+			public CachedEntrySerializer() {
+        		super(CachedEntry.class);
+        	}
+        	
+			@Override
+			public void serialize(CachedEntry entry, JsonGenerator gen, SerializerProvider provider) throws IOException {
+				gen.writeStartObject();
+				gen.writeNumberField("timestamp", entry.getTimestamp());
+				gen.writeNumberField("ttlSecs", entry.getTtlSecs());
+				gen.writeStringField("objectHash", entry.getObjectHash());
+				gen.writeFieldName("value");
+				if (entry.getPayload() == null) {
+					gen.writeNull();
+				} else {
+					entry.getPayload().writeTo(gen);
+				}
+				gen.writeEndObject();
+			}
+        }
+        
+        /**
+         * Buffers the value as tokens, rather than as a tree, so that it can be bound to its target type later on.
+         */
+        public static class CachedEntryDeserializer extends JsonDeserializer<CachedEntry> {
+			@Override
+			public CachedEntry deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+				CachedEntry entry = new CachedEntry();
+				ObjectMapper mapper = p.getCodec() instanceof ObjectMapper om ? om : null;
+				
+				if (p.currentToken() == null) p.nextToken();
+				if (p.currentToken() != JsonToken.START_OBJECT)
+					throw new IOException("Expected START_OBJECT");
+				
+				while (p.nextToken() == JsonToken.FIELD_NAME) {
+					String field = p.currentName();
+					JsonToken token = p.nextToken();
+					
+					switch (field) {
+						case "value" -> {
+							if (token == JsonToken.VALUE_NULL) {
+								entry.setPayload(null);
+							} else {
+								TokenBuffer tokens = ctxt.bufferAsCopyOfValue(p);
+								entry.setPayload(CachedPayload.ofTokens(tokens, -1, mapper));
+							}
+						}
+						case "timestamp" -> entry.setTimestamp(p.getLongValue());
+						case "ttlSecs" -> entry.setTtlSecs(p.getLongValue());
+						case "objectHash" -> entry.setObjectHash(token == JsonToken.VALUE_NULL ? null : p.getText());
+						default -> p.skipChildren();
+					}
+				}
+				
+				return entry;
+			}
+        }
+    }
+	
+	/**
+	 * A cached value which has already been bound to its requested type, along with the metadata of the entry it was read from.
+	 */
 	@Data
     @NoArgsConstructor
     @AllArgsConstructor
-    public static class CachedEntry {
-        private Object value;
+    public static class CachedValue<T> {
+        private T value;
         private long timestamp;
         private long ttlSecs;
         private String objectHash;
         
-        @JsonIgnore
         public boolean isExpired(RefreshFrequency minFreshness) {
-        	if (getTtlSecs() <= 0) return false;
+        	return CachedEntry.isExpired(timestamp, ttlSecs, minFreshness);
+        }
+        
+        /**
+         * @return How long ago the value expired, or zero if it has not expired
+         */
+        public Duration getStaleness(RefreshFrequency minFreshness) {
+        	Instant expiresAt = getExpiresAt(minFreshness);
+        	if (expiresAt == null) return Duration.ZERO;
+        	
+        	return Duration.ofSeconds(Math.max(0, Instant.now().getEpochSecond() - expiresAt.getEpochSecond()));
+        }
+        
+        /**
+         * @return When the value expires (or expired), or null if it never expires
+         */
+        public Instant getExpiresAt(RefreshFrequency minFreshness) {
+        	if (ttlSecs <= 0) return null;
         	
-        	long validLength = minFreshness == null ? getTtlSecs() : Math.max(minFreshness.asDuration().getSeconds(), getTtlSecs());
+        	long validLength = minFreshness == null ? ttlSecs : Math.max(minFreshness.asDuration().getSeconds(), ttlSecs);
         	
-            return Instant.now().getEpochSecond() > getTimestamp() + validLength;
+        	return Instant.ofEpochSecond(timestamp + validLength);
         }
     }
 }
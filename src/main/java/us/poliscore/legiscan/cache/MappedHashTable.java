@@ -0,0 +1,371 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * The storage shared by the memory-mapped indexes of the cache: an open addressing hash table of fixed-size slots, behind a header which
+ * records the capacity, the number of entries and whether the file was closed cleanly. Subclasses define what a slot holds, and look
+ * slots up under the read/write lock.
+ *
+ * The file is flagged as dirty while it is open and is only flagged as clean again once it has been flushed on close, so a table which
+ * was left behind by a crash is detected on open and started over. A table is shared by everything within the JVM which opens the same
+ * file. Between processes, the file is locked by whichever process opens it first, and any other process gets a table which holds nothing,
+ * rather than mapping a file which may be resized under it. A table which isn't backed by a file at all lives on the heap.
+ */
+public abstract class MappedHashTable implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MappedHashTable.class);
+
+	protected static final int INITIAL_CAPACITY = 4096;
+
+	protected static final byte EMPTY = 0, OCCUPIED = 1, DELETED = 2;
+
+	// Header offsets
+	private static final int H_MAGIC = 0, H_VERSION = 4, H_CAPACITY = 8, H_COUNT = 12, H_USED = 16, H_DIRTY = 20;
+
+	/**
+	 * Every slot starts with its state.
+	 */
+	protected static final int S_STATE = 0;
+
+	private static final Map<String, MappedHashTable> OPEN = new ConcurrentHashMap<String, MappedHashTable>();
+
+	static {
+		// Caches are rarely closed explicitly, so make sure a normal exit doesn't force a rebuild on the next start. Tables which were
+		// closed have already left OPEN, so nothing is held on to past its close.
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> OPEN.values().forEach(MappedHashTable::flush), "legiscan-index-flush"));
+	}
+
+	/**
+	 * The file backing the table, or null if the table is only held in memory.
+	 */
+	@Getter
+	private final File file;
+
+	private final String description;
+
+	private final int magic, version, headerLength, slotLength;
+
+	protected final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private FileChannel channel;
+
+	private FileLock fileLock;
+
+	/**
+	 * The table, or null once the table is closed or if another process holds it.
+	 */
+	protected ByteBuffer buffer;
+
+	private int capacity;
+
+	private int references;
+
+	/**
+	 * True if the table was missing, or was found dirty, when it was opened and so started out empty.
+	 */
+	@Getter
+	private boolean startedOver;
+
+	protected interface Opener<T extends MappedHashTable> {
+		T open(File file) throws IOException;
+	}
+
+	/**
+	 * Opens the table stored in the given file, or returns the already open instance if something else within this JVM has it open.
+	 */
+	@SuppressWarnings("unchecked")
+	protected static <T extends MappedHashTable> T open(File file, Opener<T> opener) throws IOException {
+		String path = file.getCanonicalPath();
+
+		synchronized (OPEN) {
+			MappedHashTable table = OPEN.get(path);
+
+			if (table == null) {
+				table = opener.open(file);
+				OPEN.put(path, table);
+			}
+
+			table.references++;
+			return (T) table;
+		}
+	}
+
+	protected MappedHashTable(File file, String description, int magic, int version, int headerLength, int slotLength) throws IOException {
+		this.file = file;
+		this.description = description;
+		this.magic = magic;
+		this.version = version;
+		this.headerLength = headerLength;
+		this.slotLength = slotLength;
+
+		if (file == null) {
+			reset(INITIAL_CAPACITY);
+			return;
+		}
+
+		file.getParentFile().mkdirs();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			fileLock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			fileLock = null;
+		}
+
+		if (fileLock == null) {
+			LOGGER.info(description + " [" + file + "] is in use by another process, and will not be used by this one.");
+			channel.close();
+			channel = null;
+			return;
+		}
+
+		boolean valid = false;
+
+		if (channel.size() >= headerLength) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			capacity = buffer.getInt(H_CAPACITY);
+
+			valid = buffer.getInt(H_MAGIC) == magic && buffer.getInt(H_VERSION) == version && buffer.get(H_DIRTY) == 0
+					&& capacity > 0 && (capacity & (capacity - 1)) == 0 && channel.size() == length(capacity);
+		}
+
+		if (!valid) {
+			if (channel.size() > 0) LOGGER.info(description + " [" + file + "] was not closed cleanly and will be started over.");
+
+			reset(INITIAL_CAPACITY);
+			startedOver = true;
+		}
+
+		// Any changes made from here on may not make it to disk, unless we're closed cleanly
+		buffer.put(H_DIRTY, (byte) 1);
+		((MappedByteBuffer) buffer).force();
+	}
+
+	/**
+	 * False if another process holds the table, in which case nothing is ever stored in it.
+	 */
+	public boolean isAvailable() {
+		return file == null || fileLock != null;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return buffer == null ? 0 : buffer.getInt(H_COUNT);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes the table to disk and marks it as clean, once everything which opened it has closed it.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (file == null) return;
+
+		synchronized (OPEN) {
+			if (--references > 0) return;
+			OPEN.remove(file.getCanonicalPath());
+		}
+
+		flush();
+	}
+
+	/**
+	 * Whether the table may be marked as clean when it is flushed. Otherwise it is started over on the next open.
+	 */
+	protected boolean isComplete() {
+		return true;
+	}
+
+	/**
+	 * Flushes the table to disk, marks it as clean (if it is complete) and closes it. Any further changes are ignored.
+	 */
+	private void flush() {
+		lock.writeLock().lock();
+		try {
+			if (buffer == null) return;
+
+			((MappedByteBuffer) buffer).force();
+			if (isComplete()) {
+				buffer.put(H_DIRTY, (byte) 0);
+				((MappedByteBuffer) buffer).force();
+			}
+			buffer = null;
+			fileLock.release();
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.warn("Unable to flush " + description.toLowerCase() + " [" + file + "].", e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * The hash which places the slot at the given offset of the buffer, so that the table can be grown.
+	 */
+	protected abstract long slotHash(ByteBuffer slots, int base);
+
+	/**
+	 * Probes for the occupied slot with the given hash which the predicate accepts. Must be called under the lock.
+	 *
+	 * @return The offset of the slot, or -1 if there is no such slot
+	 */
+	protected int find(long hash, IntPredicate matches) {
+		if (buffer == null) return -1;
+
+		int mask = capacity - 1;
+
+		for (int i = 0, slot = (int) (hash & mask); i < capacity; i++, slot = (slot + 1) & mask) {
+			int base = offset(slot);
+			byte state = buffer.get(base + S_STATE);
+
+			if (state == EMPTY) return -1;
+			if (state == OCCUPIED && matches.test(base)) return base;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Claims a free slot for a new entry with the given hash, growing the table if need be. The caller fills in the slot and then marks it
+	 * as occupied. Must be called under the write lock.
+	 *
+	 * @return The offset of the slot, or -1 if the table is closed or full
+	 */
+	protected int insert(long hash) {
+		if (buffer == null || !ensureCapacity()) return -1;
+
+		int base = offset(findFree(hash));
+		if (buffer.get(base + S_STATE) == EMPTY) buffer.putInt(H_USED, buffer.getInt(H_USED) + 1);
+		buffer.putInt(H_COUNT, buffer.getInt(H_COUNT) + 1);
+		return base;
+	}
+
+	/**
+	 * Frees the occupied slot at the given offset. Must be called under the write lock.
+	 */
+	protected void delete(int base) {
+		buffer.put(base + S_STATE, DELETED);
+		buffer.putInt(H_COUNT, buffer.getInt(H_COUNT) - 1);
+	}
+
+	/**
+	 * Removes every entry from the table.
+	 */
+	protected void clear() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (buffer == null) return;
+
+			reset(INITIAL_CAPACITY);
+			buffer.put(H_DIRTY, (byte) 1);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private int findFree(long hash) {
+		int mask = capacity - 1;
+		int slot = (int) (hash & mask);
+
+		while (buffer.get(offset(slot) + S_STATE) == OCCUPIED) {
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Grows (or just cleans out the deleted slots of) the table once it is three quarters full.
+	 *
+	 * @return False if the table is full and cannot grow any further
+	 */
+	private boolean ensureCapacity() {
+		int used = buffer.getInt(H_USED);
+		if (used + 1 <= capacity / 4 * 3) return true;
+
+		int count = buffer.getInt(H_COUNT);
+		int newCapacity = count + 1 > capacity / 2 ? capacity * 2 : capacity;
+
+		// A mapped buffer is limited to 2GB
+		if (length(newCapacity) > Integer.MAX_VALUE) return count + 1 < capacity;
+
+		try {
+			List<byte[]> slots = new ArrayList<byte[]>(count);
+			for (int slot = 0; slot < capacity; slot++) {
+				int base = offset(slot);
+
+				if (buffer.get(base + S_STATE) == OCCUPIED) {
+					byte[] bytes = new byte[slotLength];
+					buffer.get(base, bytes);
+					slots.add(bytes);
+				}
+			}
+
+			reset(newCapacity);
+			buffer.put(H_DIRTY, (byte) 1);
+
+			for (byte[] bytes : slots) {
+				buffer.put(offset(findFree(slotHash(ByteBuffer.wrap(bytes), 0))), bytes);
+			}
+			buffer.putInt(H_COUNT, slots.size());
+			buffer.putInt(H_USED, slots.size());
+
+			return true;
+		} catch (IOException e) {
+			LOGGER.warn("Unable to grow " + description.toLowerCase() + " [" + file + "].", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Starts the table over at the given capacity. This is the only place the file is resized, which is safe because no other process
+	 * can have it mapped while we hold its lock.
+	 */
+	private void reset(int newCapacity) throws IOException {
+		if (channel == null) {
+			buffer = ByteBuffer.allocate((int) length(newCapacity));
+		} else {
+			channel.truncate(0);
+			channel.write(ByteBuffer.allocate(1), length(newCapacity) - 1);
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length(newCapacity));
+		}
+
+		buffer.putInt(H_MAGIC, magic);
+		buffer.putInt(H_VERSION, version);
+		buffer.putInt(H_CAPACITY, newCapacity);
+		buffer.putInt(H_COUNT, 0);
+		buffer.putInt(H_USED, 0);
+		capacity = newCapacity;
+	}
+
+	private long length(int capacity) {
+		return headerLength + (long) capacity * slotLength;
+	}
+
+	private int offset(int slot) {
+		return headerLength + slot * slotLength;
+	}
+}
@@ -0,0 +1,358 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * A bounded, in-process cache tier which sits in front of another LegiscanCache (typically the FileSystemLegiscanCache). Hits are served
+ * straight out of memory without touching the backing cache, and bound values are memoized per requested type so that repeated lookups
+ * of the same object do not pay for deserialization again.
+ *
+ * Entries are stored in a byte-weighted segmented LRU. New entries land in a probation segment and are promoted to the protected segment
+ * on their second hit, which prevents a single large scan (such as a dataset bulk load) from flushing out the hot working set.
+ *
+ * Writes and removals are always passed through to the backing cache, and invalidate the in-memory copy. Objects returned from this cache
+ * may be shared between callers and should be treated as read-only.
+ */
+public class MemoryLegiscanCache implements LegiscanCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MemoryLegiscanCache.class);
+
+	/**
+	 * The share of the total weight which is reserved for entries which have been hit more than once.
+	 */
+	protected static final double PROTECTED_RATIO = 0.8;
+
+	/**
+	 * A rough estimate of the fixed per-entry overhead (node, map entry, key) which is added onto the payload size.
+	 */
+	protected static final long ENTRY_OVERHEAD = 128;
+
+	@Getter
+	protected final LegiscanCache backing;
+
+	protected final ObjectMapper objectMapper;
+
+	@Getter
+	protected final long maxWeight;
+
+	protected final long maxProtectedWeight;
+
+	private final LinkedHashMap<String, Node> probation = new LinkedHashMap<String, Node>(16, 0.75f, true);
+
+	private final LinkedHashMap<String, Node> protectedSegment = new LinkedHashMap<String, Node>(16, 0.75f, true);
+
+	private long probationWeight = 0;
+
+	private long protectedWeight = 0;
+
+	/**
+	 * Bumped after every write or removal. Loads which raced with a write are not admitted, since they may have read the old value.
+	 */
+	private final AtomicLong writeEpoch = new AtomicLong();
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param backing The cache to read through to and write through to
+	 * @param objectMapper Used for weighing entries and binding them to the requested types
+	 * @param maxWeight The maximum (estimated) number of bytes to hold in memory
+	 */
+	public MemoryLegiscanCache(LegiscanCache backing, ObjectMapper objectMapper, long maxWeight) {
+		if (maxWeight <= 0) throw new IllegalArgumentException("maxWeight must be positive");
+
+		this.backing = backing;
+		this.objectMapper = objectMapper;
+		this.maxWeight = maxWeight;
+		this.maxProtectedWeight = (long) (maxWeight * PROTECTED_RATIO);
+	}
+
+	@Override
+	public <T> Optional<T> peek(String key, TypeReference<T> typeRef) {
+		Node node = getNode(key);
+		if (node == null) return Optional.empty();
+
+		return Optional.ofNullable(node.bind(typeRef));
+	}
+
+	/**
+	 * Returns a copy of the held entry, like the file-backed tiers do, so that a caller which modifies it can't change what every other
+	 * reader sees. The payload itself is shared, since binding it always produces a new object.
+	 */
+	@Override
+	public Optional<CachedEntry> peekEntry(String key) {
+		return Optional.ofNullable(getNode(key)).map(n -> new CachedEntry(n.entry.getPayload(), n.entry.getTimestamp(), n.entry.getTtlSecs(), n.entry.getObjectHash()));
+	}
+
+	@Override
+	public <T> Optional<CachedValue<T>> peekValue(String key, TypeReference<T> typeRef) {
+		Node node = getNode(key);
+		if (node == null) return Optional.empty();
+
+		return Optional.of(new CachedValue<T>(node.bind(typeRef), node.entry.getTimestamp(), node.entry.getTtlSecs(), node.entry.getObjectHash()));
+	}
+
+	@Override
+	public Optional<LegiscanResponse> getOrExpire(String key) {
+		return getOrExpire(key, new TypeReference<LegiscanResponse>() {});
+	}
+
+	@Override
+	public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
+		Node node = getNode(key);
+		if (node == null) return Optional.empty();
+
+		if (node.entry.isExpired(null)) {
+			// Let the backing cache perform its own expiration (i.e. cleaning up the file)
+			invalidate(key);
+			return backing.getOrExpire(key, typeRef);
+		}
+
+		return Optional.ofNullable(node.bind(typeRef));
+	}
+
+	@Override
+	public void put(String key, Object value, long ttlSecs) {
+		put(key, value, null, ttlSecs);
+	}
+
+	@Override
+	public void put(String key, Object value, String objectHash, long ttlSecs) {
+		backing.put(key, value, objectHash, ttlSecs);
+		writeEpoch.incrementAndGet();
+		invalidate(key);
+	}
+
+	@Override
+	public boolean presentAndValid(String key) {
+		Node node = getNode(key);
+		return node != null && !node.entry.isExpired(null);
+	}
+
+	@Override
+	public void remove(String cacheKey) {
+		backing.remove(cacheKey);
+		writeEpoch.incrementAndGet();
+		invalidate(cacheKey);
+	}
+
+	/**
+	 * Blobs are large by nature, so they are never held in memory. They are stored by the backing cache instead.
+	 */
+	@Override
+	public void putBlob(String key, InputStream data, String objectHash, long ttlSecs) {
+		backing.putBlob(key, data, objectHash, ttlSecs);
+	}
+
+	@Override
+	public void putBlob(String key, Path source, String objectHash, long ttlSecs) {
+		backing.putBlob(key, source, objectHash, ttlSecs);
+	}
+
+	@Override
+	public Optional<CachedBlob> openBlob(String key) {
+		return backing.openBlob(key);
+	}
+
+	@Override
+	public boolean storesBlobs() {
+		return backing.storesBlobs();
+	}
+
+	@Override
+	public void removeBlob(String key) {
+		backing.removeBlob(key);
+	}
+
+	/**
+	 * Drops the in-memory copy of the given key, without touching the backing cache.
+	 */
+	public synchronized void invalidate(String key) {
+		Node node = probation.remove(key);
+		if (node != null) probationWeight -= node.weight;
+
+		node = protectedSegment.remove(key);
+		if (node != null) protectedWeight -= node.weight;
+	}
+
+	/**
+	 * Drops all in-memory entries, without touching the backing cache.
+	 */
+	public synchronized void invalidateAll() {
+		probation.clear();
+		protectedSegment.clear();
+		probationWeight = 0;
+		protectedWeight = 0;
+	}
+
+	public Stats getStats() {
+		synchronized (this) {
+			return new Stats(hits.sum(), misses.sum(), evictions.sum(), probation.size() + protectedSegment.size(), probationWeight + protectedWeight, maxWeight);
+		}
+	}
+
+	protected Node getNode(String key) {
+		Node node = lookup(key);
+
+		if (node != null) {
+			hits.increment();
+			return node;
+		}
+
+		misses.increment();
+
+		long epoch = writeEpoch.get();
+		CachedEntry entry = backing.peekEntry(key).orElse(null);
+		if (entry == null) return null;
+
+		node = new Node(entry, weigh(entry));
+		admit(key, node, epoch);
+		return node;
+	}
+
+	private synchronized Node lookup(String key) {
+		Node node = protectedSegment.get(key);
+		if (node != null) return node;
+
+		node = probation.remove(key);
+		if (node == null) return null;
+
+		// Second hit, promote into the protected segment
+		probationWeight -= node.weight;
+		protectedSegment.put(key, node);
+		protectedWeight += node.weight;
+
+		// Overflow from the protected segment is demoted back into probation, where it gets another chance before eviction
+		Iterator<Map.Entry<String, Node>> it = protectedSegment.entrySet().iterator();
+		while (protectedWeight > maxProtectedWeight && it.hasNext()) {
+			var eldest = it.next();
+			if (eldest.getKey().equals(key)) break;
+
+			it.remove();
+			protectedWeight -= eldest.getValue().weight;
+			probation.put(eldest.getKey(), eldest.getValue());
+			probationWeight += eldest.getValue().weight;
+		}
+
+		evict();
+		return node;
+	}
+
+	private synchronized void admit(String key, Node node, long epoch) {
+		if (node.weight > maxWeight || writeEpoch.get() != epoch) return;
+		if (probation.containsKey(key) || protectedSegment.containsKey(key)) return;
+
+		probation.put(key, node);
+		probationWeight += node.weight;
+
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Node>> it = probation.entrySet().iterator();
+		while (probationWeight + protectedWeight > maxWeight && it.hasNext()) {
+			var eldest = it.next();
+			it.remove();
+			probationWeight -= eldest.getValue().weight;
+			evictions.increment();
+		}
+
+		it = protectedSegment.entrySet().iterator();
+		while (probationWeight + protectedWeight > maxWeight && it.hasNext()) {
+			var eldest = it.next();
+			it.remove();
+			protectedWeight -= eldest.getValue().weight;
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Estimates the in-memory size of the entry. The serialized size is used as a proxy for the size of the materialized object.
+	 */
+	protected long weigh(CachedEntry entry) {
+		try {
+			if (entry.getPayload() == null) return ENTRY_OVERHEAD;
+
+			long size = entry.getPayload().size();
+			if (size >= 0) return ENTRY_OVERHEAD + size;
+
+			return ENTRY_OVERHEAD + objectMapper.writeValueAsBytes(entry.getValue()).length;
+		} catch (Exception e) {
+			LOGGER.warn("Unable to weigh cache entry, treating it as too large to hold in memory.", e);
+			return Long.MAX_VALUE;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Memory Cache (" + maxWeight + " bytes) -> " + backing.toString();
+	}
+
+	protected class Node {
+		protected final CachedEntry entry;
+
+		protected final long weight;
+
+		protected final Map<Type, Object> bound = new ConcurrentHashMap<Type, Object>();
+
+		protected Node(CachedEntry entry, long weight) {
+			this.entry = entry;
+			this.weight = weight;
+		}
+
+		@SuppressWarnings("unchecked")
+		protected <T> T bind(TypeReference<T> typeRef) {
+			if (entry.getPayload() == null) return null;
+
+			return (T) bound.computeIfAbsent(typeRef.getType(), t -> entry.getValue(objectMapper.constructType(typeRef)));
+		}
+	}
+
+	@Getter
+	@AllArgsConstructor
+	public static class Stats {
+		private final long hits;
+
+		private final long misses;
+
+		private final long evictions;
+
+		private final long entryCount;
+
+		private final long weightedSize;
+
+		private final long maxWeight;
+
+		public double getHitRate() {
+			long total = hits + misses;
+			return total == 0 ? 0 : (double) hits / total;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", entries=" + entryCount + ", weight=" + weightedSize + "/" + maxWeight;
+		}
+	}
+}
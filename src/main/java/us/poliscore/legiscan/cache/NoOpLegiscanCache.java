@@ -1,5 +1,7 @@
 package us.poliscore.legiscan.cache;
 
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Optional;
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -33,6 +35,11 @@ public class NoOpLegiscanCache implements LegiscanCache {
 		return Optional.empty();
 	}
 
+	@Override
+	public <T> Optional<CachedValue<T>> peekValue(String key, TypeReference<T> typeRef) {
+		return Optional.empty();
+	}
+
 	@Override
 	public Optional<LegiscanResponse> getOrExpire(String key) {
 		return Optional.empty();
@@ -52,4 +59,29 @@ public class NoOpLegiscanCache implements LegiscanCache {
 	public void put(String key, Object value, String objectHash, long ttlSecs) {
 		// no-op
 	}
+
+	@Override
+	public void putBlob(String key, InputStream data, String objectHash, long ttlSecs) {
+		// no-op
+	}
+
+	@Override
+	public void putBlob(String key, Path source, String objectHash, long ttlSecs) {
+		// no-op
+	}
+
+	@Override
+	public Optional<CachedBlob> openBlob(String key) {
+		return Optional.empty();
+	}
+
+	@Override
+	public boolean storesBlobs() {
+		return false;
+	}
+
+	@Override
+	public void removeBlob(String key) {
+		// no-op
+	}
 }
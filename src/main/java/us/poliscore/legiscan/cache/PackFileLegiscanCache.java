@@ -0,0 +1,732 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.SneakyThrows;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * A log-structured LegiscanCache which appends entries to a small number of large segment files, rather than creating a directory and file
+ * per key like the FileSystemLegiscanCache does. This keeps the inode count (and backup times) manageable when every state is cached.
+ *
+ * An in-memory index maps every key to the location of its latest record. Overwritten, removed and long expired records are reclaimed by a
+ * background compaction, which rewrites the live records of all sealed segments into new segments and then deletes the old ones.
+ *
+ * Every record carries a CRC and a sequence number. On startup the segments are replayed to rebuild the index, keeping the record with the
+ * highest sequence number for each key, and a torn record at the end of a segment (from a crash mid-append) is truncated away.
+ *
+ * The index lives only in this process, so a directory can only be opened by one instance at a time. This is enforced with a file lock,
+ * since two processes appending to the same segment would interleave their records.
+ */
+public class PackFileLegiscanCache implements LegiscanCache, Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PackFileLegiscanCache.class);
+
+	protected static final int MAGIC = 0x4C504B31; // "LPK1"
+
+	protected static final byte TYPE_PUT = 0;
+
+	protected static final byte TYPE_DELETE = 1;
+
+	/**
+	 * magic, crc, type, sequence, timestamp, ttlSecs, key length, payload length
+	 */
+	protected static final int HEADER_LENGTH = 4 + 4 + 1 + 8 + 8 + 8 + 2 + 4;
+
+	protected static final String SEGMENT_PREFIX = "segment-";
+
+	protected static final String SEGMENT_EXTENSION = ".pack";
+
+	protected static final String LOCK_FILE = ".lock";
+
+	public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+	@Getter
+	private final File baseDir;
+
+	private final ObjectMapper objectMapper;
+
+	@Getter
+	private final CacheEncoding encoding;
+
+	@Getter
+	private final CacheCompressor compressor;
+
+	private final BlobStore blobs;
+
+	private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+
+	private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+
+	/**
+	 * Readers hold the read lock while they access a segment, so that compaction cannot delete it from under them.
+	 */
+	private final ReentrantReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Serializes all appends to the active segment.
+	 */
+	private final Object appendLock = new Object();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * Only replaced while holding the append lock, but read without it
+	 */
+	private volatile Segment active;
+
+	private final FileChannel lockChannel;
+
+	private final FileLock lock;
+
+	private ScheduledExecutorService compactionExecutor;
+
+	/**
+	 * Segments are sealed and a new one started once they reach this size.
+	 */
+	@Getter @Setter
+	private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+
+	/**
+	 * Compaction is triggered once this share of the sealed segments is taken up by dead records.
+	 */
+	@Getter @Setter
+	private double compactionDeadRatio = 0.5;
+
+	/**
+	 * Records which have been expired for longer than this are dropped during compaction. Expired entries are otherwise kept around, since
+	 * callers can still choose to use them (for instance, when the upstream change hash has not changed).
+	 */
+	@Getter @Setter
+	private Duration expiredRetention = Duration.ofDays(7);
+
+	/**
+	 * Whether to fsync after every append. Without it a crash can lose recent writes, but will never corrupt the cache.
+	 */
+	@Getter @Setter
+	private boolean syncWrites = false;
+
+	public PackFileLegiscanCache(File baseDir, ObjectMapper objectMapper) {
+		this(baseDir, objectMapper, CacheEncoding.SMILE);
+	}
+
+	public PackFileLegiscanCache(File baseDir, ObjectMapper objectMapper, CacheEncoding encoding) {
+		this.baseDir = baseDir;
+		this.encoding = encoding;
+		this.objectMapper = encoding.createMapper(objectMapper);
+
+		if (!baseDir.exists() && !baseDir.mkdirs()) {
+			throw new IllegalStateException("Could not create cache directory: " + baseDir);
+		}
+
+		try {
+			this.lockChannel = FileChannel.open(new File(baseDir, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			this.lock = tryLock(lockChannel);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not lock pack file cache: " + baseDir, e);
+		}
+
+		if (lock == null) {
+			closeQuietly(lockChannel);
+			throw new IllegalStateException("Pack file cache [" + baseDir + "] is already open in another process (or elsewhere in this one).");
+		}
+
+		this.compressor = new CacheCompressor(new File(baseDir, ".dictionaries"));
+
+		// Blobs are far too large to be copied around by compaction, so they are kept as plain files instead
+		this.blobs = new BlobStore(new File(baseDir, "blobs"));
+
+		try {
+			recover();
+		} catch (IOException e) {
+			closeQuietly(lockChannel);
+			throw new IllegalStateException("Could not open pack file cache: " + baseDir, e);
+		}
+	}
+
+	/**
+	 * @return The lock, or null if another process (or another instance within this one) holds it
+	 */
+	private static FileLock tryLock(FileChannel channel) throws IOException {
+		try {
+			return channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			return null;
+		}
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// Nothing more to do
+		}
+	}
+
+	/**
+	 * Enables transparent compression of newly written entries. Compressed entries are always readable, regardless of this setting.
+	 */
+	public void enableCompression(int thresholdBytes) {
+		compressor.setThreshold(thresholdBytes);
+	}
+
+	/**
+	 * Starts compacting the cache in the background, checking whether a compaction is needed at the given interval.
+	 */
+	public synchronized void startCompaction(Duration interval) {
+		if (compactionExecutor != null) return;
+
+		compactionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "legiscan-pack-compaction");
+			t.setDaemon(true);
+			return t;
+		});
+
+		compactionExecutor.scheduleWithFixedDelay(() -> {
+			try {
+				if (needsCompaction()) compact();
+			} catch (Throwable t) {
+				LOGGER.error("Pack file compaction failed for [" + baseDir + "].", t);
+			}
+		}, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public <T> Optional<T> peek(String key, TypeReference<T> typeRef) {
+		return peekEntry(key).map(e -> e.getValue(typeRef));
+	}
+
+	@Override
+	public Optional<CachedEntry> peekEntry(String key) {
+		segmentsLock.readLock().lock();
+		try {
+			Location loc = index.get(key);
+			if (loc == null) return Optional.empty();
+
+			byte[] payload = readPayload(loc);
+			CachedEntry entry = CachedEntry.read(objectMapper, compressor.decompress(payload));
+			return Optional.of(entry);
+		} catch (Exception e) {
+			LOGGER.warn("Failed to read cache entry for key: " + key, e);
+			return Optional.empty();
+		} finally {
+			segmentsLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public <T> Optional<CachedValue<T>> peekValue(String key, TypeReference<T> typeRef) {
+		return peekEntry(key).map(e -> new CachedValue<T>(e.getValue(typeRef), e.getTimestamp(), e.getTtlSecs(), e.getObjectHash()));
+	}
+
+	@Override
+	public Optional<LegiscanResponse> getOrExpire(String key) {
+		return getOrExpire(key, new TypeReference<LegiscanResponse>() {});
+	}
+
+	@Override
+	public <T> Optional<T> getOrExpire(String key, TypeReference<T> typeRef) {
+		Location loc = index.get(key);
+		if (loc == null) return Optional.empty();
+
+		if (CachedEntry.isExpired(loc.timestamp, loc.ttlSecs, null)) {
+			LOGGER.trace("Cache expired for key: " + key);
+			remove(key);
+			return Optional.empty();
+		}
+
+		return peek(key, typeRef);
+	}
+
+	@Override
+	public void put(String key, Object value, long ttlSecs) {
+		put(key, value, null, ttlSecs);
+	}
+
+	@Override
+	public void put(String key, Object value, String objectHash, long ttlSecs) {
+		try {
+			long now = Instant.now().getEpochSecond();
+			byte[] payload = compressor.compress(objectMapper.writeValueAsBytes(new CachedEntry(value, now, ttlSecs, objectHash)));
+
+			append(TYPE_PUT, key, now, ttlSecs, payload, sequence.incrementAndGet(), null);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to write cache for key: " + key, e);
+		}
+	}
+
+	@Override
+	public boolean presentAndValid(String key) {
+		Location loc = index.get(key);
+		return loc != null && !CachedEntry.isExpired(loc.timestamp, loc.ttlSecs, null);
+	}
+
+	@Override
+	public void remove(String cacheKey) {
+		if (!index.containsKey(cacheKey)) return;
+
+		try {
+			append(TYPE_DELETE, cacheKey, Instant.now().getEpochSecond(), 0, new byte[0], sequence.incrementAndGet(), null);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to remove cache entry for key: " + cacheKey, e);
+		}
+	}
+
+	@Override
+	@SneakyThrows
+	public void putBlob(String key, InputStream data, String objectHash, long ttlSecs) {
+		blobs.put(key, data, objectHash, ttlSecs);
+	}
+
+	@Override
+	@SneakyThrows
+	public void putBlob(String key, Path source, String objectHash, long ttlSecs) {
+		blobs.put(key, source, objectHash, ttlSecs);
+	}
+
+	@Override
+	public Optional<CachedBlob> openBlob(String key) {
+		return blobs.open(key);
+	}
+
+	@Override
+	public boolean storesBlobs() {
+		return true;
+	}
+
+	@Override
+	public void removeBlob(String key) {
+		blobs.remove(key);
+	}
+
+	public int size() {
+		return index.size();
+	}
+
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * @return The number of bytes on disk taken up by overwritten or removed records
+	 */
+	public long getDeadBytes() {
+		return segments.values().stream().mapToLong(s -> s.deadBytes.get()).sum();
+	}
+
+	public long getTotalBytes() {
+		return segments.values().stream().mapToLong(s -> s.size).sum();
+	}
+
+	/**
+	 * @return True if the dead records in the sealed segments exceed the compaction ratio
+	 */
+	public boolean needsCompaction() {
+		long total = 0, dead = 0;
+
+		for (Segment s : segments.values()) {
+			if (s == active) continue;
+			total += s.size;
+			dead += s.deadBytes.get();
+		}
+
+		return total > 0 && (double) dead / total >= compactionDeadRatio;
+	}
+
+	/**
+	 * Rewrites the live records of every sealed segment into new segments, and deletes the sealed segments. Records which have been
+	 * expired for longer than the expired retention are dropped. The active segment is left as is, so writes may continue while compacting.
+	 */
+	public void compact() throws IOException {
+		List<Segment> sealed;
+
+		synchronized (appendLock) {
+			// Seal the active segment so that it doesn't fill up with our own output
+			roll();
+			sealed = new ArrayList<Segment>(segments.headMap(active.id).values());
+		}
+
+		if (sealed.isEmpty()) return;
+
+		long before = sealed.stream().mapToLong(s -> s.size).sum();
+		long cutoff = Instant.now().getEpochSecond() - expiredRetention.getSeconds();
+		int copied = 0, dropped = 0;
+		long copiedBytes = 0;
+
+		for (var e : index.entrySet()) {
+			Location loc = e.getValue();
+			if (!sealed.contains(loc.segment)) continue;
+
+			if (loc.ttlSecs > 0 && loc.timestamp + loc.ttlSecs < cutoff) {
+				// Only drop it if it hasn't been written to in the meantime
+				synchronized (appendLock) {
+					if (index.remove(e.getKey(), loc)) dropped++;
+				}
+				continue;
+			}
+
+			byte[] payload;
+			segmentsLock.readLock().lock();
+			try {
+				payload = readPayload(loc);
+			} finally {
+				segmentsLock.readLock().unlock();
+			}
+
+			if (append(TYPE_PUT, e.getKey(), loc.timestamp, loc.ttlSecs, payload, loc.sequence, loc)) {
+				copied++;
+				copiedBytes += loc.length;
+			}
+		}
+
+		synchronized (appendLock) {
+			roll();
+		}
+
+		segmentsLock.writeLock().lock();
+		try {
+			for (Segment s : sealed) {
+				segments.remove(s.id);
+				s.channel.close();
+				Files.deleteIfExists(s.file.toPath());
+			}
+		} finally {
+			segmentsLock.writeLock().unlock();
+		}
+
+		LOGGER.info("Compacted [" + baseDir + "]: copied " + copied + " records, dropped " + dropped + " expired records, reclaimed " + (before - copiedBytes) + " bytes.");
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (compactionExecutor != null) {
+			compactionExecutor.shutdownNow();
+			compactionExecutor = null;
+		}
+
+		synchronized (appendLock) {
+			for (Segment s : segments.values()) {
+				if (s.channel.isOpen()) {
+					s.channel.force(true);
+					s.channel.close();
+				}
+			}
+		}
+
+		if (lockChannel.isOpen()) {
+			lock.release();
+			lockChannel.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Pack File Cache (" + baseDir.getAbsolutePath() + ")";
+	}
+
+	/**
+	 * Appends a record to the active segment and points the index at it.
+	 *
+	 * @param expected If not null, the record is a compaction copy and the index is only updated if it still points at this location
+	 * @return True if the index was updated
+	 */
+	private boolean append(byte type, String key, long timestamp, long ttlSecs, byte[] payload, long seq, Location expected) throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > Short.MAX_VALUE) throw new IOException("Cache key is too long: " + key);
+
+		ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + keyBytes.length + payload.length);
+		record.putInt(MAGIC);
+		record.putInt(0); // crc placeholder
+		record.put(type);
+		record.putLong(seq);
+		record.putLong(timestamp);
+		record.putLong(ttlSecs);
+		record.putShort((short) keyBytes.length);
+		record.putInt(payload.length);
+		record.put(keyBytes);
+		record.put(payload);
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 8, record.capacity() - 8);
+		record.putInt(4, (int) crc.getValue());
+		record.flip();
+
+		synchronized (appendLock) {
+			if (active.size > 0 && active.size + record.remaining() > maxSegmentBytes) roll();
+
+			long offset = active.size;
+			while (record.hasRemaining()) {
+				active.channel.write(record, offset + record.position());
+			}
+			active.size += record.capacity();
+			if (syncWrites) active.channel.force(false);
+
+			if (type == TYPE_DELETE) {
+				// Tombstones are only needed until the next compaction, so they're always dead weight
+				active.deadBytes.addAndGet(record.capacity());
+				Location old = index.remove(key);
+				if (old != null) old.segment.deadBytes.addAndGet(old.length);
+				return true;
+			}
+
+			Location loc = new Location(active, offset, record.capacity(), seq, timestamp, ttlSecs);
+
+			if (expected != null) {
+				if (index.replace(key, expected, loc)) {
+					expected.segment.deadBytes.addAndGet(expected.length);
+					return true;
+				}
+
+				// Overwritten while we were copying it
+				active.deadBytes.addAndGet(record.capacity());
+				return false;
+			}
+
+			Location old = index.put(key, loc);
+			if (old != null) old.segment.deadBytes.addAndGet(old.length);
+			return true;
+		}
+	}
+
+	private byte[] readPayload(Location loc) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(loc.length);
+		readFully(loc.segment.channel, record, loc.offset);
+		record.flip();
+
+		if (record.getInt() != MAGIC) throw new IOException("Bad record magic at " + loc.segment.file + ":" + loc.offset);
+		int crc = record.getInt();
+
+		CRC32 actual = new CRC32();
+		actual.update(record.array(), 8, loc.length - 8);
+		if ((int) actual.getValue() != crc) throw new IOException("Bad record checksum at " + loc.segment.file + ":" + loc.offset);
+
+		record.position(HEADER_LENGTH - 6);
+		int keyLength = record.getShort();
+		int payloadLength = record.getInt();
+
+		byte[] payload = new byte[payloadLength];
+		record.position(HEADER_LENGTH + keyLength);
+		record.get(payload);
+		return payload;
+	}
+
+	/**
+	 * Must be called while holding the append lock.
+	 */
+	private void roll() throws IOException {
+		if (active != null) {
+			if (active.size == 0) return;
+			active.channel.force(true);
+		}
+
+		int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+		active = openSegment(id);
+		segments.put(id, active);
+	}
+
+	private Segment openSegment(int id) throws IOException {
+		File file = new File(baseDir, SEGMENT_PREFIX + String.format("%06d", id) + SEGMENT_EXTENSION);
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		return new Segment(id, file, channel, channel.size());
+	}
+
+	/**
+	 * Rebuilds the index by replaying every segment. Sealed segments were fsynced when they were sealed, so only their headers are read.
+	 * The last segment may have been mid-append during a crash, so every one of its records is verified and it is truncated at the first
+	 * bad record.
+	 */
+	private void recover() throws IOException {
+		File[] files = baseDir.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXTENSION));
+
+		if (files != null) {
+			for (File f : files) {
+				String id = f.getName().substring(SEGMENT_PREFIX.length(), f.getName().length() - SEGMENT_EXTENSION.length());
+				try {
+					Segment s = openSegment(Integer.parseInt(id));
+					segments.put(s.id, s);
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Ignoring unrecognized file in pack file cache: " + f);
+				}
+			}
+		}
+
+		Map<String, Long> tombstones = new HashMap<String, Long>();
+		long maxSeq = 0;
+
+		for (Segment s : segments.values()) {
+			boolean verify = s.id == segments.lastKey();
+			long offset = 0;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+
+			while (offset < s.size) {
+				Long next = null;
+
+				try {
+					next = replay(s, offset, header, verify, tombstones);
+				} catch (IOException e) {
+					LOGGER.warn("Invalid record in [" + s.file + "] at offset " + offset + " (" + e.getMessage() + "), truncating the segment.");
+				}
+
+				if (next == null) {
+					s.channel.truncate(offset);
+					s.size = offset;
+					break;
+				}
+
+				offset = next;
+			}
+		}
+
+		for (Location loc : index.values()) maxSeq = Math.max(maxSeq, loc.sequence);
+		for (Long seq : tombstones.values()) maxSeq = Math.max(maxSeq, seq);
+		sequence.set(maxSeq);
+
+		if (segments.isEmpty()) {
+			roll();
+		} else {
+			active = segments.lastEntry().getValue();
+		}
+
+		LOGGER.debug("Recovered " + index.size() + " entries from " + segments.size() + " segments in [" + baseDir + "].");
+	}
+
+	/**
+	 * @return The offset of the next record, or null if the record is invalid
+	 */
+	private Long replay(Segment s, long offset, ByteBuffer header, boolean verify, Map<String, Long> tombstones) throws IOException {
+		if (offset + HEADER_LENGTH > s.size) return null;
+
+		header.clear();
+		readFully(s.channel, header, offset);
+		header.flip();
+
+		if (header.getInt() != MAGIC) return null;
+		int crc = header.getInt();
+		byte type = header.get();
+		long seq = header.getLong();
+		long timestamp = header.getLong();
+		long ttlSecs = header.getLong();
+		int keyLength = header.getShort();
+		int payloadLength = header.getInt();
+
+		long length = (long) HEADER_LENGTH + keyLength + payloadLength;
+		if (keyLength < 0 || payloadLength < 0 || offset + length > s.size) return null;
+
+		ByteBuffer body = ByteBuffer.allocate(verify ? keyLength + payloadLength : keyLength);
+		readFully(s.channel, body, offset + HEADER_LENGTH);
+
+		if (verify) {
+			CRC32 actual = new CRC32();
+			actual.update(header.array(), 8, HEADER_LENGTH - 8);
+			actual.update(body.array(), 0, body.capacity());
+			if ((int) actual.getValue() != crc) return null;
+		}
+
+		String key = new String(body.array(), 0, keyLength, StandardCharsets.UTF_8);
+
+		Location existing = index.get(key);
+		Long deletedAt = tombstones.get(key);
+
+		if (type == TYPE_DELETE) {
+			s.deadBytes.addAndGet(length);
+
+			if (existing != null && existing.sequence < seq) {
+				index.remove(key);
+				existing.segment.deadBytes.addAndGet(existing.length);
+			}
+			if (deletedAt == null || deletedAt < seq) tombstones.put(key, seq);
+		} else if ((existing == null || existing.sequence < seq) && (deletedAt == null || deletedAt < seq)) {
+			index.put(key, new Location(s, offset, (int) length, seq, timestamp, ttlSecs));
+			if (existing != null) existing.segment.deadBytes.addAndGet(existing.length);
+		} else {
+			s.deadBytes.addAndGet(length);
+		}
+
+		return offset + length;
+	}
+
+	@SneakyThrows
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, position + buf.position());
+			if (n < 0) throw new EOFException("Unexpected end of segment");
+		}
+	}
+
+	protected static class Segment {
+		protected final int id;
+
+		protected final File file;
+
+		protected final FileChannel channel;
+
+		protected volatile long size;
+
+		protected final AtomicLong deadBytes = new AtomicLong();
+
+		protected Segment(int id, File file, FileChannel channel, long size) {
+			this.id = id;
+			this.file = file;
+			this.channel = channel;
+			this.size = size;
+		}
+	}
+
+	protected static class Location {
+		protected final Segment segment;
+
+		protected final long offset;
+
+		protected final int length;
+
+		protected final long sequence;
+
+		protected final long timestamp;
+
+		protected final long ttlSecs;
+
+		protected Location(Segment segment, long offset, int length, long sequence, long timestamp, long ttlSecs) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.sequence = sequence;
+			this.timestamp = timestamp;
+			this.ttlSecs = ttlSecs;
+		}
+	}
+}
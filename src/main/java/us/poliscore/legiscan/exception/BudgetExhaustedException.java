@@ -0,0 +1,12 @@
+package us.poliscore.legiscan.exception;
+
+/**
+ * Thrown instead of making a request to Legiscan, when the monthly query budget is too close to exhausted to spend on it.
+ */
+public class BudgetExhaustedException extends LegiscanException {
+    private static final long serialVersionUID = -3326180944387419530L;
+
+	public BudgetExhaustedException(String message) {
+        super(message);
+    }
+}
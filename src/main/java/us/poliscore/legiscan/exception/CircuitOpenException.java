@@ -0,0 +1,12 @@
+package us.poliscore.legiscan.exception;
+
+/**
+ * Thrown instead of making a request to Legiscan, while the circuit breaker considers Legiscan to be unhealthy.
+ */
+public class CircuitOpenException extends LegiscanException {
+    private static final long serialVersionUID = 5146830912645117237L;
+
+	public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -1,16 +1,28 @@
 package us.poliscore.legiscan.service;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,9 +37,16 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.val;
+import us.poliscore.legiscan.cache.CacheEncoding;
+import us.poliscore.legiscan.cache.CachedBlob;
 import us.poliscore.legiscan.cache.CachedLegiscanDatasetResult;
+import us.poliscore.legiscan.cache.ChangeHashIndex;
 import us.poliscore.legiscan.cache.FileSystemLegiscanCache;
 import us.poliscore.legiscan.cache.LegiscanCache;
+import us.poliscore.legiscan.cache.MemoryLegiscanCache;
+import us.poliscore.legiscan.cache.PackFileLegiscanCache;
+import us.poliscore.legiscan.exception.BudgetExhaustedException;
+import us.poliscore.legiscan.exception.CircuitOpenException;
 import us.poliscore.legiscan.view.LegiscanAmendmentView;
 import us.poliscore.legiscan.view.LegiscanBillTextView;
 import us.poliscore.legiscan.view.LegiscanBillView;
@@ -59,6 +78,53 @@ public class CachedLegiscanService extends LegiscanService {
     
     @Getter
     protected RefreshFrequency freshness = RefreshFrequency.WEEKLY;
+    
+    /**
+     * Concurrent fetches of the same cache key share a single request to Legiscan.
+     */
+    protected final SingleFlight inFlight = new SingleFlight();
+    
+    /**
+     * If set, expired entries which have been expired for no longer than this are returned immediately and refreshed in the background.
+     */
+    @Getter @Setter
+    protected Duration maxStaleness = null;
+    
+    protected final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    
+    protected final LongAdder staleServed = new LongAdder();
+    
+    @Getter
+    protected RefreshAheadScheduler refreshAhead = null;
+    
+    /**
+     * The window over which the expiry of bulk loaded entries is spread, so that a whole dataset doesn't expire in the same second.
+     */
+    @Getter @Setter
+    protected Duration bulkLoadSpread = DEFAULT_BULK_LOAD_SPREAD;
+    
+    public static final Duration DEFAULT_BULK_LOAD_SPREAD = Duration.ofHours(3);
+    
+    /**
+     * The number of changed bills which cacheDataset fetches at once. The rate limiter, if any, still applies on top of this.
+     */
+    @Getter @Setter
+    protected int billUpdateParallelism = DEFAULT_BILL_UPDATE_PARALLELISM;
+    
+    public static final int DEFAULT_BILL_UPDATE_PARALLELISM = 8;
+    
+    /**
+     * The change hash of every cached bill, so that a masterlist can be reconciled against the cache without reading the bills themselves.
+     * Kept in the cache directory, or in memory if the cache has no directory.
+     */
+    @Getter @Setter
+    protected ChangeHashIndex changeHashIndex = ChangeHashIndex.inMemory();
+    
+    /**
+     * Where getDatasetArchive keeps the downloaded dataset archives.
+     */
+    @Getter @Setter
+    protected File archiveDirectory = new File(System.getProperty("java.io.tmpdir"), "legiscan-archives");
 
     protected CachedLegiscanService(String apiKey, ObjectMapper objectMapper, LegiscanCache cache) {
         super(apiKey, objectMapper);
@@ -75,6 +141,22 @@ public class CachedLegiscanService extends LegiscanService {
     	protected LegiscanCache cache;
     	protected File cacheDirectory;
     	protected RefreshFrequency freshness = null;
+    	protected long memoryCacheBytes = 0;
+    	protected CacheEncoding cacheEncoding = null;
+    	protected int compressionThreshold = -1;
+    	protected boolean packFileCache = false;
+    	protected Duration maxStaleness = null;
+    	protected Duration refreshAheadLeadTime = null;
+    	protected int refreshAheadBudget = 0;
+    	protected Duration bulkLoadSpread = DEFAULT_BULK_LOAD_SPREAD;
+    	protected Executor executor = null;
+    	protected RateLimiter rateLimiter = null;
+    	protected long queryBudget = QueryLedger.DEFAULT_MONTHLY_LIMIT;
+    	protected RetryPolicy retryPolicy = null;
+    	protected CircuitBreaker circuitBreaker = null;
+    	protected String baseUrl = null;
+    	protected File archiveDirectory = null;
+    	protected int billUpdateParallelism = DEFAULT_BILL_UPDATE_PARALLELISM;
 
         public Builder(String apiKey) {
             this.apiKey = apiKey;
@@ -123,8 +205,202 @@ public class CachedLegiscanService extends LegiscanService {
             this.cacheDirectory = dir;
             return this;
         }
+        
+        /**
+         * Sets the encoding which the default file system cache writes its entries with. Entries which were previously written in a
+         * different encoding remain readable, and are rewritten in the new encoding as they are refreshed. Has no effect if a cache
+         * was provided via withCache.
+         * 
+         * @param encoding The on-disk encoding (default: JSON, or SMILE for the pack file cache)
+         * @return this builder
+         */
+        public Builder withCacheEncoding(CacheEncoding encoding) {
+            this.cacheEncoding = encoding;
+            return this;
+        }
+        
+        /**
+         * Enables transparent compression of entries written by the default file system cache. Entries which are smaller than the
+         * threshold are stored uncompressed. A compression dictionary can be trained from the cached bills with
+         * FileSystemLegiscanCache.trainDictionary, which noticeably improves the compression of small entries. Has no effect if a cache
+         * was provided via withCache.
+         * 
+         * @param thresholdBytes The minimum entry size to compress (see CacheCompressor.DEFAULT_THRESHOLD)
+         * @return this builder
+         */
+        public Builder withCompression(int thresholdBytes) {
+            this.compressionThreshold = thresholdBytes;
+            return this;
+        }
+        
+        /**
+         * Stores the cache in a handful of append-only pack files (see PackFileLegiscanCache), rather than one directory per key. This is
+         * recommended when caching many states, as the one directory per key layout creates millions of tiny files. The encoding and
+         * compression settings apply to the pack file cache as well, except that it defaults to SMILE rather than JSON. Has no effect if
+         * a cache was provided via withCache.
+         * 
+         * @param enabled Whether to use pack files
+         * @return this builder
+         */
+        public Builder withPackFileCache(boolean enabled) {
+            this.packFileCache = enabled;
+            return this;
+        }
+        
+        /**
+         * Enables stale-while-revalidate. Once a cached value expires, callers keep receiving it immediately while a single background
+         * request refreshes it, rather than waiting on Legiscan. Values which have been expired for longer than the max staleness are
+         * fetched synchronously, as usual. Datasets are not affected, since they are checked against their dataset hash instead.
+         * 
+         * @param maxStaleness How long past its expiry a value may still be served
+         * @return this builder
+         */
+        public Builder withStaleWhileRevalidate(Duration maxStaleness) {
+            this.maxStaleness = maxStaleness;
+            return this;
+        }
+        
+        /**
+         * Enables refresh-ahead. Frequently requested entries are refreshed in the background at a random point within the lead time
+         * before they expire, so that callers don't all miss at the same expiry boundary. The budget caps how many refreshes are started
+         * per minute; entries which don't make the budget simply expire as usual.
+         * 
+         * @param leadTime How long before expiry an entry may be refreshed
+         * @param maxRefreshesPerMinute The refresh budget
+         * @return this builder
+         */
+        public Builder withRefreshAhead(Duration leadTime, int maxRefreshesPerMinute) {
+            this.refreshAheadLeadTime = leadTime;
+            this.refreshAheadBudget = maxRefreshesPerMinute;
+            return this;
+        }
+        
+        /**
+         * Sets the window over which the expiry of entries populated from a bulk dataset is spread. Each entry is delayed by an offset
+         * derived from its cache key, so the entries of a dataset expire gradually rather than all at once. Entries may therefore be up to
+         * this much staler than their expiration policy alone would allow.
+         * 
+         * @param window The spread window (default: 3 hours). Zero or null disables spreading.
+         * @return this builder
+         */
+        public Builder withBulkLoadSpread(Duration window) {
+            this.bulkLoadSpread = window;
+            return this;
+        }
+        
+        /**
+         * Sets the executor which runs the async endpoint variants (getBillAsync etc.) and background refreshes. The cache is checked on
+         * this executor too, so the default of a virtual thread per task keeps cache reads from blocking platform threads.
+         * 
+         * @param executor The executor (default: a new virtual thread per task)
+         * @return this builder
+         */
+        public Builder withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+        
+        /**
+         * Throttles the requests made to Legiscan (cache hits are not affected). Requests are queued fairly, in arrival order.
+         * 
+         * @param requestsPerSecond The sustained request rate
+         * @param burst The number of requests which may go out back to back after a quiet period
+         * @param maxInFlight The maximum number of concurrent requests
+         * @return this builder
+         */
+        public Builder withRateLimit(double requestsPerSecond, int burst, int maxInFlight) {
+            this.rateLimiter = new RateLimiter(requestsPerSecond, burst, maxInFlight);
+            return this;
+        }
+        
+        /**
+         * Sets the monthly query quota of the API key. Every request to Legiscan is recorded in a ledger next to the cache (see
+         * QueryLedger), and as the month's usage nears the quota the service degrades gracefully: past 80% it serves expired data rather
+         * than refreshing it and defers background refreshes, past 95% it only makes the calls needed to keep datasets up to date, and
+         * at 100% it makes no calls at all. The ledger is only kept when the service manages its own cache directory, i.e. when no
+         * cache was provided via withCache or a cache directory was given.
+         * 
+         * @param monthlyLimit The monthly quota (default: 30,000, the quota of a free public key). Zero or less disables the ledger.
+         * @return this builder
+         */
+        public Builder withQueryBudget(long monthlyLimit) {
+            this.queryBudget = monthlyLimit;
+            return this;
+        }
+        
+        /**
+         * Sets how transient failures (connection failures, timeouts, HTTP 429 and 5xx) are retried.
+         * 
+         * @param retryPolicy The retry policy (default: RetryPolicy.defaults(), or RetryPolicy.none() to disable retries)
+         * @return this builder
+         */
+        public Builder withRetryPolicy(RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+        
+        /**
+         * Configures the circuit breaker. After the given number of consecutive failures, requests fail fast for the open duration
+         * rather than going out, and cached data is served instead (however stale) where there is any.
+         * 
+         * @param failureThreshold The number of consecutive failures which opens the breaker (default: 5). Zero or less disables it.
+         * @param openDuration How long the breaker stays open before trying Legiscan again (default: 30 seconds)
+         * @return this builder
+         */
+        public Builder withCircuitBreaker(int failureThreshold, Duration openDuration) {
+            this.circuitBreaker = new CircuitBreaker(failureThreshold, openDuration);
+            return this;
+        }
+        
+        /**
+         * @param baseUrl The root of the Legiscan API (default: https://api.legiscan.com/)
+         * @return this builder
+         */
+        public Builder withBaseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+            return this;
+        }
+        
+        /**
+         * Sets where getDatasetArchive keeps the downloaded dataset archives. Defaults to the .archives folder of the cache directory,
+         * or a folder in the temp directory if a cache was provided via withCache.
+         * 
+         * @param dir The archive directory
+         * @return this builder
+         */
+        public Builder withArchiveDirectory(File dir) {
+            this.archiveDirectory = dir;
+            return this;
+        }
+        
+        /**
+         * Sets the number of changed bills which cacheDataset fetches from Legiscan at once. Use withRateLimit to bound the request rate
+         * as well.
+         * 
+         * @param parallelism The number of concurrent bill fetches
+         * @return this builder
+         */
+        public Builder withBillUpdateParallelism(int parallelism) {
+            this.billUpdateParallelism = parallelism;
+            return this;
+        }
+        
+        /**
+         * Places a bounded in-memory cache tier in front of the configured cache, so that frequently requested objects do not need to be
+         * read and parsed from the backing cache on every hit.
+         * 
+         * @param maxBytes The approximate maximum number of bytes to hold in memory. Zero or less disables the memory tier.
+         * @return this builder
+         */
+        public Builder withMemoryCache(long maxBytes) {
+            this.memoryCacheBytes = maxBytes;
+            return this;
+        }
 
         public CachedLegiscanService build() {
+            File defaultDir = new File(System.getProperty("user.home") + "/appdata/poliscore/legiscan");
+            File ledgerDir = cacheDirectory != null ? cacheDirectory : (this.cache == null ? defaultDir : null);
+            
             if (this.objectMapper == null) {
             	this.objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
             	
@@ -133,11 +409,28 @@ public class CachedLegiscanService extends LegiscanService {
             }
 
             if (this.cache == null) {
-                File dir = cacheDirectory != null
-                        ? cacheDirectory
-                        : new File(System.getProperty("user.home") + "/appdata/poliscore/legiscan");
+                File dir = cacheDirectory != null ? cacheDirectory : defaultDir;
                 
-                this.cache = new FileSystemLegiscanCache(dir, this.objectMapper);
+                if (packFileCache) {
+                	var packCache = new PackFileLegiscanCache(dir, this.objectMapper, cacheEncoding == null ? CacheEncoding.SMILE : cacheEncoding);
+                	
+                	if (compressionThreshold >= 0)
+                		packCache.enableCompression(compressionThreshold);
+                	
+                	packCache.startCompaction(Duration.ofMinutes(10));
+                	this.cache = packCache;
+                } else {
+	                var fsCache = new FileSystemLegiscanCache(dir, this.objectMapper, cacheEncoding == null ? CacheEncoding.JSON : cacheEncoding);
+	                
+	                if (compressionThreshold >= 0)
+	                	fsCache.enableCompression(compressionThreshold);
+	                
+	                this.cache = fsCache;
+                }
+            }
+            
+            if (memoryCacheBytes > 0) {
+            	this.cache = new MemoryLegiscanCache(this.cache, this.objectMapper, memoryCacheBytes);
             }
 
             var client = new CachedLegiscanService(apiKey, objectMapper, cache);
@@ -145,6 +438,44 @@ public class CachedLegiscanService extends LegiscanService {
             if (freshness != null)
             	client.setFreshness(freshness);
             
+            client.setMaxStaleness(maxStaleness);
+            client.setBulkLoadSpread(bulkLoadSpread);
+            client.setBillUpdateParallelism(billUpdateParallelism);
+            
+            if (executor != null)
+            	client.setExecutor(executor);
+            
+            if (rateLimiter != null)
+            	client.setRateLimiter(rateLimiter);
+            
+            if (retryPolicy != null)
+            	client.setRetryPolicy(retryPolicy);
+            
+            if (circuitBreaker != null)
+            	client.setCircuitBreaker(circuitBreaker);
+            
+            if (baseUrl != null)
+            	client.setBaseUrl(baseUrl);
+            
+            if (archiveDirectory != null)
+            	client.setArchiveDirectory(archiveDirectory);
+            else if (ledgerDir != null)
+            	client.setArchiveDirectory(new File(ledgerDir, ".archives"));
+            
+            if (ledgerDir != null) {
+            	try {
+            		client.setChangeHashIndex(ChangeHashIndex.open(new File(ledgerDir, ".bill-hashes.idx")));
+            	} catch (IOException e) {
+            		LOGGER.warn("Could not open the change hash index in [" + ledgerDir + "]. Falling back to an in-memory index.", e);
+            	}
+            }
+            
+            if (queryBudget > 0 && ledgerDir != null)
+            	client.setLedger(new QueryLedger(ledgerDir, apiKey, queryBudget));
+            
+            if (refreshAheadLeadTime != null && refreshAheadBudget > 0)
+            	client.enableRefreshAhead(refreshAheadLeadTime, refreshAheadBudget);
+            
             return client;
         }
     }
@@ -180,15 +511,113 @@ public class CachedLegiscanService extends LegiscanService {
     }
 
     
+    /**
+     * @return The number of calls which did not make their own request to Legiscan, because an identical request was already in flight
+     */
+    public long getDeduplicatedRequestCount() {
+    	return inFlight.getDeduplicatedCount();
+    }
+    
+    /**
+     * @return The number of expired values which were served while being refreshed in the background
+     */
+    public long getStaleServedCount() {
+    	return staleServed.sum();
+    }
+    
+    /**
+     * @return The given policy, spread over the bulk load spread window (if any). Entries are only ever considered expired once the
+     *  freshness has also passed, so the spread is applied on top of the freshness, or the spread would be lost whenever the freshness
+     *  outlasts the policy.
+     */
+    public ExpirationPolicy bulkLoadPolicy(ExpirationPolicy policy) {
+    	if (bulkLoadSpread == null || bulkLoadSpread.isZero()) return policy;
+    	
+    	return (freshness == null ? policy : policy.atLeast(freshness.asDuration())).withSpread(bulkLoadSpread);
+    }
+    
+    /**
+     * Starts refreshing frequently requested entries ahead of their expiry. See Builder.withRefreshAhead.
+     */
+    public synchronized void enableRefreshAhead(Duration leadTime, int maxRefreshesPerMinute) {
+    	if (refreshAhead != null) refreshAhead.close();
+    	
+    	refreshAhead = new RefreshAheadScheduler(this::refreshAhead, leadTime, maxRefreshesPerMinute);
+    }
+    
+    /**
+     * Refreshes an entry which is due to expire at expiresAt. The refreshed entry is stored as though it had been fetched at expiresAt, so
+     * under a boundary based policy (such as daily or weekly) it lasts until the boundary after, instead of expiring along with every
+     * other entry at the upcoming one.
+     */
+    protected void refreshAhead(String cacheKey, String url, ExpirationPolicy ep, Instant expiresAt) {
+    	// Refreshing ahead is a nicety which the budget can't always afford. The entry will simply expire instead.
+    	if (isConservingBudget()) return;
+    	
+    	inFlight.execute(cacheKey, () -> {
+    		LOGGER.debug("Refreshing object [" + cacheKey + "] ahead of its expiry.");
+    		LegiscanResponse value = makeRequest(url);
+    		
+    		val next = ep.getTtl(expiresAt, cacheKey);
+    		long ttlSecs = next == null ? -1 : Math.max(0, Duration.between(Instant.now(), expiresAt).getSeconds()) + next.getSeconds();
+    		cache.put(cacheKey, value, ttlSecs);
+    		
+    		return value;
+    	});
+    }
+    
     protected LegiscanResponse getOrRequest(String cacheKey, String url, ExpirationPolicy ep) {
-    	val metadata = cache.peekEntry(cacheKey);
-        val cached = cache.peek(cacheKey, new TypeReference<LegiscanResponse>() {});
+    	val cached = cache.peekValue(cacheKey, new TypeReference<LegiscanResponse>() {});
     	
-    	if (cached.isPresent() && metadata.isPresent() && !metadata.get().isExpired(freshness)) {
+    	if (cached.isPresent() && !cached.get().isExpired(freshness)) {
     		LOGGER.trace("Pulling object [" + cacheKey + "] from cache.");
-    		return cached.get();
+    		
+    		if (refreshAhead != null)
+    			refreshAhead.recordHit(cacheKey, url, ep, cached.get().getExpiresAt(freshness));
+    		
+    		return cached.get().getValue();
+    	}
+    	
+    	if (cached.isPresent() && isConservingBudget()) {
+    		LOGGER.trace("Pulling stale object [" + cacheKey + "] from cache to conserve query budget.");
+    		staleServed.increment();
+    		return cached.get().getValue();
     	}
     	
+    	if (cached.isPresent() && maxStaleness != null && cached.get().getStaleness(freshness).compareTo(maxStaleness) <= 0) {
+    		LOGGER.trace("Pulling stale object [" + cacheKey + "] from cache and refreshing it in the background.");
+    		staleServed.increment();
+    		refreshInBackground(cacheKey, url, ep);
+    		return cached.get().getValue();
+    	}
+    	
+    	try {
+    		return inFlight.execute(cacheKey, () -> fetch(cacheKey, url, ep));
+    	} catch (BudgetExhaustedException | CircuitOpenException e) {
+    		if (cached.isEmpty()) throw e;
+    		
+    		LOGGER.warn("Serving stale object [" + cacheKey + "]. " + e.getMessage());
+    		staleServed.increment();
+    		return cached.get().getValue();
+    	}
+    }
+    
+    /**
+     * @return true once the query budget is low enough that stale data is preferred and background refreshes are skipped
+     */
+    protected boolean isConservingBudget() {
+    	return getBudgetLevel().compareTo(QueryLedger.Level.CONSERVE) >= 0;
+    }
+    
+    private LegiscanResponse fetch(String cacheKey, String url, ExpirationPolicy ep) {
+		// The previous flight may have landed between our cache check and joining this one
+    	val landed = cache.peekValue(cacheKey, new TypeReference<LegiscanResponse>() {});
+		if (landed.isPresent() && !landed.get().isExpired(freshness)) return landed.get().getValue();
+		
+		return request(cacheKey, url, ep);
+    }
+    
+    private LegiscanResponse request(String cacheKey, String url, ExpirationPolicy ep) {
     	LOGGER.debug("Fetching object [" + cacheKey + "] from Legiscan.");
         LegiscanResponse value = makeRequest(url);
         
@@ -197,6 +626,26 @@ public class CachedLegiscanService extends LegiscanService {
         
         return value;
     }
+    
+    private void refreshInBackground(String cacheKey, String url, ExpirationPolicy ep) {
+    	if (isConservingBudget() || !refreshing.add(cacheKey)) return;
+    	
+    	try {
+	    	executor.execute(() -> {
+	    		try {
+	    			inFlight.execute(cacheKey, () -> fetch(cacheKey, url, ep));
+	    		} catch (Exception e) {
+	    			// The stale value stays in the cache, so the next caller will simply try again
+	    			LOGGER.warn("Background refresh of [" + cacheKey + "] failed.", e);
+	    		} finally {
+	    			refreshing.remove(cacheKey);
+	    		}
+	    	});
+    	} catch (RuntimeException e) {
+    		refreshing.remove(cacheKey);
+    		throw e;
+    	}
+    }
 
     protected String cacheKeyFromUrl(String url) {
         try {
@@ -371,23 +820,131 @@ public class CachedLegiscanService extends LegiscanService {
                 ExpirationPolicy.fixedDuration(Duration.ofHours(3))
         );
         
+        indexChangeHash(response.getBill());
+        
         return response.getBill();
     }
     
+    /**
+     * Fetches the bill from Legiscan, whether or not the cached copy has expired, and caches it. Meant for when the cached copy is known
+     * to be out of date (such as when its change hash no longer matches the masterlist). If the fetch fails, the cached copy is left as is.
+     */
+    public LegiscanBillView refreshBill(int billId) {
+        String url = buildUrl("getBill", "id", String.valueOf(billId));
+        String cacheKey = cacheKeyFromUrl(url);
+        
+        val bill = inFlight.execute(cacheKey, () -> request(cacheKey, url, ExpirationPolicy.fixedDuration(Duration.ofHours(3)))).getBill();
+        indexChangeHash(bill);
+        
+        return bill;
+    }
+    
+    /**
+     * Records the change hash of the bill which is now in the cache (see changeHashIndex).
+     */
+    public void indexChangeHash(LegiscanBillView bill) {
+    	if (bill != null) changeHashIndex.put(bill.getBillId(), bill.getChangeHash());
+    }
+    
+    /**
+     * Bill text documents are kept in the cache as raw blobs, rather than base64 inside the cached response. The doc field is filled back
+     * in here, so prefer getBillTextMetadata and getBillTextDocument where the document itself isn't needed in memory.
+     */
     @Override
+    @SneakyThrows
     public LegiscanBillTextView getBillText(int docId) {
+        val text = getBillTextMetadata(docId);
+        if (text == null || text.getDoc() != null) return text;
+        
+        val blob = getBillTextDocument(docId);
+        
+        if (blob.isEmpty()) {
+        	// The document has gone missing from under its metadata, so fetch the pair again
+        	cache.remove(billTextCacheKey(docId));
+        	return getBillText(docId);
+        }
+        
+        // Cached values may be shared, so fill in a copy
+        val copy = objectMapper.convertValue(text, LegiscanBillTextView.class);
+        copy.setDoc(Base64.getEncoder().encodeToString(blob.get().readAllBytes()));
+        return copy;
+    }
+    
+    /**
+     * Returns the bill text's meta information, without the document itself (see getBillTextDocument).
+     */
+    public LegiscanBillTextView getBillTextMetadata(int docId) {
         String url = buildUrl("getBillText", "id", String.valueOf(docId));
         String cacheKey = cacheKeyFromUrl(url);
-
-        LegiscanResponse response = getOrRequest(
-                cacheKey,
-                url,
-                ExpirationPolicy.never()
-        );
+        
+        // Caches which don't store blobs keep the document inline, like any other response
+        if (!cache.storesBlobs()) return getOrRequest(cacheKey, url, ExpirationPolicy.never()).getText();
+        
+        // Bill texts never expire, so there's no need to check
+        val cached = cache.peekValue(cacheKey, new TypeReference<LegiscanResponse>() {});
+        
+        LegiscanResponse response;
+        if (cached.isEmpty()) {
+        	response = inFlight.execute(cacheKey, () -> {
+        		// The previous flight may have landed between our cache check and joining this one
+        		val landed = cache.peekValue(cacheKey, new TypeReference<LegiscanResponse>() {});
+        		if (landed.isPresent()) return landed.get().getValue();
+        		
+        		LOGGER.debug("Fetching object [" + cacheKey + "] from Legiscan.");
+        		return storeBillText(cacheKey, makeRequest(url));
+        	});
+        } else {
+        	// Cached before documents were kept as blobs
+        	response = cached.get().getValue().getText() != null && cached.get().getValue().getText().getDoc() != null
+        			? storeBillText(cacheKey, cached.get().getValue()) : cached.get().getValue();
+        }
         
         return response.getText();
     }
     
+    /**
+     * Caches the bill text response, with its document moved out into a blob of its own so that it is never base64 encoded on disk.
+     * 
+     * @return The response as it was cached
+     */
+    private LegiscanResponse storeBillText(String cacheKey, LegiscanResponse response) {
+    	val text = response.getText();
+    	
+    	if (text == null || text.getDoc() == null) {
+    		cache.put(cacheKey, response, -1);
+    		return response;
+    	}
+    	
+    	cache.putBlob(cacheKey, new ByteArrayInputStream(Base64.getDecoder().decode(text.getDoc())), text.getTextHash(), -1);
+    	
+    	val stripped = objectMapper.convertValue(response, LegiscanResponse.class);
+    	stripped.getText().setDoc(null);
+    	cache.put(cacheKey, stripped, text.getTextHash(), -1);
+    	
+    	return stripped;
+    }
+    
+    /**
+     * Returns the bill text document, as it is stored in the cache. The document is fetched from Legiscan if need be.
+     * 
+     * @return The document, or empty if the cache doesn't store blobs, or if the blob is missing from the cache even though the text's
+     *  metadata is cached (such as when it was removed on its own, or is being rewritten at that very moment). getBillText fetches the
+     *  pair again in that case.
+     */
+    public Optional<CachedBlob> getBillTextDocument(int docId) {
+    	String cacheKey = billTextCacheKey(docId);
+    	
+    	val blob = cache.openBlob(cacheKey);
+    	if (blob.isPresent()) return blob;
+    	
+    	getBillTextMetadata(docId);
+    	return cache.openBlob(cacheKey);
+    }
+    
+    private String billTextCacheKey(int docId) {
+    	return cacheKeyFromUrl(buildUrl("getBillText", "id", String.valueOf(docId)));
+    }
+    
     @Override
     public LegiscanAmendmentView getAmendment(int amendmentId) {
         String url = buildUrl("getAmendment", "id", String.valueOf(amendmentId));
@@ -468,17 +1025,31 @@ public class CachedLegiscanService extends LegiscanService {
         return response.getDatasetlist();
     }
     
-    @Override public LegiscanDatasetView getDataset(int sessionId, String accessKey, String format) { return getDataset(sessionId, accessKey, format, null); }
+    /**
+     * Fetches the list of every dataset from Legiscan, whether or not the cached copy has expired, and caches it. The list is otherwise
+     * cached for a week, during which changed dataset hashes would go unnoticed.
+     */
+    public List<LegiscanDatasetView> refreshDatasetList() {
+    	String url = buildUrl("getDatasetList");
+    	String cacheKey = cacheKeyFromUrl(url);
+    	
+    	return inFlight.execute(cacheKey, () -> request(cacheKey, url, ExpirationPolicy.weekly())).getDatasetlist();
+    }
+    
+    @Override public LegiscanDatasetView getDataset(int sessionId, String accessKey, String format) { return getDataset(sessionId, accessKey, format, (String) null); }
     public LegiscanDatasetView getDataset(int sessionId, String accessKey, String format, String datasetHash) {
         String url = buildUrl("getDataset", "id", String.valueOf(sessionId), "access_key", accessKey, "format", format);
         String cacheKey = cacheKeyFromUrl(url);
-
-        val metadata = cache.peekEntry(cacheKey);
-        val cached = cache.peek(cacheKey, new TypeReference<LegiscanResponse>() {});
+        
+        return inFlight.execute(cacheKey, () -> fetchDataset(sessionId, url, cacheKey, datasetHash));
+    }
+    
+    private LegiscanDatasetView fetchDataset(int sessionId, String url, String cacheKey, String datasetHash) {
+        val cached = cache.peekValue(cacheKey, new TypeReference<LegiscanResponse>() {});
     	
-    	if (cached.isPresent() && metadata.isPresent() && !metadata.get().isExpired(freshness)) {
+    	if (cached.isPresent() && !cached.get().isExpired(freshness)) {
     		LOGGER.trace("Pulling object [" + cacheKey + "] from cache.");
-    		return cached.get().getDataset();
+    		return cached.get().getValue().getDataset();
     	}
     	
     	// Legiscan requires that we check the change hash against the masterlist here
@@ -489,12 +1060,19 @@ public class CachedLegiscanService extends LegiscanService {
     		}
     		
     		// If the latest hash equals the hash of the object we already have, then we know the dataset has not changed and we don't need to download it again.
-    		if (cached.get().getDataset().getDatasetHash().equals(datasetHash))
-    			return cached.get().getDataset();
+    		if (cached.get().getValue().getDataset().getDatasetHash().equals(datasetHash))
+    			return cached.get().getValue().getDataset();
     	}
     	
     	LOGGER.debug("Fetching object [" + cacheKey + "] from Legiscan.");
-        LegiscanResponse value = makeRequest(url);
+        LegiscanResponse value;
+        try {
+        	value = makeRequest(url);
+        } catch (BudgetExhaustedException | CircuitOpenException e) {
+        	if (cached.isEmpty()) throw e;
+        	LOGGER.warn("Serving stale dataset [" + cacheKey + "]. " + e.getMessage());
+        	return cached.get().getValue().getDataset();
+        }
         
         val ep = ExpirationPolicy.weekly();
         val ttl = ep.getTtl(Instant.now(), cacheKey);
@@ -503,39 +1081,175 @@ public class CachedLegiscanService extends LegiscanService {
         return value.getDataset();
     }
     
-    @Override public byte[] getDatasetRaw(int sessionId, String accessKey, String format) { return getDatasetRaw(sessionId, accessKey, format, null); }
+    /**
+     * Fetches the dataset like getDataset, but decodes its archive straight to disk rather than holding it in memory. The archive is
+     * stored as a blob in the cache, and the cache entry holds only the dataset's meta information along with the path of the archive.
+     * Like getDataset, the archive is only downloaded again once the dataset hash changes.
+     * 
+     * @param datasetHash The latest dataset hash, if known. Otherwise it is looked up from the dataset list if need be.
+     * @return The dataset's meta information, with archivePath pointing at the archive (and no zip)
+     */
+    public LegiscanDatasetView getDatasetArchive(int sessionId, String accessKey, String format, String datasetHash) {
+        String url = buildUrl("getDataset", "id", String.valueOf(sessionId), "access_key", accessKey, "format", format);
+        String cacheKey = cacheKeyFromUrl(url) + "/archive";
+        
+        return inFlight.execute(cacheKey, () -> fetchDatasetArchive(sessionId, accessKey, format, cacheKey, datasetHash));
+    }
+    
+    private LegiscanDatasetView fetchDatasetArchive(int sessionId, String accessKey, String format, String cacheKey, String datasetHash) {
+        val cached = cache.peekValue(cacheKey, new TypeReference<LegiscanResponse>() {});
+        
+        // The metadata is no use without its archive
+        val archived = cached.map(c -> c.getValue().getDataset()).filter(ds -> ds.getArchivePath() != null && new File(ds.getArchivePath()).exists());
+        
+        if (archived.isPresent() && !cached.get().isExpired(freshness)) {
+        	LOGGER.trace("Pulling object [" + cacheKey + "] from cache.");
+        	return archived.get();
+        }
+        
+        // Legiscan requires that we check the change hash against the masterlist here
+        if (archived.isPresent()) {
+        	if (datasetHash == null)
+        		datasetHash = latestDatasetHash(sessionId);
+        	
+        	if (archived.get().getDatasetHash().equals(datasetHash))
+        		return archived.get();
+        }
+        
+        LOGGER.debug("Fetching object [" + cacheKey + "] from Legiscan.");
+        Path staged = stagingFile(cacheKey);
+        LegiscanDatasetView dataset;
+        try {
+        	dataset = super.getDataset(sessionId, accessKey, format, staged);
+        } catch (BudgetExhaustedException | CircuitOpenException e) {
+        	if (archived.isEmpty()) throw e;
+        	LOGGER.warn("Serving stale dataset [" + cacheKey + "]. " + e.getMessage());
+        	return archived.get();
+        }
+        
+        val ttl = ExpirationPolicy.weekly().getTtl(Instant.now(), cacheKey);
+        val blob = storeBlob(cacheKey, staged, dataset.getDatasetHash(), ttl == null ? -1 : ttl.getSeconds());
+        dataset.setArchivePath(blob.getPath().toAbsolutePath().toString());
+        
+        val value = new LegiscanResponse();
+        value.setStatus("OK");
+        value.setDataset(dataset);
+        cache.put(cacheKey, value, dataset.getDatasetHash(), ttl == null ? -1 : ttl.getSeconds());
+        
+        return dataset;
+    }
+    
+    /**
+     * Copies the cached archive (see getDatasetArchive) to the given file, downloading it first if need be.
+     */
+    @Override
+    @SneakyThrows
+    public LegiscanDatasetView getDataset(int sessionId, String accessKey, String format, Path archive) {
+    	val dataset = getDatasetArchive(sessionId, accessKey, format, null);
+    	if (archive.getParent() != null) Files.createDirectories(archive.getParent());
+    	Files.copy(Path.of(dataset.getArchivePath()), archive, StandardCopyOption.REPLACE_EXISTING);
+    	return dataset;
+    }
+    
+    @Override public byte[] getDatasetRaw(int sessionId, String accessKey, String format) { return getDatasetRaw(sessionId, accessKey, format, (String) null); }
+    
+    /**
+     * Reads the whole archive into memory. Prefer getDatasetRawBlob, which leaves the archive on disk.
+     */
+    @SneakyThrows
     public byte[] getDatasetRaw(int sessionId, String accessKey, String format, String datasetHash) {
+        return getDatasetRawBlob(sessionId, accessKey, format, datasetHash).readAllBytes();
+    }
+    
+    /**
+     * Returns the dataset's ZIP archive, as stored in the cache. The archive is downloaded straight to disk, and is only downloaded again
+     * once the dataset hash changes.
+     * 
+     * @param datasetHash The latest dataset hash, if known. Otherwise it is looked up from the dataset list if need be.
+     * @return A handle on the archive
+     */
+    public CachedBlob getDatasetRawBlob(int sessionId, String accessKey, String format, String datasetHash) {
         String url = buildUrl("getDatasetRaw", "id", String.valueOf(sessionId), "access_key", accessKey, "format", format);
         String cacheKey = cacheKeyFromUrl(url);
         
-        val metadata = cache.peekEntry(cacheKey);
-        val cached = cache.peek(cacheKey, new TypeReference<byte[]>() {});
+        // Datasets are large, so even the cache read is worth sharing
+        return inFlight.execute(cacheKey, () -> fetchDatasetRaw(sessionId, url, cacheKey, datasetHash));
+    }
+    
+    private CachedBlob fetchDatasetRaw(int sessionId, String url, String cacheKey, String datasetHash) {
+        val cached = cache.openBlob(cacheKey);
     	
-    	if (cached.isPresent() && metadata.isPresent() && !metadata.get().isExpired(freshness)) {
+    	if (cached.isPresent() && !cached.get().isExpired(freshness)) {
     		LOGGER.trace("Pulling object [" + cacheKey + "] from cache.");
     		return cached.get();
     	}
     	
     	// Legiscan requires that we check the change hash against the masterlist here
+    	// The archive is stored under this hash, so that later expiries can tell whether it has changed
+    	if (datasetHash == null)
+    		datasetHash = latestDatasetHash(sessionId);
+    	
     	if (cached.isPresent()) {
-    		if (datasetHash == null) {
-	    		val masterlist = this.getDatasetList(null, null);
-	    		datasetHash = masterlist.stream().filter(ds -> Objects.equals(ds.getSessionId(), sessionId)).findFirst().get().getDatasetHash();
-    		}
-    		
     		// If the latest hash equals the hash of the object we already have, then we know the dataset has not changed and we don't need to download it again.
-    		if (Objects.equals(metadata.get().getObjectHash(), datasetHash))
+    		if (Objects.equals(cached.get().getObjectHash(), datasetHash))
     			return cached.get();
     	}
     	
     	LOGGER.debug("Fetching object [" + cacheKey + "] from Legiscan.");
-        byte[] value = makeRequestRaw(url);
+    	Path staged = stagingFile(cacheKey);
+        try {
+        	makeRequestRaw(url, staged);
+        } catch (BudgetExhaustedException | CircuitOpenException e) {
+        	if (cached.isEmpty()) throw e;
+        	LOGGER.warn("Serving stale dataset [" + cacheKey + "]. " + e.getMessage());
+        	return cached.get();
+        }
         
         val ep = ExpirationPolicy.weekly();
         val expiration = ep.getTtl(Instant.now(), cacheKey);
-        cache.put(cacheKey, value, datasetHash, expiration == null ? -1 : expiration.getSeconds());
+        val blob = storeBlob(cacheKey, staged, datasetHash, expiration == null ? -1 : expiration.getSeconds());
         
-        return value;
+        // Archives used to be cached as base64 inside a regular entry
+        cache.remove(cacheKey);
+        
+        return blob;
+    }
+    
+    @Override
+    @SneakyThrows
+    public void getDatasetRaw(int sessionId, String accessKey, String format, OutputStream sink) {
+    	getDatasetRawBlob(sessionId, accessKey, format, null).transferTo(sink);
+    }
+    
+    @Override
+    @SneakyThrows
+    public void getDatasetRaw(int sessionId, String accessKey, String format, Path target) {
+    	val blob = getDatasetRawBlob(sessionId, accessKey, format, null);
+    	if (target.getParent() != null) Files.createDirectories(target.getParent());
+    	Files.copy(blob.getPath(), target, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    private String latestDatasetHash(int sessionId) {
+    	val masterlist = this.getDatasetList(null, null);
+    	return masterlist.stream().filter(ds -> Objects.equals(ds.getSessionId(), sessionId)).findFirst().map(ds -> ds.getDatasetHash()).orElse(null);
+    }
+    
+    /**
+     * Downloads are staged in the archive directory, and then moved into the cache.
+     */
+    private Path stagingFile(String cacheKey) {
+    	return archiveDirectory.toPath().resolve(cacheKey.replaceAll("[^a-zA-Z0-9\\-_]", "_") + ".zip");
+    }
+    
+    /**
+     * Moves the file into the cache as a blob. If the cache doesn't store blobs, the file is left where it is and served from there.
+     */
+    @SneakyThrows
+    private CachedBlob storeBlob(String cacheKey, Path file, String objectHash, long ttlSecs) {
+    	long size = Files.size(file);
+    	cache.putBlob(cacheKey, file, objectHash, ttlSecs);
+    	
+    	return cache.openBlob(cacheKey).orElseGet(() -> new CachedBlob(file, size, Instant.now().getEpochSecond(), ttlSecs, objectHash));
     }
 
     @Override
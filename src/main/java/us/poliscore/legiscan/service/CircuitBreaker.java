@@ -0,0 +1,112 @@
+package us.poliscore.legiscan.service;
+
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+import us.poliscore.legiscan.exception.CircuitOpenException;
+
+/**
+ * Stops calling Legiscan while it is unhealthy, so that callers fail fast (and CachedLegiscanService can fall back to its cache) instead
+ * of each waiting out a full round of retries.
+ *
+ * The breaker opens after a number of consecutive failures. While open, every request is refused. Once the open duration has passed a
+ * single trial request is let through (half open): if it succeeds the breaker closes, and if it fails the breaker opens again.
+ */
+public class CircuitBreaker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	public static enum State { CLOSED, OPEN, HALF_OPEN }
+
+	@Getter
+	private final int failureThreshold;
+
+	@Getter
+	private final Duration openDuration;
+
+	// Guarded by this
+	private State state = State.CLOSED;
+
+	private int consecutiveFailures = 0;
+
+	private long openedAt = 0;
+
+	private boolean trialInFlight = false;
+
+	@Getter
+	private volatile long openCount = 0;
+
+	/**
+	 * @param failureThreshold The number of consecutive failures which opens the breaker. Zero or less disables the breaker.
+	 * @param openDuration How long the breaker stays open before letting a trial request through
+	 */
+	public CircuitBreaker(int failureThreshold, Duration openDuration) {
+		this.failureThreshold = failureThreshold;
+		this.openDuration = openDuration;
+	}
+
+	/**
+	 * Opens after 5 consecutive failures, for 30 seconds at a time.
+	 */
+	public static CircuitBreaker defaults() {
+		return new CircuitBreaker(5, Duration.ofSeconds(30));
+	}
+
+	public static CircuitBreaker disabled() {
+		return new CircuitBreaker(0, Duration.ZERO);
+	}
+
+	/**
+	 * Throws if the request may not go out.
+	 */
+	public synchronized void checkAllowed(String op) {
+		if (failureThreshold <= 0 || state == State.CLOSED) return;
+
+		if (state == State.OPEN && System.nanoTime() - openedAt >= openDuration.toNanos()) {
+			state = State.HALF_OPEN;
+			trialInFlight = false;
+		}
+
+		if (state == State.HALF_OPEN && !trialInFlight) {
+			trialInFlight = true;
+			return;
+		}
+
+		throw new CircuitOpenException("Refusing to call [" + op + "]. Legiscan circuit breaker is open after " + consecutiveFailures + " consecutive failures.");
+	}
+
+	public synchronized void recordSuccess() {
+		if (state != State.CLOSED) LOGGER.info("Legiscan circuit breaker closed.");
+
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		trialInFlight = false;
+	}
+
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+
+		if (failureThreshold > 0 && (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold))) {
+			LOGGER.warn("Legiscan circuit breaker opened after " + consecutiveFailures + " consecutive failures. Failing fast for " + openDuration + ".");
+			state = State.OPEN;
+			openedAt = System.nanoTime();
+			trialInFlight = false;
+			openCount++;
+		}
+	}
+
+	/**
+	 * Ends a request which neither succeeded nor failed in a way that says anything about Legiscan's health (it was interrupted, or its
+	 * body couldn't be consumed). If it was the half open trial, the next request becomes the trial instead.
+	 */
+	public synchronized void releaseTrial() {
+		if (state == State.HALF_OPEN) trialInFlight = false;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+}
@@ -0,0 +1,392 @@
+package us.poliscore.legiscan.service;
+
+import java.time.Duration;
+import java.time.Year;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.val;
+import us.poliscore.legiscan.cache.CachedLegiscanDatasetResult;
+import us.poliscore.legiscan.cache.DatasetManifest;
+import us.poliscore.legiscan.exception.LegiscanException;
+import us.poliscore.legiscan.view.LegiscanDatasetView;
+import us.poliscore.legiscan.view.LegiscanState;
+
+/**
+ * Keeps the datasets of many states and sessions warm in the cache in a single run, rather than one cacheDataset call at a time.
+ *
+ * The datasets to sync are picked from a freshly fetched dataset list. Datasets which have never been loaded go first, then those whose
+ * dataset hash has changed since they were last loaded, then the rest, the least recently loaded first. Within each of those, bigger
+ * datasets go first, so that the long jobs don't end up running alone at the end.
+ *
+ * Up to concurrency datasets are synced at once. Every request still goes through the service's rate limiter and query ledger. Before each
+ * dataset is started, the run's own query limit and the service's query budget are checked, and once either runs out the remaining datasets
+ * are skipped rather than left to fail one bill at a time.
+ */
+public class DatasetSyncEngine {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DatasetSyncEngine.class);
+
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	public static enum Status {
+		/** Loaded into the cache */
+		SYNCED,
+		/** Not attempted, see the reason */
+		SKIPPED,
+		/** Attempted, but failed (see the reason) */
+		FAILED
+	}
+
+	/**
+	 * Where a dataset stood before the run, from most to least in need of a sync.
+	 */
+	public static enum Staleness {
+		/** Never loaded */
+		NEW,
+		/** Loaded, but the dataset hash has since changed */
+		CHANGED,
+		/** Loaded, and the dataset hash is unchanged */
+		CURRENT
+	}
+
+	@Getter
+	private final CachedLegiscanService service;
+
+	@Getter
+	private final int concurrency;
+
+	/**
+	 * The maximum number of queries the run may make. Zero or less for no limit beyond the service's query budget.
+	 */
+	@Getter
+	private final long queryLimit;
+
+	@Getter
+	private final boolean skipCurrent;
+
+	@Getter
+	private final boolean includeSpecial;
+
+	protected DatasetSyncEngine(CachedLegiscanService service, int concurrency, long queryLimit, boolean skipCurrent, boolean includeSpecial) {
+		this.service = service;
+		this.concurrency = Math.max(1, concurrency);
+		this.queryLimit = queryLimit;
+		this.skipCurrent = skipCurrent;
+		this.includeSpecial = includeSpecial;
+	}
+
+	public static Builder builder(CachedLegiscanService service) {
+		return new Builder(service);
+	}
+
+	/**
+	 * Syncs the datasets of every session which is still running (which ends this year or later).
+	 */
+	public SyncReport syncCurrent() {
+		return sync(Set.of(), Set.of());
+	}
+
+	/**
+	 * Syncs the datasets of the given states and years.
+	 *
+	 * @param states The states to sync. Empty for every state.
+	 * @param years The years to sync. A session is included if it spans any of them. Empty for every session which is still running.
+	 */
+	public SyncReport sync(Collection<LegiscanState> states, Collection<Integer> years) {
+		return run(plan(states, years));
+	}
+
+	/**
+	 * Picks the datasets to sync, in the order they'll be started.
+	 */
+	public List<PlannedDataset> plan(Collection<LegiscanState> states, Collection<Integer> years) {
+		int thisYear = Year.now().getValue();
+		List<PlannedDataset> plan = new ArrayList<PlannedDataset>();
+
+		for (var dataset : datasetList()) {
+			if (!states.isEmpty() && !states.contains(dataset.getState())) continue;
+			if (dataset.isSpecial() && !includeSpecial) continue;
+
+			boolean inYears = years.isEmpty()
+					? dataset.getYearEnd() >= thisYear
+					: years.stream().anyMatch(y -> dataset.getYearStart() <= y && y <= dataset.getYearEnd());
+			if (!inYears) continue;
+
+			val manifest = service.getCache().peekValue(DatasetManifest.getCacheKey(dataset.getSessionId()), new TypeReference<DatasetManifest>() {});
+
+			Staleness staleness;
+			long lastSynced = 0;
+
+			if (manifest.isEmpty()) {
+				staleness = Staleness.NEW;
+			} else {
+				lastSynced = manifest.get().getTimestamp();
+				staleness = dataset.getDatasetHash().equals(manifest.get().getValue().getDatasetHash()) ? Staleness.CURRENT : Staleness.CHANGED;
+			}
+
+			plan.add(new PlannedDataset(dataset, staleness, lastSynced));
+		}
+
+		plan.sort(Comparator.comparing(PlannedDataset::getStaleness)
+				.thenComparingLong(PlannedDataset::getLastSynced)
+				.thenComparing(Comparator.comparingInt((PlannedDataset p) -> p.getDataset().getDatasetSize()).reversed())
+				.thenComparingInt(p -> p.getDataset().getSessionId()));
+
+		return plan;
+	}
+
+	/**
+	 * The cached dataset list may be up to a week old, in which case changed datasets would look current. Falls back to it only if
+	 * Legiscan can't be reached (or the budget won't allow the call).
+	 */
+	private List<LegiscanDatasetView> datasetList() {
+		try {
+			return service.refreshDatasetList();
+		} catch (LegiscanException e) {
+			LOGGER.warn("Unable to refresh the dataset list [" + e.getMessage() + "]. Planning from the cached list instead.");
+			return service.getDatasetList(null, null);
+		}
+	}
+
+	/**
+	 * Syncs the planned datasets, in order.
+	 */
+	public SyncReport run(List<PlannedDataset> plan) {
+		long start = System.nanoTime();
+		long startQueries = service.getQueryCount();
+		AtomicReference<String> halted = new AtomicReference<String>();
+		AtomicInteger done = new AtomicInteger();
+
+		LOGGER.info("Syncing " + plan.size() + " datasets, " + concurrency + " at a time.");
+
+		List<Future<DatasetSyncResult>> futures = new ArrayList<Future<DatasetSyncResult>>();
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(concurrency, r -> {
+			Thread t = new Thread(r, "legiscan-sync-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		try {
+			// The pool takes the tasks in order, so the plan's order is the order the datasets are started in
+			for (var planned : plan) {
+				futures.add(pool.submit(() -> {
+					var result = syncOne(planned, startQueries, halted);
+					LOGGER.info("[" + done.incrementAndGet() + "/" + plan.size() + "] " + result);
+					return result;
+				}));
+			}
+
+			List<DatasetSyncResult> results = new ArrayList<DatasetSyncResult>();
+			for (var f : futures) {
+				results.add(f.get());
+			}
+
+			var report = new SyncReport(results, Duration.ofNanos(System.nanoTime() - start), service.getQueryCount() - startQueries);
+			LOGGER.info("Dataset sync complete: " + report);
+			return report;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while syncing datasets", e);
+		} catch (Exception e) {
+			throw new IllegalStateException("Dataset sync failed", e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private DatasetSyncResult syncOne(PlannedDataset planned, long startQueries, AtomicReference<String> halted) {
+		var dataset = planned.getDataset();
+
+		if (skipCurrent && planned.getStaleness() == Staleness.CURRENT)
+			return DatasetSyncResult.skipped(planned, "Dataset hash is unchanged");
+
+		String reason = budgetExhausted(startQueries);
+		if (reason != null) halted.compareAndSet(null, reason);
+		if (halted.get() != null)
+			return DatasetSyncResult.skipped(planned, halted.get());
+
+		long start = System.nanoTime();
+
+		try {
+			CachedLegiscanDatasetResult result = service.cacheDataset(dataset);
+
+			return new DatasetSyncResult(planned, Status.SYNCED, null, Duration.ofNanos(System.nanoTime() - start),
+					result.getPeople().size(), result.getBills().size(), result.getVotes().size(), result.getFailedBills().size(),
+					result.getDelta() == null ? null : result.getDelta().toString());
+		} catch (Exception e) {
+			LOGGER.warn("Failed to sync dataset [" + dataset.getSessionName() + "].", e);
+			return new DatasetSyncResult(planned, Status.FAILED, e.getMessage(), Duration.ofNanos(System.nanoTime() - start), 0, 0, 0, 0, null);
+		}
+	}
+
+	/**
+	 * @return Why no further datasets should be started, or null if they can be
+	 */
+	private String budgetExhausted(long startQueries) {
+		if (queryLimit > 0 && service.getQueryCount() - startQueries >= queryLimit)
+			return "The run's query limit of " + queryLimit + " was reached";
+
+		// Past CRITICAL only essential calls are made, which leaves updateBills unable to do its job
+		var level = service.getBudgetLevel();
+		if (level.compareTo(QueryLedger.Level.CRITICAL) >= 0)
+			return "Legiscan query budget is " + level;
+
+		return null;
+	}
+
+	@Getter
+	@AllArgsConstructor
+	public static class PlannedDataset {
+		private final LegiscanDatasetView dataset;
+
+		private final Staleness staleness;
+
+		/**
+		 * When the dataset was last loaded, in epoch seconds. Zero if never.
+		 */
+		private final long lastSynced;
+	}
+
+	@Getter
+	@AllArgsConstructor
+	public static class DatasetSyncResult {
+		private final PlannedDataset planned;
+
+		private final Status status;
+
+		/**
+		 * Why the dataset was skipped or failed.
+		 */
+		private final String reason;
+
+		private final Duration elapsed;
+
+		private final int people;
+
+		private final int bills;
+
+		private final int votes;
+
+		private final int failedBills;
+
+		/**
+		 * How the dataset's archive differed from the last time it was loaded (see CachedLegiscanDatasetResult.Delta)
+		 */
+		private final String delta;
+
+		static DatasetSyncResult skipped(PlannedDataset planned, String reason) {
+			return new DatasetSyncResult(planned, Status.SKIPPED, reason, Duration.ZERO, 0, 0, 0, 0, null);
+		}
+
+		@Override
+		public String toString() {
+			var dataset = planned.getDataset();
+			String name = dataset.getState() + " " + dataset.getSessionName() + " (" + dataset.getSessionId() + ", " + planned.getStaleness() + ")";
+
+			return switch (status) {
+				case SYNCED -> name + " synced in " + elapsed.toMillis() + "ms: " + people + " people, " + bills + " bills, " + votes + " votes, "
+						+ failedBills + " failed bills" + (delta == null ? "" : " (" + delta + ")");
+				default -> name + " " + status.name().toLowerCase() + ": " + reason;
+			};
+		}
+	}
+
+	@Getter
+	@AllArgsConstructor
+	public static class SyncReport {
+		/**
+		 * One result per planned dataset, in plan order.
+		 */
+		private final List<DatasetSyncResult> results;
+
+		private final Duration elapsed;
+
+		/**
+		 * The number of queries made to Legiscan during the run (including any made by other users of the service at the same time).
+		 */
+		private final long queries;
+
+		public long count(Status status) {
+			return results.stream().filter(r -> r.getStatus() == status).count();
+		}
+
+		@Override
+		public String toString() {
+			return count(Status.SYNCED) + " synced, " + count(Status.SKIPPED) + " skipped, " + count(Status.FAILED) + " failed in "
+					+ elapsed.toSeconds() + "s using " + queries + " queries";
+		}
+	}
+
+	public static class Builder {
+		protected final CachedLegiscanService service;
+		protected int concurrency = DEFAULT_CONCURRENCY;
+		protected long queryLimit = 0;
+		protected boolean skipCurrent = false;
+		protected boolean includeSpecial = false;
+
+		public Builder(CachedLegiscanService service) {
+			this.service = service;
+		}
+
+		/**
+		 * @param concurrency The number of datasets synced at once
+		 * @return this builder
+		 */
+		public Builder withConcurrency(int concurrency) {
+			this.concurrency = concurrency;
+			return this;
+		}
+
+		/**
+		 * Caps the number of queries a run may make. Once reached, no further datasets are started (those already running finish).
+		 *
+		 * @param queryLimit The maximum number of queries per run
+		 * @return this builder
+		 */
+		public Builder withQueryLimit(long queryLimit) {
+			this.queryLimit = queryLimit;
+			return this;
+		}
+
+		/**
+		 * Skips datasets whose hash hasn't changed since they were last loaded, rather than reconciling their bills with the masterlist.
+		 *
+		 * @return this builder
+		 */
+		public Builder withSkipCurrent(boolean skipCurrent) {
+			this.skipCurrent = skipCurrent;
+			return this;
+		}
+
+		/**
+		 * Includes special sessions, which are left out by default.
+		 *
+		 * @return this builder
+		 */
+		public Builder withSpecialSessions(boolean includeSpecial) {
+			this.includeSpecial = includeSpecial;
+			return this;
+		}
+
+		public DatasetSyncEngine build() {
+			return new DatasetSyncEngine(service, concurrency, queryLimit, skipCurrent, includeSpecial);
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.BiFunction;
 
 import us.poliscore.legiscan.view.LegiscanMasterListView;
@@ -35,6 +36,66 @@ public abstract class ExpirationPolicy {
         return ttl > 0 ? ttl : 0;
     }
 
+    /**
+     * Decorates this policy with a random delay of up to maxJitter, so that entries cached at the same time under a boundary based
+     * policy (such as weekly or daily) don't all expire at the same instant. Entries which never expire are left alone.
+     */
+    public ExpirationPolicy withJitter(Duration maxJitter) {
+        Objects.requireNonNull(maxJitter, "Jitter cannot be null");
+        ExpirationPolicy delegate = this;
+        return new ExpirationPolicy() {
+            @Override
+            public Duration getTtl(Instant createdAt, String cacheKey) {
+                Duration ttl = delegate.getTtl(createdAt, cacheKey);
+                if (ttl == null || maxJitter.getSeconds() <= 0) return ttl;
+                return ttl.plusSeconds(ThreadLocalRandom.current().nextLong(maxJitter.getSeconds()));
+            }
+        };
+    }
+
+    /**
+     * Decorates this policy with a delay which is derived from the cache key, spreading entries evenly across the window. Unlike
+     * withJitter, a given key always gets the same delay, so its expiry is stable across refreshes. Entries which never expire are left
+     * alone.
+     */
+    public ExpirationPolicy withSpread(Duration window) {
+        Objects.requireNonNull(window, "Window cannot be null");
+        ExpirationPolicy delegate = this;
+        return new ExpirationPolicy() {
+            @Override
+            public Duration getTtl(Instant createdAt, String cacheKey) {
+                Duration ttl = delegate.getTtl(createdAt, cacheKey);
+                if (ttl == null || cacheKey == null || window.getSeconds() <= 0) return ttl;
+                return ttl.plusSeconds(spreadOffset(cacheKey, window.getSeconds()));
+            }
+        };
+    }
+
+    /**
+     * Decorates this policy so that it never expires an entry sooner than the given minimum. Entries which never expire are left alone.
+     */
+    public ExpirationPolicy atLeast(Duration minimum) {
+        Objects.requireNonNull(minimum, "Minimum cannot be null");
+        ExpirationPolicy delegate = this;
+        return new ExpirationPolicy() {
+            @Override
+            public Duration getTtl(Instant createdAt, String cacheKey) {
+                Duration ttl = delegate.getTtl(createdAt, cacheKey);
+                if (ttl == null) return null;
+                return ttl.compareTo(minimum) < 0 ? minimum : ttl;
+            }
+        };
+    }
+
+    /**
+     * Maps the key onto [0, windowSecs). The hash is mixed, since the keys of a dataset tend to differ only in their trailing digits.
+     */
+    static long spreadOffset(String cacheKey, long windowSecs) {
+        long h = cacheKey.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= (h >>> 32);
+        return Math.floorMod(h, windowSecs);
+    }
+
     /** Static policy: never expires (static files). */
     public static ExpirationPolicy never() {
         return new ExpirationPolicy() {
@@ -1,25 +1,46 @@
 package us.poliscore.legiscan.service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.event.Level;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import lombok.Getter;
+import lombok.Setter;
 import lombok.SneakyThrows;
+import us.poliscore.legiscan.exception.BudgetExhaustedException;
 import us.poliscore.legiscan.exception.LegiscanException;
 import us.poliscore.legiscan.view.LegiscanAmendmentView;
 import us.poliscore.legiscan.view.LegiscanBillTextView;
@@ -53,6 +74,51 @@ public class LegiscanService {
     protected final String apiKey;
     protected final ObjectMapper objectMapper;
     protected final HttpClient httpClient;
+    
+    /**
+     * Runs the async variants of the endpoints. Defaults to a new virtual thread per call, so blocking calls (including cache reads in
+     * subclasses) never tie up a platform thread.
+     */
+    @Getter @Setter
+    protected Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+    
+    /**
+     * Every request to Legiscan passes through this limiter. Unlimited by default.
+     */
+    @Getter @Setter
+    protected RateLimiter rateLimiter = RateLimiter.unlimited();
+    
+    /**
+     * If set, every request to Legiscan is recorded here, and requests are refused as the monthly query budget runs out.
+     */
+    @Getter @Setter
+    protected QueryLedger ledger = null;
+    
+    protected final LongAdder queries = new LongAdder();
+    
+    /**
+     * Transient failures (connection failures, timeouts, HTTP 429 and 5xx) are retried as per this policy.
+     */
+    @Getter @Setter
+    protected RetryPolicy retryPolicy = RetryPolicy.defaults();
+    
+    /**
+     * Fails requests fast while Legiscan is unhealthy.
+     */
+    @Getter @Setter
+    protected CircuitBreaker circuitBreaker = CircuitBreaker.defaults();
+    
+    /**
+     * The root of the Legiscan API. Can be pointed elsewhere, for instance at a proxy or a test server.
+     */
+    @Getter @Setter
+    protected String baseUrl = BASE_URL;
+    
+    /**
+     * The operations which are still called once the query budget is critical. These are the ones needed to keep bulk loaded datasets
+     * up to date (see the update workflow above). Everything else can be served from a dataset or is a convenience.
+     */
+    protected static final Set<String> ESSENTIAL_OPS = Set.of("getSessionList", "getMasterList", "getMasterListRaw", "getBill", "getDatasetList", "getDataset", "getDatasetRaw");
 
     public LegiscanService(String apiKey, ObjectMapper objectMapper) {
         this.apiKey = apiKey;
@@ -69,7 +135,7 @@ public class LegiscanService {
     }
 
     protected String buildUrl(String endpoint, String... params) {
-        StringBuilder url = new StringBuilder(BASE_URL)
+        StringBuilder url = new StringBuilder(baseUrl)
                 .append("?key=").append(apiKey)
                 .append("&op=").append(endpoint);
 
@@ -95,10 +161,14 @@ public class LegiscanService {
         return resp;
     }
 
+    /**
+     * Parses the response straight off the wire, so that it is never held in memory as a whole besides the parsed result.
+     */
     public <T> T makeRequest(TypeReference<T> typeRef, String url) {
         try {
-            byte[] responseBytes = makeRequestRaw(url);
-            return objectMapper.readValue(responseBytes, typeRef);
+            return execute(url, in -> objectMapper.readValue(in, typeRef), true);
+        } catch (LegiscanException e) {
+        	throw e;
         } catch (Exception e) {
             LOGGER.error("Error during Legiscan API call to: " + url, e);
             throw new LegiscanException("Failed to call Legiscan API: " + url, e);
@@ -106,27 +176,232 @@ public class LegiscanService {
     }
 
     public byte[] makeRequestRaw(String url) {
-        try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .timeout(REQUEST_TIMEOUT)
-                    .GET()
-                    .build();
-
-            LOGGER.info("Making Legiscan API request to: " + url);
-            HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
-
-            if (response.statusCode() == 200) {
-                return response.body();
-            } else {
-                throw new LegiscanException("HTTP " + response.statusCode() + ": " + new String(response.body()));
-            }
-
-        } catch (Exception e) {
-            LOGGER.error("Error during raw Legiscan API call to: " + url, e);
-            throw new LegiscanException("Failed to call Legiscan API (raw): " + url, e);
-        }
+    	return execute(url, InputStream::readAllBytes, true);
+    }
+    
+    /**
+     * Streams the response body into the sink. Since the sink can't be rewound, a failure while the body is being transferred is not
+     * retried.
+     */
+    public void makeRequestRaw(String url, OutputStream sink) {
+    	execute(url, in -> in.transferTo(sink), false);
+    }
+    
+    /**
+     * Streams the response body into the target file. The body is written to a temporary file next to the target, which replaces the
+     * target once complete, so the target is never left half written and every retry starts over from scratch.
+     */
+    public void makeRequestRaw(String url, Path target) {
+    	Path dir = target.toAbsolutePath().getParent();
+    	
+    	execute(url, in -> {
+    		Files.createDirectories(dir);
+    		Path tmp = Files.createTempFile(dir, target.getFileName().toString() + ".", ".tmp");
+    		
+    		try {
+    			Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+    			replace(tmp, target);
+    			return target;
+    		} finally {
+    			Files.deleteIfExists(tmp);
+    		}
+    	}, true);
+    }
+    
+    protected static void replace(Path source, Path target) throws IOException {
+    	try {
+    		Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    	} catch (AtomicMoveNotSupportedException e) {
+    		Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+    	}
+    }
+    
+    /**
+     * Consumes a successful response body as it arrives.
+     */
+    @FunctionalInterface
+    protected static interface BodyReader<T> {
+    	public T read(InputStream in) throws IOException;
+    }
+    
+    /**
+     * Makes the request, retrying transient failures as per the retry policy, and hands the body to the reader as a stream. Every attempt
+     * passes through the budget check, the circuit breaker and the rate limiter.
+     * 
+     * @param reader Reads the body of a successful response
+     * @param retryBody Whether a failure while reading the body may be retried. Only true if the reader has no side effects which would
+     *  be repeated.
+     */
+    protected <T> T execute(String url, BodyReader<T> reader, boolean retryBody) {
+    	String op = opFromUrl(url);
+    	
+    	for (int attempt = 1; ; attempt++) {
+    		checkBudget(url);
+    		circuitBreaker.checkAllowed(op);
+    		
+    		Exception failure = null;
+    		boolean settled = false;
+	        try {
+	            // The permit is held until the body has been consumed, so that maxInFlight caps the transfers themselves and not just the
+	            // requests (send returns as soon as the headers arrive)
+	            try (var permit = rateLimiter.acquire()) {
+	            	LOGGER.info("Making Legiscan API request to: " + url);
+	            	HttpResponse<InputStream> response = httpClient.send(buildRequest(url), HttpResponse.BodyHandlers.ofInputStream());
+	            	
+	            	recordQuery(url);
+	            	
+	            	try (InputStream in = response.body()) {
+	            		if (response.statusCode() == 200) {
+	            			T result;
+	            			try {
+	            				result = reader.read(in);
+	            			} catch (JsonProcessingException e) {
+	            				// A malformed body would only be malformed again
+	            				throw new LegiscanException("Failed to parse Legiscan response", e);
+	            			} catch (IOException e) {
+	            				if (!retryBody) throw new LegiscanException("Failed while streaming Legiscan response", e);
+	            				throw e;
+	            			}
+	            			
+	            			settled = true;
+	            			circuitBreaker.recordSuccess();
+	            			return result;
+	            		}
+	            		
+	            		failure = new LegiscanException("HTTP " + response.statusCode() + ": " + new String(in.readAllBytes()));
+	            	}
+	            	
+	            	if (!retryPolicy.isRetryable(response.statusCode())) {
+	            		// Legiscan answered, so it's healthy. The request itself is the problem.
+	            		settled = true;
+	            		circuitBreaker.recordSuccess();
+	            		throw failure;
+	            	}
+	            }
+	        } catch (InterruptedException e) {
+	        	Thread.currentThread().interrupt();
+	        	throw new LegiscanException("Interrupted while calling Legiscan API: " + url, e);
+	        } catch (IOException e) {
+	        	failure = e;
+	        } catch (LegiscanException e) {
+	        	throw e;
+	        } catch (Exception e) {
+	            LOGGER.error("Error during Legiscan API call to: " + url, e);
+	            throw new LegiscanException("Failed to call Legiscan API: " + url, e);
+	        } finally {
+	        	// Every way out of the attempt must end the half open trial, or the breaker would refuse every request from then on
+	        	if (!settled) circuitBreaker.releaseTrial();
+	        }
+	        
+	        circuitBreaker.recordFailure();
+	        
+	        if (!retryPolicy.canRetry(attempt)) {
+	        	LOGGER.error("Error during Legiscan API call to: " + url, failure);
+	        	throw new LegiscanException("Failed to call Legiscan API: " + url, failure);
+	        }
+	        
+	        Duration delay = retryPolicy.getDelay(attempt);
+	        LOGGER.warn("Legiscan API call to " + url + " failed on attempt " + attempt + " of " + retryPolicy.getMaxAttempts() + " [" + failure.getMessage() + "]. Retrying in " + delay.toMillis() + "ms.");
+	        
+	        try {
+	        	Thread.sleep(delay);
+	        } catch (InterruptedException e) {
+	        	Thread.currentThread().interrupt();
+	        	throw new LegiscanException("Interrupted while retrying Legiscan API call: " + url, e);
+	        }
+    	}
+    }
+    
+    /**
+     * Refuses the request if the query budget can't afford it: nothing goes out once the budget is exhausted, and only essential
+     * operations go out once it is critical.
+     */
+    protected void checkBudget(String url) {
+    	if (ledger == null) return;
+    	
+    	var level = ledger.getLevel();
+    	String op = opFromUrl(url);
+    	
+    	if (level == QueryLedger.Level.EXHAUSTED || (level == QueryLedger.Level.CRITICAL && !ESSENTIAL_OPS.contains(op)))
+    		throw new BudgetExhaustedException("Refusing to call [" + op + "]. Legiscan query budget is " + level + " (" + ledger.getUsed() + " of " + ledger.getMonthlyLimit() + " queries used this month).");
+    }
+    
+    /**
+     * @return The current level of the query budget. Always NORMAL when no ledger is configured.
+     */
+    public QueryLedger.Level getBudgetLevel() {
+    	return ledger == null ? QueryLedger.Level.NORMAL : ledger.getLevel();
     }
+    
+    /**
+     * @return The number of requests this service has made to Legiscan since it was created
+     */
+    public long getQueryCount() {
+    	return queries.sum();
+    }
+    
+    private void recordQuery(String url) {
+    	queries.increment();
+    	
+    	if (ledger == null) return;
+    	
+    	try {
+    		ledger.record(opFromUrl(url));
+    	} catch (Exception e) {
+    		LOGGER.error("Failed to record Legiscan query in the ledger.", e);
+    	}
+    }
+    
+    protected static String opFromUrl(String url) {
+    	int start = url.indexOf("&op=");
+    	if (start < 0) return null;
+    	
+    	int end = url.indexOf('&', start + 1);
+    	return url.substring(start + 4, end < 0 ? url.length() : end);
+    }
+    
+    protected HttpRequest buildRequest(String url) {
+    	return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+    }
+    
+    /**
+     * Runs the given (blocking) call on the executor.
+     */
+    protected <T> CompletableFuture<T> async(Supplier<T> call) {
+    	return CompletableFuture.supplyAsync(call, executor);
+    }
+    
+    public CompletableFuture<List<LegiscanSessionView>> getSessionListAsync(LegiscanState state) { return async(() -> getSessionList(state)); }
+    
+    public CompletableFuture<LegiscanMasterListView> getMasterListAsync(int sessionId) { return async(() -> getMasterList(sessionId)); }
+    
+    public CompletableFuture<LegiscanMasterListView> getMasterListRawAsync(int sessionId) { return async(() -> getMasterListRaw(sessionId)); }
+    
+    public CompletableFuture<LegiscanBillView> getBillAsync(int billId) { return async(() -> getBill(billId)); }
+    
+    public CompletableFuture<LegiscanBillTextView> getBillTextAsync(int docId) { return async(() -> getBillText(docId)); }
+    
+    public CompletableFuture<LegiscanAmendmentView> getAmendmentAsync(int amendmentId) { return async(() -> getAmendment(amendmentId)); }
+    
+    public CompletableFuture<LegiscanSupplementView> getSupplementAsync(int supplementId) { return async(() -> getSupplement(supplementId)); }
+    
+    public CompletableFuture<LegiscanRollCallView> getRollCallAsync(int rollCallId) { return async(() -> getRollCall(rollCallId)); }
+    
+    public CompletableFuture<LegiscanPeopleView> getPersonAsync(int peopleId) { return async(() -> getPerson(peopleId)); }
+    
+    public CompletableFuture<LegiscanSearchView> getSearchAsync(LegiscanState state, String query, Integer year, Integer page) { return async(() -> getSearch(state, query, year, page)); }
+    
+    public CompletableFuture<List<LegiscanDatasetView>> getDatasetListAsync(LegiscanState state, Integer year) { return async(() -> getDatasetList(state, year)); }
+    
+    public CompletableFuture<byte[]> getDatasetRawAsync(int sessionId, String accessKey, String format) { return async(() -> getDatasetRaw(sessionId, accessKey, format)); }
+    
+    public CompletableFuture<List<LegiscanPeopleView>> getSessionPeopleAsync(int sessionId) { return async(() -> getSessionPeople(sessionId)); }
+    
+    public CompletableFuture<List<LegiscanSponsoredBillView>> getSponsoredListAsync(int peopleId) { return async(() -> getSponsoredList(peopleId)); }
 
 
     /**
@@ -454,6 +729,81 @@ public class LegiscanService {
         return response.getDataset();
     }
     
+    /**
+     * Fetches the dataset like getDataset, but decodes the base64 encoded ZIP archive straight from the response stream into a file, so
+     * that the archive is never held in memory (neither as base64 nor decoded).
+     * 
+     * @param sessionId Retrieve dataset archive information for session_id as given by id
+     * @param accessKey Access key from getDatasetList for the session_id being requested
+     * @param format (Optional) Data file format for ZIP file contents where json=JSON, csv=CSV [Default: json]
+     * @param archive The file to write the ZIP archive to. Replaced atomically once the download completes.
+     * @return The dataset's meta information. The zip field is not populated.
+     */
+    public LegiscanDatasetView getDataset(int sessionId, String accessKey, String format, Path archive) {
+        String url = buildUrl("getDataset", "id", String.valueOf(sessionId), "access_key", accessKey, "format", format);
+        Path dir = archive.toAbsolutePath().getParent();
+        
+        return execute(url, in -> {
+        	Files.createDirectories(dir);
+        	Path tmp = Files.createTempFile(dir, archive.getFileName().toString() + ".", ".tmp");
+        	
+        	try {
+        		var dataset = readDataset(in, tmp);
+        		replace(tmp, archive);
+        		return dataset;
+        	} finally {
+        		Files.deleteIfExists(tmp);
+        	}
+        }, true);
+    }
+    
+    /**
+     * Walks a getDataset response token by token. The zip field is base64 decoded into the archive file as it is read, and the rest of
+     * the dataset's fields are bound as usual.
+     */
+    protected LegiscanDatasetView readDataset(InputStream in, Path archive) throws IOException {
+    	try (JsonParser parser = objectMapper.createParser(in)) {
+    		if (parser.nextToken() != JsonToken.START_OBJECT)
+    			throw new LegiscanException("Unexpected getDataset response from Legiscan");
+    		
+    		ObjectNode dataset = null;
+    		boolean hasZip = false;
+    		
+    		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+    			String field = parser.currentName();
+    			parser.nextToken();
+    			
+    			if ("dataset".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+    				dataset = objectMapper.createObjectNode();
+    				
+    				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+    					String name = parser.currentName();
+    					parser.nextToken();
+    					
+    					if ("zip".equals(name) && parser.currentToken() == JsonToken.VALUE_STRING) {
+    						try (OutputStream out = Files.newOutputStream(archive)) {
+    							parser.readBinaryValue(out);
+    						}
+    						hasZip = true;
+    					} else {
+    						dataset.set(name, parser.readValueAsTree());
+    					}
+    				}
+    			} else if ("alert".equals(field)) {
+    				JsonNode alert = parser.readValueAsTree();
+    				throw new LegiscanException("Alert response returned from legiscan [" + alert.path("message").asText() + "]");
+    			} else {
+    				parser.skipChildren();
+    			}
+    		}
+    		
+    		if (dataset == null || !hasZip)
+    			throw new LegiscanException("getDataset response from Legiscan did not contain a dataset archive");
+    		
+    		return objectMapper.treeToValue(dataset, LegiscanDatasetView.class);
+    	}
+    }
+    
     /**
      * This operation returns a ZIP archive as raw binary data for the requested dataset,
      * containing all bills, votes, and people data for the specified session.
@@ -473,6 +823,28 @@ public class LegiscanService {
         
         return makeRequestRaw(url);
     }
+    
+    /**
+     * Streams the dataset's ZIP archive into the sink as it is downloaded, rather than buffering it in memory. See getDatasetRaw.
+     * 
+     * @param sink Receives the raw ZIP file. Not closed.
+     */
+    public void getDatasetRaw(int sessionId, String accessKey, String format, OutputStream sink) {
+        String url = buildUrl("getDatasetRaw", "id", String.valueOf(sessionId), "access_key", accessKey, "format", format);
+        
+        makeRequestRaw(url, sink);
+    }
+    
+    /**
+     * Downloads the dataset's ZIP archive straight to a file, rather than buffering it in memory. See getDatasetRaw.
+     * 
+     * @param target The file to write the raw ZIP file to. Replaced atomically once the download completes.
+     */
+    public void getDatasetRaw(int sessionId, String accessKey, String format, Path target) {
+        String url = buildUrl("getDatasetRaw", "id", String.valueOf(sessionId), "access_key", accessKey, "format", format);
+        
+        makeRequestRaw(url, target);
+    }
 
     /**
      * This operation returns a list of legislator records active in a given session,
@@ -0,0 +1,245 @@
+package us.poliscore.legiscan.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.SneakyThrows;
+import us.poliscore.legiscan.exception.LegiscanException;
+
+/**
+ * A durable count of the queries made against a Legiscan API key, per calendar month and per operation. Legiscan API keys come with a
+ * monthly query quota, and every request counts against it, whether or not it returns anything new.
+ *
+ * The ledger lives in a small JSON file next to the cache, named after a hash of the API key (the key itself is never written). Every
+ * recorded query re-reads and rewrites the file under an exclusive file lock, so several processes sharing an API key and cache directory
+ * keep a single, accurate count. The file is replaced atomically, so a crash never leaves a half written ledger behind.
+ *
+ * As the month's usage approaches the limit, the ledger's level moves from NORMAL through CONSERVE and CRITICAL to EXHAUSTED. It's up to
+ * the service to decide what to give up at each level (see LegiscanService.checkBudget and CachedLegiscanService.getOrRequest).
+ */
+public class QueryLedger {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(QueryLedger.class);
+
+	/**
+	 * The monthly quota of a free Legiscan public API key.
+	 */
+	public static final long DEFAULT_MONTHLY_LIMIT = 30_000;
+
+	public static final double CONSERVE_THRESHOLD = 0.80;
+
+	public static final double CRITICAL_THRESHOLD = 0.95;
+
+	/**
+	 * The number of months of history to keep in the ledger file.
+	 */
+	public static final int HISTORY_MONTHS = 12;
+
+	private static final ZoneId ZONE = ZoneId.of("America/New_York");
+
+	public static enum Level {
+		/** Plenty of budget left */
+		NORMAL,
+		/** Stale data is preferred over spending queries, and background refreshes are deferred */
+		CONSERVE,
+		/** Only essential calls are made */
+		CRITICAL,
+		/** No calls are made */
+		EXHAUSTED
+	}
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	@Getter
+	private final File file;
+
+	private final File lockFile;
+
+	@Getter
+	private final long monthlyLimit;
+
+	private final Clock clock;
+
+	/**
+	 * month (yyyy-MM) -> operation -> count. Guarded by this.
+	 */
+	private TreeMap<String, TreeMap<String, Long>> months = new TreeMap<String, TreeMap<String, Long>>();
+
+	/**
+	 * @param directory The directory to keep the ledger in (typically the cache directory)
+	 * @param apiKey The API key whose queries are counted
+	 * @param monthlyLimit The monthly query quota of the key
+	 */
+	public QueryLedger(File directory, String apiKey, long monthlyLimit) {
+		this(new File(new File(directory, ".budget"), hashKey(apiKey) + ".json"), monthlyLimit, Clock.systemUTC());
+	}
+
+	QueryLedger(File file, long monthlyLimit, Clock clock) {
+		this.file = file;
+		this.lockFile = new File(file.getParentFile(), file.getName() + ".lock");
+		this.monthlyLimit = monthlyLimit;
+		this.clock = clock;
+
+		file.getParentFile().mkdirs();
+		update(m -> {});
+	}
+
+	/**
+	 * Records a single query of the given operation against this month.
+	 */
+	public void record(String op) {
+		String month = currentMonth();
+		update(m -> m.computeIfAbsent(month, k -> new TreeMap<String, Long>()).merge(op == null ? "unknown" : op, 1L, Long::sum));
+	}
+
+	/**
+	 * Re-reads the ledger, to pick up queries recorded by other processes.
+	 */
+	public void reload() {
+		update(m -> {});
+	}
+
+	/**
+	 * @return The number of queries made this month, as of the last time this ledger read or wrote its file
+	 */
+	public synchronized long getUsed() {
+		return total(months.get(currentMonth()));
+	}
+
+	public long getRemaining() {
+		return Math.max(0, monthlyLimit - getUsed());
+	}
+
+	public Level getLevel() {
+		if (monthlyLimit <= 0) return Level.NORMAL;
+
+		double used = (double) getUsed() / monthlyLimit;
+
+		if (used >= 1) return Level.EXHAUSTED;
+		if (used >= CRITICAL_THRESHOLD) return Level.CRITICAL;
+		if (used >= CONSERVE_THRESHOLD) return Level.CONSERVE;
+		return Level.NORMAL;
+	}
+
+	/**
+	 * @return This month's usage, broken down by operation
+	 */
+	public synchronized Map<String, Long> getUsageByOperation() {
+		return new TreeMap<String, Long>(months.getOrDefault(currentMonth(), new TreeMap<String, Long>()));
+	}
+
+	public synchronized Report report() {
+		reload();
+
+		Map<String, Long> history = new TreeMap<String, Long>();
+		months.forEach((month, ops) -> history.put(month, total(ops)));
+
+		return new Report(currentMonth(), monthlyLimit, getUsed(), getRemaining(), getLevel(), getUsageByOperation(), history);
+	}
+
+	private String currentMonth() {
+		return YearMonth.now(clock.withZone(ZONE)).toString();
+	}
+
+	private static long total(Map<String, Long> ops) {
+		return ops == null ? 0 : ops.values().stream().mapToLong(Long::longValue).sum();
+	}
+
+	/**
+	 * Reads the ledger file, applies the change and writes it back, all while holding the file lock.
+	 */
+	private synchronized void update(Consumer<TreeMap<String, TreeMap<String, Long>>> change) {
+		try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock lock = channel.lock()) {
+			TreeMap<String, TreeMap<String, Long>> read = read();
+			change.accept(read);
+
+			while (read.size() > HISTORY_MONTHS) read.pollFirstEntry();
+
+			months = read;
+			write(read);
+		} catch (IOException e) {
+			throw new LegiscanException("Failed to update the query ledger at [" + file + "]", e);
+		}
+	}
+
+	private TreeMap<String, TreeMap<String, Long>> read() {
+		if (!file.exists()) return new TreeMap<String, TreeMap<String, Long>>();
+
+		try {
+			return mapper.readValue(file, new TypeReference<TreeMap<String, TreeMap<String, Long>>>() {});
+		} catch (IOException e) {
+			// Start over rather than refuse to make any more calls, but keep what we couldn't read around
+			LOGGER.error("Query ledger [" + file + "] is unreadable. Starting a new one.", e);
+			file.renameTo(new File(file.getParentFile(), file.getName() + ".corrupt"));
+			return new TreeMap<String, TreeMap<String, Long>>();
+		}
+	}
+
+	private void write(TreeMap<String, TreeMap<String, Long>> months) throws IOException {
+		Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName() + ".", ".tmp");
+
+		try {
+			Files.write(tmp, mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(months));
+
+			try {
+				Files.move(tmp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	@SneakyThrows
+	private static String hashKey(String apiKey) {
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(StandardCharsets.UTF_8));
+		return HexFormat.of().formatHex(digest, 0, 8);
+	}
+
+	@Getter
+	@AllArgsConstructor
+	public static class Report {
+		private final String month;
+
+		private final long monthlyLimit;
+
+		private final long used;
+
+		private final long remaining;
+
+		private final Level level;
+
+		private final Map<String, Long> usageByOperation;
+
+		/**
+		 * month -> total queries
+		 */
+		private final Map<String, Long> history;
+	}
+}
@@ -0,0 +1,215 @@
+package us.poliscore.legiscan.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+import us.poliscore.legiscan.exception.LegiscanException;
+
+/**
+ * Throttles outbound Legiscan calls with a token bucket (a sustained rate of requests per second, with bursts of up to the bucket size)
+ * combined with a cap on the number of requests in flight.
+ *
+ * Callers are served strictly in arrival order: a request first waits for an in-flight slot, in FIFO order, and then reserves the next
+ * token, which is itself handed out in order. Both the blocking and the async acquire go through the same queue, so neither can starve the
+ * other.
+ */
+public class RateLimiter {
+
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "legiscan-rate-limiter");
+		t.setDaemon(true);
+		return t;
+	});
+
+	@Getter
+	private final double permitsPerSecond;
+
+	@Getter
+	private final int burst;
+
+	@Getter
+	private final int maxInFlight;
+
+	private final long intervalNanos;
+
+	// Token bucket state, guarded by this
+	private double storedPermits;
+
+	private long nextFreeNanos;
+
+	// In-flight state, guarded by this
+	private int inFlight;
+
+	private final Queue<CompletableFuture<Void>> slotWaiters = new ArrayDeque<CompletableFuture<Void>>();
+
+	private final LongAdder acquired = new LongAdder();
+
+	private final LongAdder waitNanos = new LongAdder();
+
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	/**
+	 * @param permitsPerSecond The sustained request rate. Zero or less disables rate limiting.
+	 * @param burst The number of requests which may be made back to back after a quiet period
+	 * @param maxInFlight The maximum number of concurrent requests. Zero or less disables the cap.
+	 */
+	public RateLimiter(double permitsPerSecond, int burst, int maxInFlight) {
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = Math.max(1, burst);
+		this.maxInFlight = maxInFlight;
+		this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+		this.storedPermits = this.burst;
+		this.nextFreeNanos = System.nanoTime();
+	}
+
+	/**
+	 * A limiter which lets everything through immediately.
+	 */
+	public static RateLimiter unlimited() {
+		return new RateLimiter(0, 1, 0);
+	}
+
+	/**
+	 * Blocks until the request may go out.
+	 *
+	 * @return A permit, which must be closed once the request completes
+	 */
+	public Permit acquire() {
+		CompletableFuture<Permit> future = acquireAsync();
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			// Our place in the queue can't be given back, so hand the permit straight back once it comes through
+			future.thenAccept(Permit::close);
+			Thread.currentThread().interrupt();
+			throw new LegiscanException("Interrupted while waiting on the rate limiter", e);
+		} catch (ExecutionException e) {
+			throw new LegiscanException("Failed to acquire a rate limiter permit", e.getCause());
+		}
+	}
+
+	/**
+	 * Returns a future which completes once the request may go out, without blocking the calling thread.
+	 *
+	 * @return A future permit, which must be closed once the request completes
+	 */
+	public CompletableFuture<Permit> acquireAsync() {
+		long start = System.nanoTime();
+
+		return acquireSlot().thenCompose(v -> {
+			long delay = reserveToken();
+			if (delay <= 0) return CompletableFuture.completedFuture(newPermit(start));
+
+			CompletableFuture<Permit> future = new CompletableFuture<Permit>();
+			TIMER.schedule(() -> future.complete(newPermit(start)), delay, TimeUnit.NANOSECONDS);
+			return future;
+		});
+	}
+
+	private Permit newPermit(long start) {
+		long waited = System.nanoTime() - start;
+		acquired.increment();
+		waitNanos.add(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+		return new Permit();
+	}
+
+	private synchronized CompletableFuture<Void> acquireSlot() {
+		if (maxInFlight <= 0) return CompletableFuture.completedFuture(null);
+
+		if (inFlight < maxInFlight && slotWaiters.isEmpty()) {
+			inFlight++;
+			return CompletableFuture.completedFuture(null);
+		}
+
+		CompletableFuture<Void> waiter = new CompletableFuture<Void>();
+		slotWaiters.add(waiter);
+		return waiter;
+	}
+
+	private void releaseSlot() {
+		if (maxInFlight <= 0) return;
+
+		CompletableFuture<Void> next;
+		synchronized (this) {
+			next = slotWaiters.poll();
+			if (next == null) inFlight--;
+		}
+
+		// The slot passes straight to the next waiter. Completed outside the lock, since it runs the waiter's continuation.
+		if (next != null) next.complete(null);
+	}
+
+	/**
+	 * Reserves the next token, and returns how long the caller has to wait for it. Tokens which built up while idle (up to the burst
+	 * size) are handed out immediately.
+	 */
+	private synchronized long reserveToken() {
+		if (intervalNanos <= 0) return 0;
+
+		long now = System.nanoTime();
+
+		if (now > nextFreeNanos) {
+			storedPermits = Math.min(burst, storedPermits + (double) (now - nextFreeNanos) / intervalNanos);
+			nextFreeNanos = now;
+		}
+
+		long waitUntil = nextFreeNanos;
+		double fromStored = Math.min(1, storedPermits);
+		storedPermits -= fromStored;
+		nextFreeNanos += (long) ((1 - fromStored) * intervalNanos);
+
+		return waitUntil - now;
+	}
+
+	public long getAcquiredCount() {
+		return acquired.sum();
+	}
+
+	/**
+	 * @return The total time that callers have spent waiting on the limiter
+	 */
+	public Duration getTotalWaitTime() {
+		return Duration.ofNanos(waitNanos.sum());
+	}
+
+	public Duration getAverageWaitTime() {
+		long count = acquired.sum();
+		return count == 0 ? Duration.ZERO : Duration.ofNanos(waitNanos.sum() / count);
+	}
+
+	public Duration getMaxWaitTime() {
+		return Duration.ofNanos(maxWaitNanos.get());
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized int getQueued() {
+		return slotWaiters.size();
+	}
+
+	/**
+	 * Holds an in-flight slot until closed.
+	 */
+	public class Permit implements AutoCloseable {
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) releaseSlot();
+		}
+	}
+}
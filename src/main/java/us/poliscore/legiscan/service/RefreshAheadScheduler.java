@@ -0,0 +1,243 @@
+package us.poliscore.legiscan.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Refreshes frequently requested cache entries in the background shortly before they expire, so that the first callers after a
+ * policy boundary (such as the weekly or daily 7AM Eastern expiry) don't all miss at once and stampede Legiscan.
+ *
+ * Every cache hit is recorded along with when the entry expires. Each tracked entry is assigned a random refresh time within the lead
+ * time before its expiry, which spreads the refreshes of entries that expire together out over the whole lead time. On every tick, the
+ * hottest entries whose refresh time has come are refreshed, up to a fixed budget per tick. Entries which don't make the budget are simply
+ * left to expire as they would have without the scheduler. Hit counts are halved every tick, so that hotness reflects recent traffic.
+ *
+ * The refresher is told when the entry was due to expire, so that the refreshed entry can be made to last past that boundary rather than
+ * expiring along with everything else. Hits on an entry which still expires when it did before it was refreshed are ignored, so an entry
+ * is refreshed at most once per expiry.
+ */
+public class RefreshAheadScheduler implements AutoCloseable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RefreshAheadScheduler.class);
+
+	public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(1);
+
+	public static final int DEFAULT_MAX_TRACKED = 10_000;
+
+	/**
+	 * Performs the actual refresh of a cache key, which was due to expire at expiresAt.
+	 */
+	public static interface Refresher {
+		public void refresh(String cacheKey, String url, ExpirationPolicy ep, Instant expiresAt);
+	}
+
+	private final Refresher refresher;
+
+	@Getter
+	private final Duration leadTime;
+
+	@Getter
+	private final int maxRefreshesPerTick;
+
+	@Getter
+	private final Duration interval;
+
+	private final int maxTracked;
+
+	private final Map<String, Tracked> tracked = new ConcurrentHashMap<String, Tracked>();
+
+	/**
+	 * The expiry (in epoch seconds) of each entry when it was last refreshed, until that time has passed.
+	 */
+	private final Map<String, Long> refreshedFrom = new ConcurrentHashMap<String, Long>();
+
+	private final ScheduledExecutorService scheduler;
+
+	private final LongAdder refreshed = new LongAdder();
+
+	private final LongAdder overBudget = new LongAdder();
+
+	public RefreshAheadScheduler(Refresher refresher, Duration leadTime, int maxRefreshesPerTick) {
+		this(refresher, leadTime, maxRefreshesPerTick, DEFAULT_INTERVAL, DEFAULT_MAX_TRACKED);
+	}
+
+	/**
+	 * @param refresher Refreshes a single key
+	 * @param leadTime How long before expiry an entry may be refreshed
+	 * @param maxRefreshesPerTick The maximum number of refreshes started per tick
+	 * @param interval The time between ticks
+	 * @param maxTracked The maximum number of entries to track. Hits on further entries are ignored until tracked entries are refreshed
+	 *  or expire.
+	 */
+	public RefreshAheadScheduler(Refresher refresher, Duration leadTime, int maxRefreshesPerTick, Duration interval, int maxTracked) {
+		this.refresher = refresher;
+		this.leadTime = leadTime;
+		this.maxRefreshesPerTick = maxRefreshesPerTick;
+		this.interval = interval;
+		this.maxTracked = maxTracked;
+
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "legiscan-refresh-ahead");
+			t.setDaemon(true);
+			return t;
+		});
+
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				tick();
+			} catch (Throwable t) {
+				LOGGER.error("Refresh ahead tick failed.", t);
+			}
+		}, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Records a cache hit on an entry which expires at the given time.
+	 */
+	public void recordHit(String cacheKey, String url, ExpirationPolicy ep, Instant expiresAt) {
+		if (expiresAt == null) return;
+
+		// Already refreshed, but the refresh either hasn't happened yet or didn't move the expiry. Refreshing again wouldn't help.
+		Long from = refreshedFrom.get(cacheKey);
+		if (from != null && from == expiresAt.getEpochSecond()) return;
+
+		Tracked t = tracked.get(cacheKey);
+
+		if (t == null || t.expiresAt != expiresAt.getEpochSecond()) {
+			if (t == null && tracked.size() >= maxTracked) return;
+
+			t = new Tracked(url, ep, expiresAt.getEpochSecond(), refreshTime(expiresAt.getEpochSecond()));
+			Tracked existing = tracked.putIfAbsent(cacheKey, t);
+
+			// Somebody beat us to it, or the entry was refreshed and now expires at a different time
+			if (existing != null) {
+				if (existing.expiresAt == t.expiresAt) t = existing;
+				else tracked.put(cacheKey, t);
+			}
+		}
+
+		t.hits.incrementAndGet();
+	}
+
+	/**
+	 * Picks a random point in time within the lead time before expiry, so that entries which expire together are refreshed at
+	 * different times.
+	 */
+	private long refreshTime(long expiresAt) {
+		long lead = Math.max(1, leadTime.getSeconds());
+		return expiresAt - lead + ThreadLocalRandom.current().nextLong(lead);
+	}
+
+	/**
+	 * Refreshes the hottest entries which are due, up to the budget. Each refresh is started at a random point within the tick interval,
+	 * so that even the refreshes of a single tick don't go out in a burst.
+	 */
+	protected void tick() {
+		long now = Instant.now().getEpochSecond();
+		List<Map.Entry<String, Tracked>> due = new ArrayList<Map.Entry<String, Tracked>>();
+
+		refreshedFrom.values().removeIf(expiresAt -> expiresAt <= now);
+
+		for (var it = tracked.entrySet().iterator(); it.hasNext();) {
+			var e = it.next();
+			Tracked t = e.getValue();
+
+			if (t.expiresAt <= now) {
+				// Too late, the next caller will fetch it
+				it.remove();
+			} else if (t.refreshAt <= now) {
+				due.add(e);
+			}
+		}
+
+		due.sort(Comparator.comparingLong((Map.Entry<String, Tracked> e) -> e.getValue().hits.get()).reversed());
+
+		for (int i = 0; i < due.size(); i++) {
+			var e = due.get(i);
+
+			if (i >= maxRefreshesPerTick) {
+				overBudget.increment();
+				continue;
+			}
+
+			tracked.remove(e.getKey(), e.getValue());
+			refreshedFrom.put(e.getKey(), e.getValue().expiresAt);
+
+			long delay = ThreadLocalRandom.current().nextLong(Math.max(1, interval.toMillis()));
+			// The refresh itself runs on its own virtual thread, so that a slow request doesn't hold up the ticks
+			scheduler.schedule(() -> Thread.ofVirtual().name("legiscan-refresh-ahead-" + e.getKey()).start(() -> refresh(e.getKey(), e.getValue())), delay, TimeUnit.MILLISECONDS);
+		}
+
+		for (Tracked t : tracked.values()) {
+			t.hits.updateAndGet(h -> h / 2);
+		}
+	}
+
+	private void refresh(String cacheKey, Tracked t) {
+		try {
+			LOGGER.debug("Refreshing [" + cacheKey + "] ahead of its expiry.");
+			refresher.refresh(cacheKey, t.url, t.ep, Instant.ofEpochSecond(t.expiresAt));
+			refreshed.increment();
+		} catch (Exception e) {
+			LOGGER.warn("Refresh ahead of [" + cacheKey + "] failed.", e);
+		}
+	}
+
+	/**
+	 * @return The number of entries which were refreshed before they expired
+	 */
+	public long getRefreshedCount() {
+		return refreshed.sum();
+	}
+
+	/**
+	 * @return The number of times a due entry was skipped because the tick's budget was used up
+	 */
+	public long getOverBudgetCount() {
+		return overBudget.sum();
+	}
+
+	public int getTrackedCount() {
+		return tracked.size();
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	private static class Tracked {
+		private final String url;
+
+		private final ExpirationPolicy ep;
+
+		private final long expiresAt;
+
+		private final long refreshAt;
+
+		private final AtomicLong hits = new AtomicLong();
+
+		private Tracked(String url, ExpirationPolicy ep, long expiresAt, long refreshAt) {
+			this.url = url;
+			this.ep = ep;
+			this.expiresAt = expiresAt;
+			this.refreshAt = refreshAt;
+		}
+	}
+}
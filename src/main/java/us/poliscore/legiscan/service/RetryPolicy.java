@@ -0,0 +1,72 @@
+package us.poliscore.legiscan.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+
+/**
+ * Decides whether, and after how long, a failed request to Legiscan is retried. Every Legiscan operation is an idempotent GET, so any
+ * transient failure is safe to retry: connection failures and timeouts (both IOExceptions), HTTP 429 and HTTP 5xx. Other failures (such as a 4xx, or an alert
+ * in the response body) would only fail again.
+ *
+ * The delay before retry n (counting from 1) is drawn uniformly between zero and min(maxDelay, baseDelay * 2^(n-1)) ("full jitter"), so
+ * that many clients which failed together don't all retry together.
+ */
+@Getter
+public class RetryPolicy {
+
+	private final int maxAttempts;
+
+	private final Duration baseDelay;
+
+	private final Duration maxDelay;
+
+	/**
+	 * @param maxAttempts The total number of attempts, including the first. One disables retries.
+	 * @param baseDelay The backoff of the first retry
+	 * @param maxDelay The maximum backoff of any retry
+	 */
+	public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+		this.maxAttempts = Math.max(1, maxAttempts);
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Four attempts, backing off from half a second up to 30 seconds.
+	 */
+	public static RetryPolicy defaults() {
+		return new RetryPolicy(4, Duration.ofMillis(500), Duration.ofSeconds(30));
+	}
+
+	public static RetryPolicy none() {
+		return new RetryPolicy(1, Duration.ZERO, Duration.ZERO);
+	}
+
+	public boolean isRetryable(int statusCode) {
+		return statusCode == 429 || statusCode >= 500;
+	}
+
+	public boolean isRetryable(Throwable t) {
+		return t instanceof IOException;
+	}
+
+	/**
+	 * @param attempt The attempt which just failed, starting at 1
+	 * @return Whether there is another attempt left
+	 */
+	public boolean canRetry(int attempt) {
+		return attempt < maxAttempts;
+	}
+
+	/**
+	 * @param attempt The attempt which just failed, starting at 1
+	 * @return How long to wait before the next attempt
+	 */
+	public Duration getDelay(int attempt) {
+		long cap = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(attempt - 1, 30));
+		return cap <= 0 ? Duration.ZERO : Duration.ofMillis(ThreadLocalRandom.current().nextLong(cap + 1));
+	}
+}
@@ -0,0 +1,69 @@
+package us.poliscore.legiscan.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import us.poliscore.legiscan.exception.LegiscanException;
+
+/**
+ * Coalesces concurrent loads of the same key, so that only one of them actually runs and every caller which arrived while it was in flight
+ * receives its result (or its exception). Once a load completes, the next caller for that key starts a new one.
+ */
+public class SingleFlight {
+
+	private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+	private final LongAdder deduplicated = new LongAdder();
+
+	@SuppressWarnings("unchecked")
+	public <T> T execute(String key, Supplier<T> loader) {
+		CompletableFuture<Object> mine = new CompletableFuture<Object>();
+		CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+
+		if (existing != null) {
+			deduplicated.increment();
+			return (T) await(existing);
+		}
+
+		try {
+			T value = loader.get();
+			mine.complete(value);
+			return value;
+		} catch (Throwable t) {
+			mine.completeExceptionally(t);
+			throw t;
+		} finally {
+			inFlight.remove(key, mine);
+		}
+	}
+
+	/**
+	 * @return The number of calls which were served by a load that another caller started
+	 */
+	public long getDeduplicatedCount() {
+		return deduplicated.sum();
+	}
+
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	private static Object await(CompletableFuture<Object> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException | CompletionException e) {
+			// Rethrow the leader's exception as is, so that every caller sees the same failure
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException re) throw re;
+			if (cause instanceof Error err) throw err;
+			throw new LegiscanException("Coalesced request failed", cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LegiscanException("Interrupted while waiting on an in-flight request", e);
+		}
+	}
+}
@@ -57,4 +57,8 @@ public class LegiscanDatasetView {
     
     // Exists only on the 'getDataset' response
     private String zip;
+    
+    // Not part of the Legiscan API. Set instead of zip when the archive was downloaded to disk (see CachedLegiscanService.getDatasetArchive).
+    @JsonProperty("archive_path")
+    private String archivePath;
 }
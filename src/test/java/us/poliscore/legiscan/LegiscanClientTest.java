@@ -0,0 +1,61 @@
+package us.poliscore.legiscan;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import us.poliscore.legiscan.service.CachedLegiscanService;
+import us.poliscore.legiscan.view.LegiscanDatasetView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+public class LegiscanClientTest {
+
+    private File tempDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        tempDir = Files.createTempDirectory("legiscan-client-test").toFile();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    void testSyncDatasets() throws Exception {
+        // The dataset list is already cached, and holds nothing current, so the run needn't touch Legiscan
+        var response = new LegiscanResponse();
+        response.setStatus("OK");
+        response.setDatasetlist(List.<LegiscanDatasetView>of());
+        CachedLegiscanService.builder("key").withCacheDirectory(tempDir).build().getCache().put("getdatasetlist", response, -1);
+
+        String out = run("-k", "key", "-op", "syncDatasets", "--state", "CO,TX", "--cache_dir", tempDir.getAbsolutePath());
+
+        assertTrue(out.contains("0 synced, 0 skipped, 0 failed"), out);
+    }
+
+    private static String run(String... args) throws Exception {
+        PrintStream original = System.out;
+        var captured = new ByteArrayOutputStream();
+
+        try {
+            System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+            LegiscanClient.main(args);
+        } finally {
+            System.setOut(original);
+        }
+
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,292 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpServer;
+
+import us.poliscore.legiscan.service.CachedLegiscanService;
+import us.poliscore.legiscan.service.RetryPolicy;
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanDatasetView;
+import us.poliscore.legiscan.view.LegiscanPeopleView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+import us.poliscore.legiscan.view.LegiscanRollCallView;
+
+public class CachedLegiscanDatasetResultTest {
+
+    private File tempDir;
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+        tempDir = Files.createTempDirectory("legiscan-dataset-test").toFile();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    void testBulkLoadReadsArchiveInPlace() throws Exception {
+        // Votes come first in the archive, but people and bills are still loaded before them
+        var zip = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(zip)) {
+            entry(out, "AL/2024-2024_Regular_Session/vote/7.json", "{ \"roll_call\" : { \"roll_call_id\" : 7 } }");
+            entry(out, "AL/2024-2024_Regular_Session/bill/HB1.json", "{ \"bill\" : { \"bill_id\" : 1, \"change_hash\" : \"a\" } }");
+            entry(out, "AL/2024-2024_Regular_Session/people/3.json", "{ \"person\" : { \"people_id\" : 3 } }");
+            entry(out, "AL/2024-2024_Regular_Session/README.txt", "not a document");
+        }
+
+        var result = load(zip.toByteArray(), new File(tempDir, "cache"), 1);
+        var cache = result.getLegiscan().getCache();
+
+        assertEquals(1, result.getPeople().size());
+        assertEquals(1, result.getBills().size());
+        assertEquals(1, result.getVotes().size());
+        assertTrue(cache.presentAndValid(LegiscanPeopleView.getCacheKey(3)));
+        assertTrue(cache.presentAndValid(LegiscanBillView.getCacheKey(1)));
+        assertTrue(cache.presentAndValid(LegiscanRollCallView.getCacheKey(7)));
+        assertEquals("a", result.getLegiscan().getChangeHashIndex().get(1));
+
+        // Nothing was extracted alongside the cache
+        assertFalse(new File(tempDir, "AL").exists());
+        assertEquals(1, tempDir.list().length);
+    }
+
+    @Test
+    void testParallelBulkLoadIsDeterministic() throws Exception {
+        // Each roll call appears several times, with the last entry of the archive expected to win
+        var zip = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(zip)) {
+            for (int i = 0; i < 500; i++) {
+                entry(out, "TX/2025-2026_89th_Legislature/vote/" + i + ".json", "{ \"roll_call\" : { \"roll_call_id\" : " + (i % 50) + ", \"desc\" : \"" + i + "\" } }");
+                entry(out, "TX/2025-2026_89th_Legislature/bill/" + i + ".json", "{ \"bill\" : { \"bill_id\" : " + i + ", \"change_hash\" : \"h" + i + "\" } }");
+            }
+        }
+
+        var single = load(zip.toByteArray(), new File(tempDir, "single"), 1);
+        var parallel = load(zip.toByteArray(), new File(tempDir, "parallel"), 8);
+
+        assertEquals(500, parallel.getBills().size());
+        assertEquals(50, parallel.getVotes().size());
+        assertEquals(single.getBills(), parallel.getBills());
+        assertEquals(single.getVotes(), parallel.getVotes());
+        assertEquals("499", parallel.getVotes().get(49).getDescription());
+    }
+
+    @Test
+    void testBulkLoadReportsBadEntry() throws Exception {
+        var zip = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(zip)) {
+            entry(out, "AL/2024-2024_Regular_Session/bill/HB1.json", "{ \"bill\" : { \"bill_id\" : 1 } }");
+            entry(out, "AL/2024-2024_Regular_Session/bill/HB2.json", "{ \"bill\" : ");
+        }
+
+        var e = assertThrows(RuntimeException.class, () -> load(zip.toByteArray(), new File(tempDir, "cache"), 4));
+        assertTrue(ExceptionUtils.getStackTrace(e).contains("HB2.json"));
+    }
+
+    @Test
+    void testOnlyChangedEntriesAreReloaded() throws Exception {
+        var zip = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(zip)) {
+            entry(out, "AL/2024-2024_Regular_Session/people/3.json", "{ \"person\" : { \"people_id\" : 3 } }");
+            entry(out, "AL/2024-2024_Regular_Session/bill/HB1.json", "{ \"bill\" : { \"bill_id\" : 1, \"change_hash\" : \"a\" } }");
+            entry(out, "AL/2024-2024_Regular_Session/vote/7.json", "{ \"roll_call\" : { \"roll_call_id\" : 7, \"desc\" : \"before\" } }");
+            entry(out, "AL/2024-2024_Regular_Session/vote/8.json", "{ \"roll_call\" : { \"roll_call_id\" : 8 } }");
+        }
+
+        var first = load(zip.toByteArray(), new File(tempDir, "cache"), 2);
+        assertEquals("4 added, 0 changed, 0 unchanged, 0 removed", first.getDelta().toString());
+
+        zip = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(zip)) {
+            entry(out, "AL/2024-2024_Regular_Session/people/3.json", "{ \"person\" : { \"people_id\" : 3 } }");
+            entry(out, "AL/2024-2024_Regular_Session/people/4.json", "{ \"person\" : { \"people_id\" : 4 } }");
+            entry(out, "AL/2024-2024_Regular_Session/bill/HB1.json", "{ \"bill\" : { \"bill_id\" : 1, \"change_hash\" : \"a\" } }");
+            entry(out, "AL/2024-2024_Regular_Session/vote/7.json", "{ \"roll_call\" : { \"roll_call_id\" : 7, \"desc\" : \"after\" } }");
+        }
+
+        var second = load(zip.toByteArray(), new File(tempDir, "cache"), 2);
+        var cache = second.getLegiscan().getCache();
+
+        assertEquals(1, second.getDelta().getAdded());
+        assertEquals(1, second.getDelta().getChanged());
+        assertEquals(2, second.getDelta().getUnchanged());
+        assertEquals(1, second.getDelta().getRemoved());
+
+        // Unchanged objects still make it into the result, from the cache
+        assertEquals(2, second.getPeople().size());
+        assertEquals(1, second.getBills().size());
+        assertEquals("after", second.getVotes().get(7).getDescription());
+        assertFalse(cache.presentAndValid(LegiscanRollCallView.getCacheKey(8)));
+    }
+
+    @Test
+    void testChangedBillsAreFetchedConcurrently() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+
+            try {
+                Thread.sleep(20);
+                String id = exchange.getRequestURI().getQuery().replaceAll(".*id=(\\d+).*", "$1");
+
+                if (id.equals("13")) {
+                    exchange.sendResponseHeaders(500, -1);
+                } else {
+                    byte[] bytes = ("{ \"status\" : \"OK\", \"bill\" : { \"bill_id\" : " + id + ", \"change_hash\" : \"new\" } }").getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    exchange.getResponseBody().write(bytes);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+
+        try {
+            var service = CachedLegiscanService.builder("key")
+                    .withCache(new FileSystemLegiscanCache(tempDir, objectMapper))
+                    .withBaseUrl("http://localhost:" + server.getAddress().getPort() + "/")
+                    .withRetryPolicy(RetryPolicy.none())
+                    .withBillUpdateParallelism(4)
+                    .build();
+
+            var result = new CachedLegiscanDatasetResult(service, new LegiscanDatasetView(), objectMapper);
+            List<Integer> progress = new CopyOnWriteArrayList<Integer>();
+            result.setProgressListener((completed, failed, total) -> progress.add(completed));
+
+            result.fetchBills(IntStream.rangeClosed(1, 40).boxed().toList());
+
+            // One bad bill doesn't hold up the rest
+            assertEquals(39, result.getBills().size());
+            assertEquals(Set.of(13), result.getFailedBills().keySet());
+            assertEquals(40, progress.size());
+            assertTrue(progress.contains(40));
+            assertTrue(maxInFlight.get() > 1 && maxInFlight.get() <= 4, "max in flight was " + maxInFlight.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testIndexedBillsAreCheckedAgainstTheCache() throws Exception {
+        List<String> fetched = new CopyOnWriteArrayList<String>();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            String json;
+
+            if (query.contains("op=getMasterListRaw")) {
+                json = "{ \"status\" : \"OK\", \"masterlist\" : { \"session\" : { \"session_id\" : 1 }, "
+                        + "\"0\" : { \"bill_id\" : 1, \"change_hash\" : \"a\" }, \"1\" : { \"bill_id\" : 2, \"change_hash\" : \"b\" } } }";
+            } else {
+                String id = query.replaceAll(".*id=(\\d+).*", "$1");
+                fetched.add(id);
+                json = "{ \"status\" : \"OK\", \"bill\" : { \"bill_id\" : " + id + ", \"change_hash\" : \"b\" } }";
+            }
+
+            byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            var cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+            var service = CachedLegiscanService.builder("key")
+                    .withCache(cache)
+                    .withBaseUrl("http://localhost:" + server.getAddress().getPort() + "/")
+                    .withRetryPolicy(RetryPolicy.none())
+                    .build();
+
+            // Bill 1 is current but long expired, and bill 2 has been removed from the cache since it was indexed
+            File file = new File(tempDir, "getbill/1/cached.json");
+            file.getParentFile().mkdirs();
+            Files.writeString(file.toPath(), "{ \"timestamp\" : 1700000000, \"ttlSecs\" : 60, \"value\" : { \"status\" : \"OK\", \"bill\" : { \"bill_id\" : 1, \"change_hash\" : \"a\" } } }");
+
+            service.getChangeHashIndex().put(1, "a");
+            service.getChangeHashIndex().put(2, "b");
+
+            var dataset = new LegiscanDatasetView();
+            dataset.setSessionId(1);
+            new CachedLegiscanDatasetResult(service, dataset, objectMapper).updateBills(null);
+
+            // Only the missing bill is fetched, and the expired one is re-stamped
+            assertEquals(List.of("2"), fetched);
+            assertTrue(cache.presentAndValid(LegiscanBillView.getCacheKey(2)));
+            assertEquals("b", service.getChangeHashIndex().get(2));
+
+            var restamped = cache.peekEntry(LegiscanBillView.getCacheKey(1)).get();
+            assertTrue(restamped.getTimestamp() > 1700000000);
+            assertFalse(restamped.isExpired(null));
+            assertEquals("a", restamped.getValue(LegiscanResponse.class).getBill().getChangeHash());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private CachedLegiscanDatasetResult load(byte[] zip, File dir, int threads) throws Exception {
+        var cache = new FileSystemLegiscanCache(dir, objectMapper);
+        var service = CachedLegiscanService.builder("key")
+                .withCache(cache)
+                .withBaseUrl("http://localhost:1/")
+                .build();
+        cache.putBlob("getdatasetraw/access/json/1", new ByteArrayInputStream(zip), "abc", -1);
+
+        var dataset = new LegiscanDatasetView();
+        dataset.setSessionId(1);
+        dataset.setAccessKey("access");
+        dataset.setDatasetHash("abc");
+
+        var result = new CachedLegiscanDatasetResult(service, dataset, objectMapper);
+        result.setIngestionThreads(threads);
+        result.bulkLoad();
+        return result;
+    }
+
+    private static void entry(ZipOutputStream out, String name, String json) throws Exception {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(json.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+}
@@ -0,0 +1,102 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ChangeHashIndexTest {
+
+    private File tempDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        tempDir = Files.createTempDirectory("legiscan-change-hash-test").toFile();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    void testPutGrowAndReopen() throws Exception {
+        File file = new File(tempDir, ".bill-hashes.idx");
+
+        try (var index = ChangeHashIndex.open(file)) {
+            // Enough to grow the table a couple of times
+            for (int id = 1; id <= 20_000; id++) {
+                index.put(id, "hash" + id);
+            }
+
+            index.put(7, "changed");
+            index.remove(8);
+            index.put(9, null);
+
+            assertEquals(19_998, index.size());
+        }
+
+        try (var index = ChangeHashIndex.open(file)) {
+            assertEquals(19_998, index.size());
+            assertEquals("hash1", index.get(1));
+            assertEquals("changed", index.get(7));
+            assertNull(index.get(8));
+            assertNull(index.get(9));
+            assertEquals("hash20000", index.get(20_000));
+            assertNull(index.get(20_001));
+        }
+    }
+
+    @Test
+    void testIndexHeldByAnotherProcessIsLeftAlone() throws Exception {
+        File file = new File(tempDir, ".bill-hashes.idx");
+
+        try (var index = ChangeHashIndex.open(file)) {
+            index.put(1, "a");
+        }
+
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            // Stands in for another process which has the index open
+            long size = channel.size();
+            var held = channel.lock();
+
+            try (var index = ChangeHashIndex.open(file)) {
+                assertFalse(index.isAvailable());
+                assertNull(index.get(1));
+
+                index.put(2, "b");
+                assertNull(index.get(2));
+                assertEquals(0, index.size());
+            }
+
+            assertEquals(size, channel.size());
+            held.release();
+        }
+
+        try (var index = ChangeHashIndex.open(file)) {
+            assertTrue(index.isAvailable());
+            assertEquals("a", index.get(1));
+        }
+    }
+
+    @Test
+    void testInMemory() {
+        var index = ChangeHashIndex.inMemory();
+        index.put(-5, "a");
+        index.put(Integer.MAX_VALUE, "b");
+
+        assertEquals("a", index.get(-5));
+        assertEquals("b", index.get(Integer.MAX_VALUE));
+        assertNull(index.get(0));
+    }
+}
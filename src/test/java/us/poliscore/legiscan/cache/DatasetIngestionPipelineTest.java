@@ -0,0 +1,73 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DatasetIngestionPipelineTest {
+
+    private File tempDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        tempDir = Files.createTempDirectory("legiscan-pipeline-test").toFile();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    void testReaderStaysWithinTheWindow() throws Exception {
+        File file = new File(tempDir, "dataset.zip");
+        try (var out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < 200; i++) {
+                out.putNextEntry(new ZipEntry(i + ".json"));
+                out.write(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+
+        AtomicInteger parsed = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger maxAhead = new AtomicInteger();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+
+        try (var zip = new ZipFile(file)) {
+            var entries = Collections.list(zip.entries()).stream().map(e -> (ZipEntry) e).toList();
+
+            // The first entry is slow to parse, so everything after it has to wait for it
+            new DatasetIngestionPipeline(4, 8, 3).run(zip, entries, (entry, data) -> {
+                int value = Integer.parseInt(new String(data, StandardCharsets.UTF_8));
+                if (value == 0) Thread.sleep(200);
+
+                maxAhead.accumulateAndGet(parsed.incrementAndGet() - written.get(), Math::max);
+                return value;
+            }, batch -> {
+                order.addAll(batch);
+                written.addAndGet(batch.size());
+            });
+        }
+
+        assertEquals(200, order.size());
+        for (int i = 0; i < 200; i++) assertEquals(i, order.get(i));
+        assertTrue(maxAhead.get() <= 8, "parsed " + maxAhead.get() + " entries ahead of the writer");
+    }
+}
@@ -0,0 +1,128 @@
+package us.poliscore.legiscan.cache;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+
+import com.fasterxml.jackson.core.StreamReadConstraints;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanPeopleView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+import us.poliscore.legiscan.view.LegiscanRollCallView;
+
+/**
+ * Compares the read/write throughput and disk footprint of the FileSystemLegiscanCache encodings, using a full state dataset. Point the
+ * LEGISCAN_DATASET_ZIP environment variable at a json dataset zip (as returned by getDatasetRaw) and run manually with:
+ *
+ * mvn test -Dtest=FileSystemLegiscanCacheBenchmark
+ */
+@EnabledIfEnvironmentVariable(named = "LEGISCAN_DATASET_ZIP", matches = ".+")
+public class FileSystemLegiscanCacheBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    @Test
+    void benchmarkEncodings() throws Exception {
+        ObjectMapper objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+        objectMapper.getFactory().setStreamReadConstraints(StreamReadConstraints.builder().maxStringLength(100_000_000).build());
+
+        Map<String, LegiscanResponse> entries = loadDataset(objectMapper, new File(System.getenv("LEGISCAN_DATASET_ZIP")));
+        System.out.println("Loaded " + entries.size() + " entries from dataset.");
+        System.out.println(String.format("%-16s %14s %14s %14s", "format", "write (ops/s)", "read (ops/s)", "disk (bytes)"));
+
+        for (CacheEncoding encoding : CacheEncoding.values()) {
+            run(objectMapper, entries, encoding, false, false);
+            run(objectMapper, entries, encoding, true, false);
+            run(objectMapper, entries, encoding, true, true);
+        }
+    }
+
+    private void run(ObjectMapper objectMapper, Map<String, LegiscanResponse> entries, CacheEncoding encoding, boolean compress, boolean dictionary) throws Exception {
+        List<Double> writes = new ArrayList<>();
+        List<Double> reads = new ArrayList<>();
+        long footprint = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            File dir = Files.createTempDirectory("legiscan-cache-bench").toFile();
+
+            try {
+                var cache = new FileSystemLegiscanCache(dir, objectMapper, encoding);
+
+                if (dictionary) {
+                    // Train from an uncompressed copy of the dataset, as would be done on an existing cache
+                    for (var e : entries.entrySet()) {
+                        cache.put(e.getKey(), e.getValue(), -1);
+                    }
+                    cache.trainDictionary(500, CompressionDictionary.MAX_SIZE);
+                }
+
+                if (compress) cache.enableCompression(CacheCompressor.DEFAULT_THRESHOLD);
+
+                long start = System.nanoTime();
+                for (var e : entries.entrySet()) {
+                    cache.put(e.getKey(), e.getValue(), -1);
+                }
+                writes.add(entries.size() / ((System.nanoTime() - start) / 1e9));
+
+                start = System.nanoTime();
+                for (var key : entries.keySet()) {
+                    cache.peekEntry(key).get().getValue(LegiscanResponse.class);
+                }
+                reads.add(entries.size() / ((System.nanoTime() - start) / 1e9));
+
+                footprint = FileUtils.sizeOfDirectory(dir);
+            } finally {
+                FileUtils.deleteDirectory(dir);
+            }
+        }
+
+        // The first round is a warmup
+        String name = encoding + (dictionary ? "+dict" : compress ? "+deflate" : "");
+        System.out.println(String.format("%-16s %14.0f %14.0f %14d", name, best(writes.subList(1, ROUNDS)), best(reads.subList(1, ROUNDS)), footprint));
+    }
+
+    private static double best(List<Double> values) {
+        return values.stream().mapToDouble(Double::doubleValue).max().orElse(0);
+    }
+
+    private static Map<String, LegiscanResponse> loadDataset(ObjectMapper objectMapper, File zip) throws Exception {
+        Map<String, LegiscanResponse> entries = new LinkedHashMap<>();
+
+        try (ZipFile zipFile = new ZipFile(zip)) {
+            var it = zipFile.entries();
+            while (it.hasMoreElements()) {
+                var entry = it.nextElement();
+                if (entry.isDirectory() || !entry.getName().toLowerCase().endsWith(".json")) continue;
+
+                Path path = Path.of(entry.getName());
+                String parent = path.getParent() == null ? "" : path.getParent().getFileName().toString();
+
+                try (var in = zipFile.getInputStream(entry)) {
+                    LegiscanResponse resp = objectMapper.readValue(in, LegiscanResponse.class);
+
+                    switch (parent) {
+                        case "bill" -> entries.put(LegiscanBillView.getCacheKey(resp.getBill().getBillId()), resp);
+                        case "people" -> entries.put(LegiscanPeopleView.getCacheKey(resp.getPerson().getPeopleId()), resp);
+                        case "vote" -> entries.put(LegiscanRollCallView.getCacheKey(resp.getRollcall().getRollCallId()), resp);
+                        default -> { }
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+}
@@ -1,14 +1,31 @@
 package us.poliscore.legiscan.cache;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
@@ -20,6 +37,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import us.poliscore.legiscan.view.LegiscanResponse;
+
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class FileSystemLegiscanCacheTest {
 
@@ -72,4 +91,312 @@ public class FileSystemLegiscanCacheTest {
         assertTrue(result.isPresent());
         assertEquals("2", result.get().get("a"));
     }
+
+    @Test
+    void testPeekValueReturnsMetadataAndValue() {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        String key = "peekValueTest";
+
+        cache.put(key, Map.of("a", "1"), "hash123", 10);
+
+        Optional<LegiscanCache.CachedValue<Map<String, String>>> result = cache.peekValue(key, new TypeReference<>() {});
+        assertTrue(result.isPresent());
+        assertEquals("1", result.get().getValue().get("a"));
+        assertEquals("hash123", result.get().getObjectHash());
+        assertEquals(10, result.get().getTtlSecs());
+        assertFalse(result.get().isExpired(null));
+    }
+
+    @Test
+    void testReadsValueFirstEntries() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        File legacy = new File(tempDir, "getbill/42/cached.json");
+        legacy.getParentFile().mkdirs();
+        Files.writeString(legacy.toPath(), """
+            {
+              "value" : { "status" : "OK", "bill" : { "bill_id" : 42, "change_hash" : "abc" } },
+              "timestamp" : 1700000000,
+              "ttlSecs" : -1,
+              "objectHash" : "xyz"
+            }
+            """);
+
+        var entry = cache.peekEntry("getbill/42").get();
+        assertEquals("xyz", entry.getObjectHash());
+        assertEquals(1700000000, entry.getTimestamp());
+        assertEquals("abc", entry.getValue(LegiscanResponse.class).getBill().getChangeHash());
+    }
+
+    @Test
+    void testBlobMetadataIsNotPairedWithOtherData() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        String key = "getbilltext/1";
+
+        cache.putBlob(key, new ByteArrayInputStream("1111".getBytes()), "h1", -1);
+        File meta = cache.openBlob(key).get().getPath().resolveSibling(BlobStore.META_FILE).toFile();
+        byte[] oldMeta = Files.readAllBytes(meta.toPath());
+
+        // A reader which catches the second write between its two renames sees the new data with the old metadata
+        cache.putBlob(key, new ByteArrayInputStream("2222".getBytes()), "h2", -1);
+        assertEquals("h2", cache.openBlob(key).get().getObjectHash());
+
+        Files.write(meta.toPath(), oldMeta);
+        assertFalse(cache.openBlob(key).isPresent());
+    }
+
+    @Test
+    void testBinaryValueRoundTrip() {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        byte[] zip = new byte[] { 80, 75, 3, 4, 0, -1, 127 };
+
+        cache.put("getdatasetraw/1", zip, "hash", 10);
+
+        var result = cache.peekValue("getdatasetraw/1", new TypeReference<byte[]>() {}).get();
+        assertArrayEquals(zip, result.getValue());
+        assertEquals("hash", result.getObjectHash());
+    }
+
+    @Test
+    void testBinaryEncodingsRoundTrip() {
+        for (CacheEncoding encoding : CacheEncoding.values()) {
+            cache = new FileSystemLegiscanCache(tempDir, objectMapper, encoding);
+            String key = "getbill/" + encoding.ordinal();
+            byte[] zip = new byte[] { 80, 75, 3, 4, 0, -1, 127 };
+
+            cache.put(key, Map.of("bill_id", 7, "zip", zip), "hash", 10);
+
+            var entry = cache.peekEntry(key).get();
+            assertTrue(new File(tempDir, key + "/" + encoding.getFileName()).exists());
+            assertEquals("hash", entry.getObjectHash());
+            assertEquals(7, entry.getValue(new TypeReference<Map<String, Object>>() {}).get("bill_id"));
+        }
+    }
+
+    @Test
+    void testEncodingsCoexistDuringMigration() {
+        var json = new FileSystemLegiscanCache(tempDir, objectMapper, CacheEncoding.JSON);
+        json.put("migration", Map.of("a", "1"), 10);
+
+        var smile = new FileSystemLegiscanCache(tempDir, objectMapper, CacheEncoding.SMILE);
+        Optional<Map<String, String>> result = smile.peek("migration", new TypeReference<>() {});
+        assertEquals("1", result.get().get("a"));
+
+        smile.put("migration", Map.of("a", "2"), 10);
+        assertFalse(new File(tempDir, "migration/" + CacheEncoding.JSON.getFileName()).exists());
+
+        result = json.peek("migration", new TypeReference<>() {});
+        assertEquals("2", result.get().get("a"));
+    }
+
+    @Test
+    void testCompressionWithTrainedDictionary() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        cache.enableCompression(CacheCompressor.DEFAULT_THRESHOLD);
+
+        for (int i = 0; i < 50; i++) {
+            cache.put("getbill/" + i, Map.of("bill_id", i, "description", "Concerning the regulation of things. ".repeat(40)), 10);
+        }
+
+        byte[] raw = Files.readAllBytes(new File(tempDir, "getbill/0/cached.json").toPath());
+        assertTrue(CacheCompressor.isCompressed(raw));
+
+        var dict = cache.trainDictionary(50, 4096);
+        assertTrue(dict.getBytes().length > 0);
+        assertTrue(new File(tempDir, ".dictionaries/" + dict.getIdHex() + ".dict").exists());
+
+        cache.put("getbill/100", Map.of("bill_id", 100, "description", "Concerning the regulation of things. ".repeat(40)), 10);
+        cache.put("small", Map.of("a", "1"), 10);
+
+        // A fresh cache instance needs to pick the dictionary back up from disk
+        var reopened = new FileSystemLegiscanCache(tempDir, objectMapper);
+        assertEquals(dict.getId(), reopened.getCompressor().getDictionary().getId());
+        assertEquals(100, reopened.peekEntry("getbill/100").get().getValue(new TypeReference<Map<String, Object>>() {}).get("bill_id"));
+        assertEquals(0, reopened.peekEntry("getbill/0").get().getValue(new TypeReference<Map<String, Object>>() {}).get("bill_id"));
+        assertFalse(CacheCompressor.isCompressed(Files.readAllBytes(new File(tempDir, "small/cached.json").toPath())));
+    }
+
+    @Test
+    void testLegacyDictionaryEntriesAreStillRead() throws Exception {
+        File dir = new File(tempDir, ".dictionaries");
+        dir.mkdirs();
+        byte[] dict = "Concerning the regulation of things. ".repeat(20).getBytes();
+        byte[] data = ("{ \"description\" : \"" + "Concerning the regulation of things. ".repeat(40) + "\" }").getBytes();
+
+        // Written by an older version: an Adler32 dictionary id, and a version 1 header
+        var adler = new Adler32();
+        adler.update(dict);
+        String legacyId = String.format("%08x", (int) adler.getValue());
+        Files.write(new File(dir, legacyId + ".dict").toPath(), dict);
+        Files.writeString(new File(dir, "current").toPath(), legacyId);
+
+        var deflater = new Deflater();
+        deflater.setDictionary(dict);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buf = new byte[data.length];
+        int n = deflater.deflate(buf);
+        deflater.end();
+
+        var entry = ByteBuffer.allocate(12 + n).put(new byte[] { 0x1F, 'L', 'Z', 0x01 }).putInt((int) adler.getValue()).putInt(data.length).put(buf, 0, n);
+
+        var compressor = new CacheCompressor(dir);
+        assertTrue(CacheCompressor.isCompressed(entry.array()));
+        assertArrayEquals(data, compressor.decompress(entry.array()));
+
+        // The current dictionary moves over to its 8 byte id
+        assertEquals(16, compressor.getDictionary().getIdHex().length());
+        assertTrue(new File(dir, compressor.getDictionary().getIdHex() + ".dict").exists());
+    }
+
+    @Test
+    void testMetadataIsServedFromIndex() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        cache.put("getbill/500", Map.of("a", "1"), "hash500", 10);
+
+        // The file isn't needed until the value is bound. Its modification time and length are all that's checked.
+        File file = new File(tempDir, "getbill/500/cached.json");
+        var modified = Files.getLastModifiedTime(file.toPath());
+        Files.writeString(file.toPath(), "garbage" + " ".repeat((int) file.length() - 7));
+        Files.setLastModifiedTime(file.toPath(), modified);
+
+        var entry = cache.peekEntry("getbill/500").get();
+        assertEquals("hash500", entry.getObjectHash());
+        assertEquals(10, entry.getTtlSecs());
+        assertTrue(cache.presentAndValid("getbill/500"));
+
+        // Once the unreadable value is found it's dropped from the index
+        assertFalse(cache.peekValue("getbill/500", new TypeReference<Map<String, String>>() {}).isPresent());
+        cache.remove("getbill/500");
+        assertFalse(cache.presentAndValid("getbill/500"));
+    }
+
+    @Test
+    void testEntriesChangedBehindTheIndexAreReadAgain() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        cache.put("getbill/1", Map.of("a", "1"), "before", 10);
+        cache.put("getbill/2", Map.of("a", "1"), "before", 10);
+        assertTrue(cache.presentAndValid("getbill/1"));
+
+        // As another process sharing the directory would
+        File file = new File(tempDir, "getbill/1/cached.json");
+        Files.writeString(file.toPath(), "{ \"timestamp\" : 1700000000, \"ttlSecs\" : 60, \"objectHash\" : \"after\", \"value\" : { \"a\" : \"2\" } }");
+        Files.delete(new File(tempDir, "getbill/2/cached.json").toPath());
+
+        var entry = cache.peekEntry("getbill/1").get();
+        assertEquals("after", entry.getObjectHash());
+        assertEquals(1700000000, entry.getTimestamp());
+
+        // Present, but long expired
+        assertFalse(cache.presentAndValid("getbill/1"));
+        assertFalse(cache.peekEntry("getbill/2").isPresent());
+        assertFalse(cache.presentAndValid("getbill/2"));
+    }
+
+    @Test
+    void testIndexIsRebuiltAfterUncleanShutdown() throws Exception {
+        File dir = Files.createTempDirectory("legiscan-index-test").toFile();
+
+        try {
+            var fsCache = new FileSystemLegiscanCache(dir, objectMapper);
+            fsCache.put("getbill/1", Map.of("a", "1"), "before", 10);
+            fsCache.close();
+
+            // Change the entry behind the index's back, and mark the index as dirty as if we had crashed
+            File file = new File(dir, "getbill/1/cached.json");
+            Files.writeString(file.toPath(), "{ \"timestamp\" : 1700000000, \"ttlSecs\" : -1, \"objectHash\" : \"after\", \"value\" : { \"a\" : \"2\" } }");
+
+            try (var raf = new RandomAccessFile(new File(dir, ".metadata.idx"), "rw")) {
+                raf.seek(20);
+                raf.write(1);
+            }
+
+            fsCache = new FileSystemLegiscanCache(dir, objectMapper);
+            var entry = fsCache.peekEntry("getbill/1").get();
+            assertEquals("after", entry.getObjectHash());
+            assertEquals(1700000000, entry.getTimestamp());
+            assertEquals("2", entry.getValue(new TypeReference<Map<String, String>>() {}).get("a"));
+            fsCache.close();
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    void testIndexHeldByAnotherProcessIsLeftAlone() throws Exception {
+        File dir = Files.createTempDirectory("legiscan-index-test").toFile();
+
+        try (var channel = FileChannel.open(new File(dir, ".metadata.idx").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Stands in for another process which has the index open
+            channel.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+            var held = channel.lock();
+
+            var fsCache = new FileSystemLegiscanCache(dir, objectMapper);
+            fsCache.put("getbill/1", Map.of("a", "1"), "hash", 10);
+            assertEquals("hash", fsCache.peekEntry("getbill/1").get().getObjectHash());
+            assertEquals("1", fsCache.peek("getbill/1", new TypeReference<Map<String, String>>() {}).get().get("a"));
+            fsCache.remove("getbill/1");
+            assertFalse(fsCache.presentAndValid("getbill/1"));
+            fsCache.close();
+
+            assertEquals(3, channel.size());
+            held.release();
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    void testConcurrentOperationsOnOverlappingKeys() throws Exception {
+        cache = new FileSystemLegiscanCache(tempDir, objectMapper);
+        int keys = 8, threads = 8, ops = 500;
+
+        // These are overwritten but never removed, so must always be readable
+        for (int k = 0; k < keys; k++) {
+            cache.put("stress/" + k, Map.of("v", "0", "copy", "0"), 60);
+        }
+
+        var pool = Executors.newFixedThreadPool(threads);
+        var failures = new ConcurrentLinkedQueue<String>();
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    var random = new Random(thread);
+
+                    for (int i = 0; i < ops; i++) {
+                        String key = "stress/" + random.nextInt(keys);
+                        String removable = "stress-removable/" + random.nextInt(keys);
+                        String v = thread + "-" + i;
+
+                        switch (random.nextInt(4)) {
+                            case 0 -> cache.put(key, Map.of("v", v, "copy", v), 60);
+                            case 1 -> cache.put(removable, Map.of("v", v, "copy", v), 60);
+                            case 2 -> cache.remove(removable);
+                            default -> {
+                                var value = cache.peekValue(key, new TypeReference<Map<String, String>>() {});
+                                if (value.isEmpty()) failures.add("Missing value for " + key);
+                                else if (!value.get().getValue().get("v").equals(value.get().getValue().get("copy"))) failures.add("Torn value for " + key);
+
+                                var other = cache.peekValue(removable, new TypeReference<Map<String, String>>() {});
+                                if (other.isPresent() && !other.get().getValue().get("v").equals(other.get().getValue().get("copy"))) failures.add("Torn value for " + removable);
+                            }
+                        }
+                    }
+                }));
+            }
+
+            for (var f : futures) f.get(60, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertTrue(failures.isEmpty(), String.join(", ", failures));
+
+        for (int k = 0; k < keys; k++) {
+            File dir = new File(tempDir, "stress/" + k);
+            assertEquals(1, dir.list().length, "Leftover temporary files in " + dir);
+        }
+    }
 }
@@ -0,0 +1,98 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+public class MemoryLegiscanCacheTest {
+
+    private File tempDir;
+    private ObjectMapper objectMapper;
+    private FileSystemLegiscanCache backing;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+        tempDir = Files.createTempDirectory("legiscan-memory-cache-test").toFile();
+        backing = new FileSystemLegiscanCache(tempDir, objectMapper);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    void testHitsAreServedFromMemory() {
+        var cache = new MemoryLegiscanCache(backing, objectMapper, 1_000_000);
+        cache.put("getbill/1", Map.of("foo", "bar"), 60);
+
+        Optional<Map<String, String>> first = cache.getOrExpire("getbill/1", new TypeReference<>() {});
+        Optional<Map<String, String>> second = cache.getOrExpire("getbill/1", new TypeReference<>() {});
+
+        assertEquals("bar", first.get().get("foo"));
+        assertEquals("bar", second.get().get("foo"));
+        assertEquals(1, cache.getStats().getHits());
+    }
+
+    @Test
+    void testPeekedEntriesAreCopies() {
+        var cache = new MemoryLegiscanCache(backing, objectMapper, 1_000_000);
+        cache.put("getbill/1", Map.of("a", "1"), "hash", 60);
+
+        var entry = cache.peekEntry("getbill/1").get();
+        entry.setTimestamp(0);
+        entry.setObjectHash("changed");
+        entry.setPayload(null);
+
+        var again = cache.peekEntry("getbill/1").get();
+        assertEquals("hash", again.getObjectHash());
+        assertTrue(cache.presentAndValid("getbill/1"));
+        assertEquals("1", again.getValue(new TypeReference<Map<String, String>>() {}).get("a"));
+    }
+
+    @Test
+    void testPutAndRemoveInvalidate() {
+        var cache = new MemoryLegiscanCache(backing, objectMapper, 1_000_000);
+        cache.put("getbill/1", Map.of("a", "1"), 60);
+        assertTrue(cache.presentAndValid("getbill/1"));
+
+        cache.put("getbill/1", Map.of("a", "2"), "hash", 60);
+        Optional<Map<String, String>> result = cache.peek("getbill/1", new TypeReference<>() {});
+        assertEquals("2", result.get().get("a"));
+        assertEquals("hash", cache.peekEntry("getbill/1").get().getObjectHash());
+
+        cache.remove("getbill/1");
+        assertFalse(cache.presentAndValid("getbill/1"));
+        assertFalse(backing.presentAndValid("getbill/1"));
+    }
+
+    @Test
+    void testEvictsByWeight() {
+        var cache = new MemoryLegiscanCache(backing, objectMapper, 2_000);
+
+        for (int i = 0; i < 50; i++) {
+            cache.put("getbill/" + i, Map.of("text", "x".repeat(200)), 60);
+            cache.peekEntry("getbill/" + i);
+        }
+
+        var stats = cache.getStats();
+        assertTrue(stats.getEvictions() > 0);
+        assertTrue(stats.getWeightedSize() <= stats.getMaxWeight());
+    }
+}
@@ -0,0 +1,135 @@
+package us.poliscore.legiscan.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+public class PackFileLegiscanCacheTest {
+
+    private File tempDir;
+    private ObjectMapper objectMapper;
+
+    @BeforeEach
+    void setup() throws Exception {
+        objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+        tempDir = Files.createTempDirectory("legiscan-pack-cache-test").toFile();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    void testPutOverwriteRemoveAndReopen() throws Exception {
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            cache.put("getbill/1", Map.of("a", "1"), 60);
+            cache.put("getbill/2", Map.of("a", "2"), "hash2", 60);
+            cache.put("getbill/1", Map.of("a", "3"), 60);
+            cache.remove("getbill/2");
+
+            assertEquals("3", cache.peek("getbill/1", new TypeReference<Map<String, String>>() {}).get().get("a"));
+            assertFalse(cache.presentAndValid("getbill/2"));
+        }
+
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            assertEquals(1, cache.size());
+            assertEquals("3", cache.peek("getbill/1", new TypeReference<Map<String, String>>() {}).get().get("a"));
+            assertFalse(cache.peekEntry("getbill/2").isPresent());
+
+            // Sequence numbers must continue where they left off, or this would be lost on the next reopen
+            cache.put("getbill/2", Map.of("a", "4"), 60);
+        }
+
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            assertEquals("4", cache.peek("getbill/2", new TypeReference<Map<String, String>>() {}).get().get("a"));
+        }
+    }
+
+    @Test
+    void testRecoversFromTornAppend() throws Exception {
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            cache.put("getbill/1", Map.of("a", "1"), 60);
+            cache.put("getbill/2", Map.of("a", "2"), 60);
+        }
+
+        // Simulate a crash midway through writing the second record
+        File segment = tempDir.listFiles((dir, name) -> name.endsWith(".pack"))[0];
+        try (var raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            assertTrue(cache.presentAndValid("getbill/1"));
+            assertFalse(cache.presentAndValid("getbill/2"));
+
+            cache.put("getbill/3", Map.of("a", "3"), 60);
+        }
+
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            assertEquals(2, cache.size());
+            assertEquals("3", cache.peek("getbill/3", new TypeReference<Map<String, String>>() {}).get().get("a"));
+        }
+    }
+
+    @Test
+    void testCompactionReclaimsDeadRecords() throws Exception {
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            cache.setMaxSegmentBytes(4096);
+
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 20; i++) {
+                    cache.put("getbill/" + i, Map.of("round", String.valueOf(round)), 60);
+                }
+            }
+            cache.remove("getbill/0");
+
+            assertTrue(cache.needsCompaction());
+            long before = cache.getTotalBytes();
+
+            cache.compact();
+
+            assertTrue(cache.getTotalBytes() < before / 5);
+            assertEquals(19, cache.size());
+        }
+
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            assertEquals(19, cache.size());
+            assertFalse(cache.presentAndValid("getbill/0"));
+
+            for (int i = 1; i < 20; i++) {
+                assertEquals("9", cache.peek("getbill/" + i, new TypeReference<Map<String, String>>() {}).get().get("round"));
+            }
+        }
+    }
+
+    @Test
+    void testDirectoryCanOnlyBeOpenedOnce() throws Exception {
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            cache.put("getbill/1", Map.of("a", "1"), 10);
+
+            assertThrows(IllegalStateException.class, () -> new PackFileLegiscanCache(tempDir, objectMapper));
+        }
+
+        // Released on close
+        try (var cache = new PackFileLegiscanCache(tempDir, objectMapper)) {
+            assertTrue(cache.presentAndValid("getbill/1"));
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import us.poliscore.legiscan.cache.FileSystemLegiscanCache;
+import us.poliscore.legiscan.cache.NoOpLegiscanCache;
+import us.poliscore.legiscan.exception.LegiscanException;
+import us.poliscore.legiscan.view.LegiscanBillView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+public class CachedLegiscanServiceTest {
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+
+    @Test
+    void testConcurrentMissesShareOneRequest() throws Exception {
+        var requests = new AtomicInteger();
+        var release = new CountDownLatch(1);
+
+        var service = new CachedLegiscanService("key", objectMapper, new NoOpLegiscanCache()) {
+            @Override
+            public LegiscanResponse makeRequest(String url) {
+                requests.incrementAndGet();
+                await(release);
+
+                var bill = new LegiscanBillView();
+                bill.setBillId(1);
+                var resp = new LegiscanResponse();
+                resp.setBill(bill);
+                return resp;
+            }
+        };
+
+        List<Future<LegiscanBillView>> results = new ArrayList<>();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> service.getBill(1)));
+            }
+
+            // Hold the leader's request open until every caller has joined it
+            while (service.inFlight.getInFlightCount() == 0 || requests.get() + service.getDeduplicatedRequestCount() < 200) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (var f : results) {
+                assertSame(results.get(0).get(10, TimeUnit.SECONDS), f.get(10, TimeUnit.SECONDS));
+            }
+        }
+
+        assertEquals(1, requests.get());
+        assertEquals(199, service.getDeduplicatedRequestCount());
+    }
+
+    @Test
+    void testFailuresArePropagatedToEveryCaller() throws Exception {
+        var release = new CountDownLatch(1);
+        var flight = new SingleFlight();
+        var failures = new AtomicInteger();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(() -> {
+                    try {
+                        flight.execute("getbill/1", () -> {
+                            await(release);
+                            throw new LegiscanException("boom");
+                        });
+                    } catch (LegiscanException e) {
+                        failures.incrementAndGet();
+                    }
+                }));
+            }
+
+            while (flight.getInFlightCount() == 0 || flight.getDeduplicatedCount() < 19) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (var f : results) f.get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(20, failures.get());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    @Test
+    void testStaleValuesAreServedWhileRevalidating() throws Exception {
+        File dir = Files.createTempDirectory("legiscan-swr-test").toFile();
+
+        try {
+            var cache = new FileSystemLegiscanCache(dir, objectMapper);
+            var requests = new AtomicInteger();
+
+            var service = new CachedLegiscanService("key", objectMapper, cache) {
+                @Override
+                public LegiscanResponse makeRequest(String url) {
+                    requests.incrementAndGet();
+                    var bill = new LegiscanBillView();
+                    bill.setBillId(1);
+                    bill.setChangeHash("fresh");
+                    var resp = new LegiscanResponse();
+                    resp.setBill(bill);
+                    return resp;
+                }
+            };
+            service.setFreshness(null);
+            service.setMaxStaleness(Duration.ofHours(1));
+
+            // Expired a minute and a half ago
+            File file = new File(dir, "getbill/1/cached.json");
+            file.getParentFile().mkdirs();
+            Files.writeString(file.toPath(), "{ \"timestamp\" : " + (Instant.now().getEpochSecond() - 100)
+                    + ", \"ttlSecs\" : 10, \"objectHash\" : null, \"value\" : { \"bill\" : { \"bill_id\" : 1, \"change_hash\" : \"stale\" } } }");
+
+            assertEquals("stale", service.getBill(1).getChangeHash());
+            assertEquals(1, service.getStaleServedCount());
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (service.getCache().peekValue("getbill/1", new TypeReference<LegiscanResponse>() {}).get().isExpired(null)) {
+                if (System.currentTimeMillis() > deadline) throw new AssertionError("Background refresh never happened");
+                Thread.sleep(10);
+            }
+
+            assertEquals("fresh", service.getBill(1).getChangeHash());
+            assertEquals(1, requests.get());
+
+            // Too stale to serve, so the caller has to wait
+            service.setMaxStaleness(Duration.ofSeconds(10));
+            cache.remove("getbill/1");
+            Files.writeString(file.toPath(), "{ \"timestamp\" : " + (Instant.now().getEpochSecond() - 100)
+                    + ", \"ttlSecs\" : 10, \"objectHash\" : null, \"value\" : { \"bill\" : { \"bill_id\" : 1, \"change_hash\" : \"stale\" } } }");
+
+            assertEquals("fresh", service.getBill(1).getChangeHash());
+            assertEquals(2, requests.get());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    void testRefreshedEntriesOutlastTheBoundary() throws Exception {
+        File dir = Files.createTempDirectory("legiscan-refresh-ahead-test").toFile();
+
+        try {
+            var service = new CachedLegiscanService("key", objectMapper, new FileSystemLegiscanCache(dir, objectMapper)) {
+                @Override
+                public LegiscanResponse makeRequest(String url) {
+                    var bill = new LegiscanBillView();
+                    bill.setBillId(1);
+                    var resp = new LegiscanResponse();
+                    resp.setBill(bill);
+                    return resp;
+                }
+            };
+            service.setFreshness(null);
+
+            Instant now = Instant.now();
+            Instant boundary = now.plus(ExpirationPolicy.daily().getTtl(now, "getbill/1"));
+
+            service.refreshAhead("getbill/1", "url", ExpirationPolicy.daily(), boundary);
+
+            var refreshed = service.getCache().peekValue("getbill/1", new TypeReference<LegiscanResponse>() {}).get();
+            Instant expiresAt = refreshed.getExpiresAt(null);
+            assertTrue(expiresAt.isAfter(boundary), expiresAt + " is not after " + boundary);
+            assertEquals(boundary.plus(ExpirationPolicy.daily().getTtl(boundary, "getbill/1")).getEpochSecond(), expiresAt.getEpochSecond(), 2);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    void testAsyncCallsRunOnVirtualThreads() throws Exception {
+        var virtual = new AtomicInteger();
+
+        var service = new CachedLegiscanService("key", objectMapper, new NoOpLegiscanCache()) {
+            @Override
+            public LegiscanResponse makeRequest(String url) {
+                if (Thread.currentThread().isVirtual()) virtual.incrementAndGet();
+
+                var bill = new LegiscanBillView();
+                bill.setBillId(Integer.parseInt(url.substring(url.lastIndexOf('=') + 1)));
+                var resp = new LegiscanResponse();
+                resp.setBill(bill);
+                return resp;
+            }
+        };
+
+        var futures = new ArrayList<CompletableFuture<LegiscanBillView>>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(service.getBillAsync(i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, futures.get(i).get(10, TimeUnit.SECONDS).getBillId());
+        }
+        assertEquals(100, virtual.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
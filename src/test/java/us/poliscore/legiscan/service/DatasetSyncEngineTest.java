@@ -0,0 +1,156 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Year;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import us.poliscore.legiscan.cache.DatasetManifest;
+import us.poliscore.legiscan.view.LegiscanDatasetView;
+import us.poliscore.legiscan.view.LegiscanResponse;
+import us.poliscore.legiscan.view.LegiscanState;
+
+public class DatasetSyncEngineTest {
+
+    private File tempDir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        tempDir = Files.createTempDirectory("legiscan-sync-test").toFile();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        FileUtils.deleteDirectory(tempDir);
+    }
+
+    @Test
+    void testPlanOrdersByStalenessThenSize() {
+        int thisYear = Year.now().getValue();
+        var service = service(0);
+
+        datasets(service,
+                dataset(1, LegiscanState.ALABAMA, thisYear, 10, 0, "h1"),
+                dataset(2, LegiscanState.ALABAMA, thisYear, 100, 0, "h2"),
+                dataset(3, LegiscanState.TEXAS, thisYear, 1000, 0, "h3"),
+                dataset(4, LegiscanState.TEXAS, thisYear, 1000, 0, "h4"),
+                dataset(5, LegiscanState.TEXAS, thisYear - 2, 1000, 0, "h5"),
+                dataset(6, LegiscanState.TEXAS, thisYear, 1000, 1, "h6"));
+
+        manifest(service, 3, "old");
+        manifest(service, 4, "h4");
+
+        var engine = DatasetSyncEngine.builder(service).build();
+
+        // Never loaded (biggest first), then changed, then current. Past and special sessions are left out.
+        var plan = engine.plan(Set.of(), Set.of());
+        assertEquals(List.of(2, 1, 3, 4), plan.stream().map(p -> p.getDataset().getSessionId()).toList());
+        assertEquals(DatasetSyncEngine.Staleness.CHANGED, plan.get(2).getStaleness());
+        assertEquals(DatasetSyncEngine.Staleness.CURRENT, plan.get(3).getStaleness());
+
+        assertEquals(List.of(5), engine.plan(Set.of(LegiscanState.TEXAS), Set.of(thisYear - 2)).stream().map(p -> p.getDataset().getSessionId()).toList());
+        assertEquals(List.of(3, 4, 6), DatasetSyncEngine.builder(service).withSpecialSessions(true).build().plan(Set.of(LegiscanState.TEXAS), Set.of()).stream().map(p -> p.getDataset().getSessionId()).sorted().toList());
+    }
+
+    @Test
+    void testPlanUsesFreshDatasetList() throws Exception {
+        int thisYear = Year.now().getValue();
+
+        // Legiscan has a newer hash than the cached list, which is still within its week
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] bytes = ("{ \"status\" : \"OK\", \"datasetlist\" : [ { \"session_id\" : 4, \"state_id\" : " + LegiscanState.TEXAS.getId()
+                    + ", \"year_start\" : " + (thisYear - 1) + ", \"year_end\" : " + thisYear + ", \"dataset_hash\" : \"h4b\" } ] }").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            var service = CachedLegiscanService.builder("key")
+                    .withCacheDirectory(new File(tempDir, "cache"))
+                    .withBaseUrl("http://localhost:" + server.getAddress().getPort() + "/")
+                    .withRetryPolicy(RetryPolicy.none())
+                    .build();
+
+            datasets(service, dataset(4, LegiscanState.TEXAS, thisYear, 1000, 0, "h4"));
+            manifest(service, 4, "h4");
+
+            var plan = DatasetSyncEngine.builder(service).build().plan(Set.of(), Set.of());
+            assertEquals(1, plan.size());
+            assertEquals(DatasetSyncEngine.Staleness.CHANGED, plan.get(0).getStaleness());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void testNothingIsStartedOnceTheBudgetIsExhausted() {
+        int thisYear = Year.now().getValue();
+        var service = service(1);
+
+        datasets(service,
+                dataset(1, LegiscanState.ALABAMA, thisYear, 10, 0, "h1"),
+                dataset(2, LegiscanState.TEXAS, thisYear, 10, 0, "h2"));
+
+        service.getLedger().record("getBill");
+
+        var report = DatasetSyncEngine.builder(service).withConcurrency(2).build().syncCurrent();
+
+        assertEquals(2, report.count(DatasetSyncEngine.Status.SKIPPED));
+        assertEquals(0, report.getQueries());
+        assertTrue(report.getResults().get(0).getReason().contains("EXHAUSTED"), report.getResults().get(0).getReason());
+    }
+
+    private CachedLegiscanService service(long queryBudget) {
+        var builder = CachedLegiscanService.builder("key")
+                .withCacheDirectory(new File(tempDir, "cache"))
+                .withBaseUrl("http://localhost:1/")
+                .withRetryPolicy(RetryPolicy.none());
+
+        if (queryBudget > 0) builder.withQueryBudget(queryBudget);
+
+        return builder.build();
+    }
+
+    private static void datasets(CachedLegiscanService service, LegiscanDatasetView... datasets) {
+        var response = new LegiscanResponse();
+        response.setStatus("OK");
+        response.setDatasetlist(List.of(datasets));
+        service.getCache().put("getdatasetlist", response, -1);
+    }
+
+    private static void manifest(CachedLegiscanService service, int sessionId, String datasetHash) {
+        var manifest = new DatasetManifest();
+        manifest.setDatasetHash(datasetHash);
+        service.getCache().put(DatasetManifest.getCacheKey(sessionId), manifest, -1);
+    }
+
+    private static LegiscanDatasetView dataset(int sessionId, LegiscanState state, int yearEnd, int size, int special, String hash) {
+        var dataset = new LegiscanDatasetView();
+        dataset.setSessionId(sessionId);
+        dataset.setStateId(state.getId());
+        dataset.setYearStart(yearEnd - 1);
+        dataset.setYearEnd(yearEnd);
+        dataset.setDatasetSize(size);
+        dataset.setSpecialId(special);
+        dataset.setDatasetHash(hash);
+        dataset.setSessionName(state + " " + sessionId);
+        dataset.setAccessKey("access");
+        return dataset;
+    }
+}
@@ -0,0 +1,69 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import us.poliscore.legiscan.cache.NoOpLegiscanCache;
+import us.poliscore.legiscan.view.RefreshFrequency;
+
+public class ExpirationPolicyTest {
+
+    @Test
+    void testSpreadIsDeterministicAndSpreadsKeys() {
+        Instant now = Instant.parse("2025-03-05T12:00:00Z");
+        Duration base = ExpirationPolicy.weekly().getTtl(now, "getperson/1");
+        ExpirationPolicy spread = ExpirationPolicy.weekly().withSpread(Duration.ofHours(3));
+
+        Set<Long> expiries = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            Duration ttl = spread.getTtl(now, "getperson/" + i);
+
+            assertEquals(ttl, spread.getTtl(now, "getperson/" + i));
+            assertTrue(ttl.compareTo(base) >= 0 && ttl.compareTo(base.plusHours(3)) < 0);
+            expiries.add(ttl.getSeconds() / 60);
+        }
+
+        // 1000 keys over 180 minutes should touch nearly every minute
+        assertTrue(expiries.size() > 150, "Only " + expiries.size() + " distinct minutes");
+        assertNull(ExpirationPolicy.never().withSpread(Duration.ofHours(3)).getTtl(now, "getperson/1"));
+    }
+
+    @Test
+    void testBulkLoadSpreadSurvivesDefaultFreshness() {
+        var service = CachedLegiscanService.builder("key").withCache(new NoOpLegiscanCache()).build();
+        long week = RefreshFrequency.WEEKLY.asDuration().getSeconds();
+
+        // Bills are cached for 3 hours, which the weekly freshness outlasts. Their expiry must still be spread.
+        Set<Long> expiries = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            long ttl = service.bulkLoadPolicy(ExpirationPolicy.fixedDuration(Duration.ofHours(3))).getTtl(Instant.now(), "getbill/" + i).getSeconds();
+            assertTrue(ttl >= week);
+
+            // The entry lives until the later of its TTL and the freshness
+            expiries.add(Math.max(week, ttl));
+        }
+
+        assertTrue(expiries.size() > 50, "Only " + expiries.size() + " distinct expiries");
+    }
+
+    @Test
+    void testJitterStaysWithinBounds() {
+        Instant now = Instant.now();
+        ExpirationPolicy jittered = ExpirationPolicy.hourly().withJitter(Duration.ofMinutes(10));
+
+        for (int i = 0; i < 100; i++) {
+            Duration ttl = jittered.getTtl(now, "getbill/1");
+            assertTrue(ttl.compareTo(Duration.ofHours(1)) >= 0 && ttl.compareTo(Duration.ofMinutes(70)) < 0);
+        }
+
+        assertNull(ExpirationPolicy.never().withJitter(Duration.ofMinutes(10)).getTtl(now, "getbill/1"));
+    }
+}
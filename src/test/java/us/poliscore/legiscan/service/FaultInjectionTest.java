@@ -0,0 +1,296 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+import us.poliscore.legiscan.cache.FileSystemLegiscanCache;
+import us.poliscore.legiscan.cache.NoOpLegiscanCache;
+import us.poliscore.legiscan.exception.CircuitOpenException;
+import us.poliscore.legiscan.exception.LegiscanException;
+import us.poliscore.legiscan.view.LegiscanResponse;
+
+/**
+ * Runs the service against a local stub of the Legiscan API which fails on demand.
+ */
+public class FaultInjectionTest {
+
+    private static final String BILL = "{ \"status\" : \"OK\", \"bill\" : { \"bill_id\" : 1, \"change_hash\" : \"fresh\" } }";
+
+    private static final String DATASET_LIST = "{ \"status\" : \"OK\", \"datasetlist\" : [ { \"session_id\" : 1, \"dataset_hash\" : \"abc\" } ] }";
+
+    private HttpServer server;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /** The number of upcoming requests which fail */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /** Whether failures drop the connection rather than returning a 503 */
+    private volatile boolean reset = false;
+
+    private File dir;
+
+    private volatile String body = BILL;
+
+    @BeforeEach
+    void setup() throws Exception {
+        dir = Files.createTempDirectory("legiscan-fault-test").toFile();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestURI().getQuery().contains("op=getDatasetList")) {
+                // Only looked up in passing, so neither counted nor failed
+                byte[] bytes = DATASET_LIST.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, bytes.length);
+                exchange.getResponseBody().write(bytes);
+                exchange.close();
+                return;
+            }
+
+            requests.incrementAndGet();
+
+            if (failures.getAndDecrement() > 0) {
+                if (reset) {
+                    exchange.close();
+                    return;
+                }
+
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void cleanup() throws Exception {
+        server.stop(0);
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private CachedLegiscanService.Builder builder() {
+        return CachedLegiscanService.builder("key")
+                .withCache(new NoOpLegiscanCache())
+                .withBaseUrl("http://localhost:" + server.getAddress().getPort() + "/")
+                .withRetryPolicy(new RetryPolicy(4, Duration.ofMillis(10), Duration.ofMillis(50)));
+    }
+
+    @Test
+    void testTransientFailuresAreRetried() throws Exception {
+        var service = builder().build();
+
+        failures.set(3);
+        assertEquals("fresh", service.getBill(1).getChangeHash());
+        assertEquals(4, requests.get());
+
+        reset = true;
+        failures.set(2);
+        assertEquals("fresh", service.getBillAsync(1).get(10, TimeUnit.SECONDS).getChangeHash());
+        assertEquals(7, requests.get());
+    }
+
+    @Test
+    void testStreamingDownloadsAreRetriedWhole() throws Exception {
+        var service = builder().build();
+        var target = dir.toPath().resolve("datasets/1.zip");
+
+        reset = true;
+        failures.set(1);
+        service.getDatasetRaw(1, "access", "json", target);
+        assertEquals(BILL, Files.readString(target));
+        assertEquals(2, requests.get());
+        assertEquals(1, Files.list(target.getParent()).count());
+
+        var sink = new ByteArrayOutputStream();
+        service.getDatasetRaw(1, "access", "json", sink);
+        assertEquals(BILL, sink.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testArchiveFetchedWithoutHashIsStoredUnderLatestHash() throws Exception {
+        var cache = new FileSystemLegiscanCache(dir, new ObjectMapper());
+        var service = builder().withCache(cache).withArchiveDirectory(new File(dir, ".archives")).build();
+
+        service.getDatasetRaw(1, "access", "json", new ByteArrayOutputStream());
+
+        // Otherwise every expiry would find a hash mismatch and download the archive again
+        String cacheKey = service.cacheKeyFromUrl(service.buildUrl("getDatasetRaw", "id", "1", "access_key", "access", "format", "json"));
+        assertEquals("abc", cache.openBlob(cacheKey).get().getObjectHash());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void testPermitIsHeldWhileBodyStreams() throws Exception {
+        var service = builder().withRateLimit(0, 1, 1).build();
+        var inFlight = new AtomicInteger(-1);
+
+        service.makeRequestRaw(service.buildUrl("getBill", "id", "1"), new OutputStream() {
+            @Override
+            public void write(int b) {
+                inFlight.compareAndSet(-1, service.getRateLimiter().getInFlight());
+            }
+        });
+
+        assertEquals(1, inFlight.get());
+        assertEquals(0, service.getRateLimiter().getInFlight());
+    }
+
+    @Test
+    void testDatasetArchiveIsDecodedToDisk() throws Exception {
+        var service = builder()
+                .withCache(new FileSystemLegiscanCache(dir, new ObjectMapper()))
+                .withArchiveDirectory(new File(dir, ".archives"))
+                .build();
+
+        byte[] zip = new byte[256 * 1024];
+        new Random(7).nextBytes(zip);
+        body = "{ \"status\" : \"OK\", \"dataset\" : { \"session_id\" : 1, \"dataset_hash\" : \"abc\", \"mime\" : \"application/zip\", \"zip\" : \""
+                + Base64.getEncoder().encodeToString(zip) + "\" } }";
+
+        var dataset = service.getDatasetArchive(1, "access", "json", null);
+        assertEquals("abc", dataset.getDatasetHash());
+        assertNull(dataset.getZip());
+        assertArrayEquals(zip, Files.readAllBytes(Path.of(dataset.getArchivePath())));
+
+        // The archive is kept as a raw blob next to the metadata, and it's served from the cache next time
+        try (var files = Files.walk(new File(dir, "getdataset").toPath())) {
+            assertTrue(files.filter(f -> f.getFileName().toString().startsWith("cached.")).allMatch(f -> f.toFile().length() < 1024));
+        }
+        assertTrue(dataset.getArchivePath().endsWith("blob.bin"));
+        assertEquals(dataset.getArchivePath(), service.getDatasetArchive(1, "access", "json", null).getArchivePath());
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void testBillTextDocumentIsStoredAsBlob() throws Exception {
+        var puts = new AtomicInteger();
+        var cache = new FileSystemLegiscanCache(dir, new ObjectMapper()) {
+            @Override
+            public void put(String key, Object value, String objectHash, long ttlSecs) {
+                puts.incrementAndGet();
+                assertNull(((LegiscanResponse) value).getText().getDoc(), "The document was written inline");
+                super.put(key, value, objectHash, ttlSecs);
+            }
+        };
+        var service = builder().withCache(cache).build();
+
+        byte[] doc = new byte[64 * 1024];
+        new Random(11).nextBytes(doc);
+        body = "{ \"status\" : \"OK\", \"text\" : { \"doc_id\" : 5, \"bill_id\" : 1, \"text_hash\" : \"h\", \"doc\" : \""
+                + Base64.getEncoder().encodeToString(doc) + "\" } }";
+
+        assertNull(service.getBillTextMetadata(5).getDoc());
+        assertArrayEquals(doc, service.getBillTextDocument(5).get().readAllBytes());
+        assertArrayEquals(doc, Base64.getDecoder().decode(service.getBillText(5).getDoc()));
+        assertEquals(1, requests.get());
+        assertEquals(1, puts.get());
+
+        // The cached response no longer carries the document
+        try (var files = Files.walk(new File(dir, "getbilltext").toPath())) {
+            assertTrue(files.filter(f -> f.getFileName().toString().startsWith("cached.")).allMatch(f -> f.toFile().length() < 1024));
+        }
+    }
+
+    @Test
+    void testCircuitBreakerFailsFast() throws Exception {
+        var service = builder()
+                .withRetryPolicy(RetryPolicy.none())
+                .withCircuitBreaker(3, Duration.ofMillis(300))
+                .build();
+
+        failures.set(Integer.MAX_VALUE);
+        for (int i = 0; i < 3; i++) {
+            var e = assertThrows(LegiscanException.class, () -> service.getBill(1));
+
+            // Wrapped once, around the HTTP failure itself
+            assertTrue(e.getMessage().startsWith("Failed to call Legiscan API: "), e.getMessage());
+            assertEquals("HTTP 503: ", e.getCause().getMessage());
+        }
+        assertEquals(3, requests.get());
+
+        // Open: nothing goes out
+        assertThrows(CircuitOpenException.class, () -> service.getBill(1));
+        assertEquals(3, requests.get());
+
+        // Half open: a successful trial closes it again
+        failures.set(0);
+        Thread.sleep(400);
+        assertEquals("fresh", service.getBill(1).getChangeHash());
+        assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+    }
+
+    @Test
+    void testMalformedTrialDoesNotWedgeBreaker() throws Exception {
+        var service = builder()
+                .withRetryPolicy(RetryPolicy.none())
+                .withCircuitBreaker(1, Duration.ofMillis(200))
+                .build();
+
+        failures.set(1);
+        assertThrows(LegiscanException.class, () -> service.getBill(1));
+        assertEquals(CircuitBreaker.State.OPEN, service.getCircuitBreaker().getState());
+
+        // The trial gets a 200 which can't be parsed
+        body = "{ \"status\" : ";
+        Thread.sleep(300);
+        assertThrows(LegiscanException.class, () -> service.getBill(1));
+        assertEquals(2, requests.get());
+
+        // The next request becomes the trial, rather than being refused
+        body = BILL;
+        assertEquals("fresh", service.getBill(1).getChangeHash());
+        assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreaker().getState());
+    }
+
+    @Test
+    void testCachedDataIsServedWhileOpen() throws Exception {
+        var cache = new FileSystemLegiscanCache(dir, new ObjectMapper());
+        var service = builder()
+                .withCache(cache)
+                .withRetryPolicy(RetryPolicy.none())
+                .withCircuitBreaker(1, Duration.ofMinutes(1))
+                .build();
+        service.setFreshness(null);
+
+        // Expired long ago, so stale-while-revalidate wouldn't serve it
+        File file = new File(dir, "getbill/1/cached.json");
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), "{ \"timestamp\" : " + (Instant.now().getEpochSecond() - 100_000)
+                + ", \"ttlSecs\" : 10, \"objectHash\" : null, \"value\" : { \"bill\" : { \"bill_id\" : 1, \"change_hash\" : \"stale\" } } }");
+
+        failures.set(Integer.MAX_VALUE);
+        assertThrows(LegiscanException.class, () -> service.getBill(1));
+        assertEquals("stale", service.getBill(1).getChangeHash());
+        assertEquals(1, requests.get());
+    }
+}
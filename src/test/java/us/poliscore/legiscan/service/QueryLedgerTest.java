@@ -0,0 +1,76 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import us.poliscore.legiscan.cache.NoOpLegiscanCache;
+import us.poliscore.legiscan.exception.BudgetExhaustedException;
+
+public class QueryLedgerTest {
+
+    private File dir;
+
+    @BeforeEach
+    void setup() throws Exception {
+        dir = Files.createTempDirectory("legiscan-ledger").toFile();
+    }
+
+    @AfterEach
+    void cleanup() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    void testLedgerIsDurableAndMonthly() {
+        var october = Clock.fixed(Instant.parse("2026-10-15T12:00:00Z"), ZoneOffset.UTC);
+        var november = Clock.fixed(Instant.parse("2026-11-15T12:00:00Z"), ZoneOffset.UTC);
+        var file = new File(dir, "ledger.json");
+
+        var ledger = new QueryLedger(file, 10, october);
+        for (int i = 0; i < 7; i++) ledger.record("getBill");
+        ledger.record("getSearch");
+
+        // A second process sees the same count
+        var reopened = new QueryLedger(file, 10, october);
+        assertEquals(8, reopened.getUsed());
+        assertEquals(7, reopened.getUsageByOperation().get("getBill"));
+        assertEquals(QueryLedger.Level.CONSERVE, reopened.getLevel());
+
+        reopened.record("getBill");
+        reopened.record("getBill");
+        assertEquals(QueryLedger.Level.EXHAUSTED, reopened.getLevel());
+
+        // A new month starts from zero, but keeps the history
+        var next = new QueryLedger(file, 10, november);
+        assertEquals(0, next.getUsed());
+        assertEquals(QueryLedger.Level.NORMAL, next.getLevel());
+        assertEquals(10, next.report().getHistory().get("2026-10"));
+    }
+
+    @Test
+    void testNonEssentialCallsAreRefused() {
+        var service = new CachedLegiscanService("key", JsonMapper.builder().addModule(new JavaTimeModule()).build(), new NoOpLegiscanCache());
+        var ledger = new QueryLedger(dir, "key", 100);
+        service.setLedger(ledger);
+
+        for (int i = 0; i < 96; i++) ledger.record("getBill");
+
+        assertEquals(QueryLedger.Level.CRITICAL, service.getBudgetLevel());
+        assertThrows(BudgetExhaustedException.class, () -> service.getSponsoredList(1));
+        assertThrows(BudgetExhaustedException.class, () -> service.getSearch(1, "tax", 1));
+    }
+}
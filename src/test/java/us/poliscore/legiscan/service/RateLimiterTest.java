@@ -0,0 +1,63 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class RateLimiterTest {
+
+    @Test
+    void testRateAndBurst() {
+        var limiter = new RateLimiter(20, 5, 0);
+        long start = System.nanoTime();
+
+        // The burst goes out immediately, the rest at 20 per second
+        for (int i = 0; i < 15; i++) {
+            limiter.acquire().close();
+        }
+
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(elapsedMs >= 400 && elapsedMs < 2000, "Took " + elapsedMs + "ms");
+        assertEquals(15, limiter.getAcquiredCount());
+        assertTrue(limiter.getTotalWaitTime().toMillis() > 0);
+    }
+
+    @Test
+    void testMaxInFlightIsFairAndNonBlocking() throws Exception {
+        var limiter = new RateLimiter(0, 1, 2);
+        var current = new AtomicInteger();
+        var peak = new AtomicInteger();
+        List<Integer> order = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            int n = i;
+            futures.add(limiter.acquireAsync().thenAcceptAsync(permit -> {
+                try (permit) {
+                    peak.accumulateAndGet(current.incrementAndGet(), Math::max);
+                    synchronized (order) { order.add(n); }
+                    Thread.sleep(5);
+                    current.decrementAndGet();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        // Nothing above should have blocked this thread, even though only 2 could be granted
+        assertTrue(limiter.getQueued() > 0 || futures.stream().allMatch(CompletableFuture::isDone));
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertTrue(peak.get() <= 2);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(20, order.size());
+    }
+}
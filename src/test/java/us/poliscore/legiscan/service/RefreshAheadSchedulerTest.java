@@ -0,0 +1,50 @@
+package us.poliscore.legiscan.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+public class RefreshAheadSchedulerTest {
+
+    @Test
+    void testHottestEntriesAreRefreshedFirstWithinBudget() throws Exception {
+        List<String> refreshed = new CopyOnWriteArrayList<>();
+
+        try (var scheduler = new RefreshAheadScheduler((key, url, ep, expiresAt) -> refreshed.add(key), Duration.ofDays(1), 2, Duration.ofMillis(300), 100)) {
+            // With a lead time this long, practically every refresh time has already come
+            Instant expiresAt = Instant.now().plusSeconds(5);
+
+            for (int i = 0; i < 5; i++) {
+                for (int hit = 0; hit <= i * 10; hit++) {
+                    scheduler.recordHit("getbill/" + i, "url" + i, ExpirationPolicy.daily(), expiresAt);
+                }
+            }
+
+            // Never expires, so is never refreshed
+            scheduler.recordHit("getbill/never", "url", ExpirationPolicy.never(), null);
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (refreshed.size() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+
+            assertEquals(5, refreshed.size());
+            assertTrue(refreshed.subList(0, 2).containsAll(List.of("getbill/4", "getbill/3")), refreshed.toString());
+            assertTrue(scheduler.getOverBudgetCount() > 0);
+            assertEquals(5, scheduler.getRefreshedCount());
+            assertEquals(0, scheduler.getTrackedCount());
+
+            // A refresh which didn't move the expiry isn't tracked again
+            scheduler.recordHit("getbill/4", "url4", ExpirationPolicy.daily(), expiresAt);
+            assertEquals(0, scheduler.getTrackedCount());
+            scheduler.recordHit("getbill/4", "url4", ExpirationPolicy.daily(), expiresAt.plusSeconds(86400));
+            assertEquals(1, scheduler.getTrackedCount());
+        }
+    }
+}